@@ -0,0 +1,172 @@
+package com.knobtviker.android.things.contrib.community.driver.bme280;
+
+/**
+ * Streaming estimate of altitude and vertical speed from barometric pressure, a constant velocity Kalman filter
+ * over the barometric altitude.
+ * <p>
+ * The state is altitude and vertical speed, driven by white noise acceleration with the given density. Each
+ * sample is a prediction over the time since the previous one followed by a correction with the measured altitude,
+ * a constant number of operations without allocation, so timestamps may be irregular and samples may be skipped.
+ * <p>
+ * The acceleration noise density trades latency against noise: a higher density follows manoeuvres faster and
+ * passes more of the sensor noise to the vertical speed. Roughly 0.3 suits elevators and 3 suits drones. The
+ * altitude noise is the standard deviation of a single altitude measurement, about 0.1 m unfiltered and a few
+ * centimeters with high pressure oversampling and the IIR filter. Instances are not thread safe.
+ */
+public class AltitudeEstimator {
+
+    /**
+     * Standard deviation of the vertical speed before the first samples, in m/s.
+     */
+    public static final float INITIAL_VERTICAL_SPEED_STD_DEV = 10f;
+
+    private final DerivedQuantities derivedQuantities;
+    private final double accelerationVariance;
+    private final double altitudeVariance;
+
+    private boolean initialized;
+    private long lastTimestamp;
+    private double altitude;
+    private double verticalSpeed;
+    // Symmetric covariance of altitude and vertical speed.
+    private double altitudeCovariance;
+    private double crossCovariance;
+    private double speedCovariance;
+
+    /**
+     * Create an estimator with altitudes relative to the standard sea level pressure.
+     *
+     * @param accelerationNoise acceleration noise density in m/s<sup>2</sup>/&radic;Hz.
+     * @param altitudeNoise     standard deviation of a measured altitude in meters.
+     */
+    public AltitudeEstimator(float accelerationNoise, float altitudeNoise) {
+        this(new DerivedQuantities(DerivedQuantities.PRECISION_FAST), accelerationNoise, altitudeNoise);
+    }
+
+    /**
+     * Create an estimator.
+     *
+     * @param derivedQuantities converts pressure to altitude, relative to its reference pressure.
+     * @param accelerationNoise acceleration noise density in m/s<sup>2</sup>/&radic;Hz.
+     * @param altitudeNoise     standard deviation of a measured altitude in meters.
+     */
+    public AltitudeEstimator(DerivedQuantities derivedQuantities, float accelerationNoise, float altitudeNoise) {
+        if (!(accelerationNoise > 0) || !(altitudeNoise > 0)) {
+            throw new IllegalArgumentException("Noise must be positive: " + accelerationNoise + ", " + altitudeNoise);
+        }
+        this.derivedQuantities = derivedQuantities;
+        this.accelerationVariance = (double) accelerationNoise * accelerationNoise;
+        this.altitudeVariance = (double) altitudeNoise * altitudeNoise;
+    }
+
+    /**
+     * Update the estimate with a pressure sample.
+     *
+     * @param timestamp sample timestamp in nanoseconds, e.g. {@link System#nanoTime()}, not before the last one.
+     * @param pressure  barometric pressure in hPa.
+     */
+    public void update(long timestamp, float pressure) {
+        updateAltitude(timestamp, derivedQuantities.altitude(pressure));
+    }
+
+    /**
+     * Update the estimate with a raw sample.
+     *
+     * @param timestamp sample timestamp in nanoseconds, not before the last one.
+     * @param sample    raw sample.
+     */
+    public void update(long timestamp, RawSample sample) {
+        update(timestamp, sample.getPressure());
+    }
+
+    /**
+     * Update the estimate with a measured altitude.
+     *
+     * @param timestamp sample timestamp in nanoseconds, not before the last one.
+     * @param measured  altitude in meters.
+     */
+    public void updateAltitude(long timestamp, float measured) {
+        if (!initialized) {
+            initialized = true;
+            lastTimestamp = timestamp;
+            altitude = measured;
+            verticalSpeed = 0;
+            altitudeCovariance = altitudeVariance;
+            crossCovariance = 0;
+            speedCovariance = INITIAL_VERTICAL_SPEED_STD_DEV * INITIAL_VERTICAL_SPEED_STD_DEV;
+            return;
+        }
+        if (timestamp - lastTimestamp < 0) {
+            throw new IllegalArgumentException("Timestamp " + timestamp + " before last timestamp " + lastTimestamp);
+        }
+
+        // Predict, with the process noise of white acceleration integrated over the interval.
+        final double dt = (timestamp - lastTimestamp) / 1e9;
+        lastTimestamp = timestamp;
+        final double qdt = accelerationVariance * dt;
+        altitude += verticalSpeed * dt;
+        altitudeCovariance += dt * (2 * crossCovariance + dt * speedCovariance) + qdt * dt * dt / 3;
+        crossCovariance += dt * speedCovariance + qdt * dt / 2;
+        speedCovariance += qdt;
+
+        // Correct with the measured altitude.
+        final double innovationVariance = altitudeCovariance + altitudeVariance;
+        final double altitudeGain = altitudeCovariance / innovationVariance;
+        final double speedGain = crossCovariance / innovationVariance;
+        final double innovation = measured - altitude;
+        altitude += altitudeGain * innovation;
+        verticalSpeed += speedGain * innovation;
+        speedCovariance -= speedGain * crossCovariance;
+        altitudeCovariance -= altitudeGain * altitudeCovariance;
+        crossCovariance -= altitudeGain * crossCovariance;
+    }
+
+    /**
+     * Forget the estimate, the next sample starts a new one.
+     */
+    public void reset() {
+        initialized = false;
+    }
+
+    /**
+     * Returns true once a sample was offered since creation or the last {@link #reset()}.
+     */
+    public boolean isInitialized() {
+        return initialized;
+    }
+
+    /**
+     * Returns the timestamp of the last sample in nanoseconds.
+     */
+    public long getTimestamp() {
+        return lastTimestamp;
+    }
+
+    /**
+     * Returns the estimated altitude in meters.
+     */
+    public float getAltitude() {
+        return (float) altitude;
+    }
+
+    /**
+     * Returns the estimated vertical speed in m/s, positive upwards.
+     */
+    public float getVerticalSpeed() {
+        return (float) verticalSpeed;
+    }
+
+    /**
+     * Returns the standard deviation of the estimated altitude in meters.
+     */
+    public float getAltitudeStdDev() {
+        return (float) Math.sqrt(altitudeCovariance);
+    }
+
+    /**
+     * Returns the standard deviation of the estimated vertical speed in m/s.
+     */
+    public float getVerticalSpeedStdDev() {
+        return (float) Math.sqrt(speedCovariance);
+    }
+}
@@ -0,0 +1,1296 @@
+package com.knobtviker.android.things.contrib.community.driver.bme280;
+
+/**
+ * Created by bojan on 10/07/2017.
+ */
+
+import android.support.annotation.IntDef;
+import android.support.annotation.VisibleForTesting;
+
+import java.io.IOException;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Driver for the BMP/BME 280 temperature sensor on any {@link RegisterBus}, without platform dependencies.
+ * <p>
+ * Instances are thread safe. Every read, forced measurement and configuration change runs as a single
+ * transaction under a per-device bus lock, so concurrent readers never observe a half applied configuration
+ * and a forced measurement can't be interleaved with a normal mode read. The sampling configuration is an
+ * immutable {@link SamplingConfig} snapshot that is swapped atomically and can be read without blocking.
+ * <p>
+ * Concurrent full sample reads are coalesced: callers of {@link #readAll()} and {@link #readRawSample()} that
+ * requested a sample before another caller's data burst completed share its result instead of reading the bus
+ * again. With {@link #setSampleReuse(boolean)} the latest sample is also shared for the rest of its conversion
+ * period in normal mode.
+ * <p>
+ * In normal mode {@link #readIfNew()} follows the conversions of the sensor with the measuring status bit and the
+ * datasheet timing, and skips the data burst when no conversion completed since the previous one.
+ * <p>
+ * Configuration changes put the sensor to sleep before the configuration registers are written and resume the
+ * configured mode afterwards, see {@link #reconfigure(SamplingConfig)}.
+ * <p>
+ * The latencies of the bus are profiled on connection and pick how conversions are waited for and whether adjacent
+ * data registers are read in one burst, see {@link BusProfile}.
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public class BME280Device implements AutoCloseable {
+
+    private static final Logger LOGGER = Logger.getLogger(BME280Device.class.getSimpleName());
+
+    private static final AtomicLong SEQUENCE = new AtomicLong();
+
+    private static int INVALID_CHIP_ID = -1;
+
+    // Start-up time after a soft reset, and the longest wait for the NVM copy.
+    private static final long STARTUP_MILLIS = 2;
+    private static final long SOFT_RESET_TIMEOUT_MILLIS = 300;
+
+    // Reads of each kind when profiling the bus.
+    private static final int BUS_PROFILE_ROUNDS = 8;
+    // Temperature and pressure calibration words.
+    private static final int CALIBRATION_BURST_LENGTH = 24;
+
+    /**
+     * Chip vendor for the BME280
+     */
+    public static final String CHIP_VENDOR = "Bosch";
+
+    /**
+     * Chip name for the BME280
+     */
+    public static final String CHIP_NAME = "BME280";
+
+    /**
+     * Chip ID for the BME280
+     */
+    public static final int CHIP_ID_BME280 = 0x60;
+    /**
+     * Chip IDs of the BMP280, the first two are engineering samples.
+     */
+    public static final int CHIP_ID_BMP280_SAMPLE_1 = 0x56;
+    public static final int CHIP_ID_BMP280_SAMPLE_2 = 0x57;
+    public static final int CHIP_ID_BMP280 = 0x58;
+    /**
+     * Default I2C address for the sensor.
+     */
+    public static final int DEFAULT_I2C_ADDRESS = 0x77;
+
+    @Deprecated
+    public static final int I2C_ADDRESS = DEFAULT_I2C_ADDRESS;
+
+    // Sensor constants from the datasheet.
+    /**
+     * Mininum temperature in Celsius the sensor can measure.
+     */
+    public static final float MIN_TEMP_C = -40f;
+    /**
+     * Maximum temperature in Celsius the sensor can measure.
+     */
+    public static final float MAX_TEMP_C = 85f;
+    /**
+     * Minimum pressure in hPa the sensor can measure.
+     */
+    public static final float MIN_PRESSURE_HPA = 300f;
+    /**
+     * Maximum pressure in hPa the sensor can measure.
+     */
+    public static final float MAX_PRESSURE_HPA = 1100f;
+    /**
+     * Minimum humidity in percentage the sensor can measure.
+     */
+    public static final float MIN_HUMIDITY_PERCENT = 0f;
+    /**
+     * Maximum humidity in percentage the sensor can measure.
+     */
+    public static final float MAX_HUMIDITY_PERCENT = 100f;
+    /**
+     * Maximum power consumption in micro-amperes when measuring temperature.
+     */
+    public static final float MAX_POWER_CONSUMPTION_TEMP_UA = 325f;
+    /**
+     * Maximum power consumption in micro-amperes when measuring pressure.
+     */
+    public static final float MAX_POWER_CONSUMPTION_PRESSURE_UA = 720f;
+    /**
+     * Maximum power consumption in micro-amperes when measuring pressure.
+     */
+    public static final float MAX_POWER_CONSUMPTION_HUMIDITY_UA = 340f;
+    /**
+     * Maximum frequency of the measurements.
+     */
+    public static final float MAX_FREQ_HZ = 181f;
+    /**
+     * Minimum frequency of the measurements.
+     */
+    public static final float MIN_FREQ_HZ = 23.1f;
+    /**
+     * Resolution of the temperature measurements in Celsius.
+     */
+    public static final float RESOLUTION_TEMP_C = 0.005f;
+    /**
+     * Resolution of the pressure measurements in hPa.
+     */
+    public static final float RESOLUTION_PRESSURE_HPA = 0.0262f;
+    /**
+     * Resolution of the humidity measurements in percentage.
+     */
+    public static final float RESOLUTION_HUMIDITY_PERCENT = 0.005f;
+    /**
+     * Upper bound of the pressure error in hPa per degree Celsius the temperature changed since the last fine
+     * temperature refresh, when pressure is compensated with a reused fine temperature. The uncompensated pressure
+     * drifts by up to 1.75 hPa/C across the operating range with the datasheet reference calibration.
+     *
+     * @see #setTemperatureDecimation(int)
+     */
+    public static final float MULTI_RATE_PRESSURE_ERROR_HPA_PER_C = 1.9f;
+
+    /**
+     * Power mode.
+     */
+    @Retention(RetentionPolicy.SOURCE)
+    @IntDef({MODE_SLEEP, MODE_FORCED, MODE_NORMAL})
+    public @interface Mode {
+    }
+
+    public static final int MODE_SLEEP = 0b00;
+    public static final int MODE_FORCED = 0b01;
+    public static final int MODE_NORMAL = 0b11;
+
+    /**
+     * Oversampling multiplier.
+     */
+    @Retention(RetentionPolicy.SOURCE)
+    @IntDef({OVERSAMPLING_SKIPPED, OVERSAMPLING_1X, OVERSAMPLING_2X, OVERSAMPLING_4X, OVERSAMPLING_8X, OVERSAMPLING_16X})
+    public @interface Oversampling {
+    }
+
+    public static final int OVERSAMPLING_SKIPPED = 0b000;
+    public static final int OVERSAMPLING_1X = 0b001;
+    public static final int OVERSAMPLING_2X = 0b010;
+    public static final int OVERSAMPLING_4X = 0b011;
+    public static final int OVERSAMPLING_8X = 0b100;
+    public static final int OVERSAMPLING_16X = 0b101;
+
+    /**
+     * Pass filter.
+     */
+    @Retention(RetentionPolicy.SOURCE)
+    @IntDef({FILTER_OFF, FILTER_X2, FILTER_X4, FILTER_X8, FILTER_X16})
+    public @interface Filter {
+    }
+
+    public static final int FILTER_OFF = 0b000;
+    public static final int FILTER_X2 = 0b001;
+    public static final int FILTER_X4 = 0b010;
+    public static final int FILTER_X8 = 0b011;
+    public static final int FILTER_X16 = 0b100;
+
+    /**
+     * Standby duration.
+     */
+    @Retention(RetentionPolicy.SOURCE)
+    @IntDef({STANDBY_MS_0_5, STANDBY_MS_10, STANDBY_MS_20, STANDBY_MS_62_5, STANDBY_MS_125, STANDBY_MS_250, STANDBY_MS_500, STANDBY_MS_1000})
+    public @interface StandByDuration {
+    }
+
+    public static final int STANDBY_MS_0_5 = 0b000;
+    public static final int STANDBY_MS_10 = 0b110;
+    public static final int STANDBY_MS_20 = 0b111;
+    public static final int STANDBY_MS_62_5 = 0b001;
+    public static final int STANDBY_MS_125 = 0b010;
+    public static final int STANDBY_MS_250 = 0b011;
+    public static final int STANDBY_MS_500 = 0b100;
+    public static final int STANDBY_MS_1000 = 0b101;
+
+    // Registers
+    private static final int BME280_REG_TEMP_CALIB_1 = 0x88;
+    private static final int BME280_REG_TEMP_CALIB_2 = 0x8A;
+    private static final int BME280_REG_TEMP_CALIB_3 = 0x8C;
+
+    private static final int BME280_REG_PRESS_CALIB_1 = 0x8E;
+    private static final int BME280_REG_PRESS_CALIB_2 = 0x90;
+    private static final int BME280_REG_PRESS_CALIB_3 = 0x92;
+    private static final int BME280_REG_PRESS_CALIB_4 = 0x94;
+    private static final int BME280_REG_PRESS_CALIB_5 = 0x96;
+    private static final int BME280_REG_PRESS_CALIB_6 = 0x98;
+    private static final int BME280_REG_PRESS_CALIB_7 = 0x9A;
+    private static final int BME280_REG_PRESS_CALIB_8 = 0x9C;
+    private static final int BME280_REG_PRESS_CALIB_9 = 0x9E;
+
+    private static final int BME280_REG_HUM_CALIB_1 = 0xA1;
+    private static final int BME280_REG_HUM_CALIB_2 = 0xE1;
+    private static final int BME280_REG_HUM_CALIB_3 = 0xE3;
+    private static final int BME280_REG_HUM_CALIB_4 = 0xE4;
+    private static final int BME280_REG_HUM_CALIB_5 = 0xE5;
+    private static final int BME280_REG_HUM_CALIB_6 = 0xE6;
+    private static final int BME280_REG_HUM_CALIB_7 = 0xE7;
+
+    private static final int BME280_REG_ID = 0xD0;
+    private static final int BME280_REG_VERSION = 0xD1;
+    private static final int BME280_REG_SOFTRESET = 0xE0;
+
+    @VisibleForTesting
+    public static final int BME280_REG_CTRL_HUM = 0xF2;
+    private static final int BME280_REG_STATUS = 0xF3;
+
+    @VisibleForTesting
+    public static final int BME280_REG_CTRL = 0xF4;
+    private static final int BME280_REG_CONFIG = 0xF5;
+
+    private static final int BME280_REG_PRESS = 0xF7;
+    private static final int BME280_REG_TEMP = 0xFA;
+    private static final int BME280_REG_HUM = 0xFD;
+
+    private volatile RegisterBus device;
+    private volatile SamplingConfig sampling;
+    private volatile HealthWatchdog watchdog;
+    private volatile JitterHistogram jitterHistogram;
+    private Calibration calibration;
+    // Breaker guarding the bus and counting its transactions, null without retries and breaker.
+    private final CircuitBreaker circuitBreaker;
+
+    // Guards whole bus transactions, from configuration writes and conversion waits to the data reads.
+    private final Object busLock = new Object();
+    // Global order in which bus locks of multiple devices are acquired.
+    final long sequence = SEQUENCE.getAndIncrement();
+
+    private int chipId = INVALID_CHIP_ID;
+    private volatile ChipProfile profile = ChipProfile.BME280;
+    private volatile BusProfile busProfile;
+
+    // Multi-rate pressure reads, guarded by the bus lock.
+    private int temperatureDecimation = 1;
+    private int pressureReadsSinceRefresh;
+    private int cachedTemperatureFine;
+    private boolean cachedTemperatureFineValid;
+
+    // Latest full sample read with the current configuration, guarded by the bus lock.
+    private RawSample lastSample;
+    private boolean sampleReuse;
+    private long coalescedReads;
+
+    // Conversion tracking of readIfNew(), guarded by the bus lock.
+    private boolean newSampleRead;
+    private boolean measuringSeen;
+    private long measuringSeenNanos;
+    // No conversion that wasn't sampled started before, valid when the measuring bit wasn't seen since.
+    private long quietNanos;
+    // Start of the first conversion and first sample with the current configuration and a settled filter,
+    // guarded by the bus lock.
+    private long configuredNanos;
+    private long firstValidSampleNanos;
+
+    /**
+     * Create a new BME280 sensor driver connected to the given register bus.
+     *
+     * @param bus register bus of the sensor.
+     * @throws IOException
+     */
+    public BME280Device(RegisterBus bus) throws IOException {
+        this(bus, null, null);
+    }
+
+    /**
+     * Create a new BME280 sensor driver connected to the given register bus, with bus transactions
+     * retried and guarded by a circuit breaker. The bus is closed if the sensor can't be initialized.
+     *
+     * @param bus            register bus of the sensor.
+     * @param retryPolicy    retry policy of failed transactions, or null to never retry.
+     * @param circuitBreaker circuit breaker of this sensor, or null to never fail fast. With a retry policy and
+     *                       no breaker a breaker that never opens counts the transactions, see
+     *                       {@link #getCircuitBreaker()}.
+     * @throws IOException
+     */
+    public BME280Device(RegisterBus bus, RetryPolicy retryPolicy, CircuitBreaker circuitBreaker) throws IOException {
+        this.circuitBreaker = circuitBreaker == null && retryPolicy != null
+            ? new CircuitBreaker(Integer.MAX_VALUE, 0)
+            : circuitBreaker;
+        try {
+            if (this.circuitBreaker == null) {
+                connect(bus);
+            } else {
+                connect(new ResilientRegisterBus(
+                    bus,
+                    retryPolicy == null ? RetryPolicy.NONE : retryPolicy,
+                    this.circuitBreaker
+                ));
+            }
+        } catch (IOException | RuntimeException e) {
+            try {
+                bus.close();
+            } catch (IOException | RuntimeException ignored) {
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Close the driver and the underlying device.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (busLock) {
+            invalidateSamples();
+            if (device != null) {
+                try {
+                    device.close();
+                } finally {
+                    device = null;
+                }
+            }
+        }
+    }
+
+    private void connect(RegisterBus device) throws IOException {
+        this.device = device;
+        this.calibration = new Calibration();
+
+        setChipId();
+
+        softReset();
+
+        // Chip ID and calibration registers are read-only.
+        busProfile = BusProfile.measure(device, BME280_REG_ID, BME280_REG_TEMP_CALIB_1, CALIBRATION_BURST_LENGTH, BUS_PROFILE_ROUNDS);
+
+        readCalibration();
+
+        setSamplingNormal();
+    }
+
+    /**
+     * Mandatory soft reset on connection and wait until it's finished: the start-up time, then until the
+     * calibration data has been copied from NVM to the image registers, at most 300 ms.
+     */
+    private void softReset() throws IOException {
+        if (device == null) {
+            throw new IllegalStateException("I2C device not open");
+        }
+
+        device.writeRegByte(BME280_REG_SOFTRESET, (byte) 0xB6);
+        final long deadline = System.nanoTime() + SOFT_RESET_TIMEOUT_MILLIS * 1000000L;
+
+        sleep(STARTUP_MILLIS);
+        // im_update status bit
+        while ((device.readRegByte(BME280_REG_STATUS) & 0x01) != 0 && System.nanoTime() - deadline < 0) {
+            sleep(1);
+        }
+    }
+
+    /**
+     * Read calibration data
+     */
+    private void readCalibration() throws IOException {
+        if (device == null) {
+            throw new IllegalStateException("I2C device not open");
+        }
+
+        // Read temperature calibration data (3 words). First value is unsigned.
+        calibration.temperature[0] = this.device.readRegWord(BME280_REG_TEMP_CALIB_1) & 0xffff;
+        calibration.temperature[1] = this.device.readRegWord(BME280_REG_TEMP_CALIB_2);
+        calibration.temperature[2] = this.device.readRegWord(BME280_REG_TEMP_CALIB_3);
+        // Read pressure calibration data (9 words). First value is unsigned.
+        calibration.pressure[0] = this.device.readRegWord(BME280_REG_PRESS_CALIB_1) & 0xffff;
+        calibration.pressure[1] = this.device.readRegWord(BME280_REG_PRESS_CALIB_2);
+        calibration.pressure[2] = this.device.readRegWord(BME280_REG_PRESS_CALIB_3);
+        calibration.pressure[3] = this.device.readRegWord(BME280_REG_PRESS_CALIB_4);
+        calibration.pressure[4] = this.device.readRegWord(BME280_REG_PRESS_CALIB_5);
+        calibration.pressure[5] = this.device.readRegWord(BME280_REG_PRESS_CALIB_6);
+        calibration.pressure[6] = this.device.readRegWord(BME280_REG_PRESS_CALIB_7);
+        calibration.pressure[7] = this.device.readRegWord(BME280_REG_PRESS_CALIB_8);
+        calibration.pressure[8] = this.device.readRegWord(BME280_REG_PRESS_CALIB_9);
+        if (!profile.hasHumidity()) {
+            // Humidity calibration registers are reserved on the BMP280.
+            return;
+        }
+        // Read humidity calibration data (6 words). First value is unsigned.
+        calibration.humidity[0] = this.device.readRegByte(BME280_REG_HUM_CALIB_1) & 0xff;
+        calibration.humidity[1] = this.device.readRegWord(BME280_REG_HUM_CALIB_2);
+        calibration.humidity[2] = this.device.readRegByte(BME280_REG_HUM_CALIB_3) & 0xff;
+        int E4 = this.device.readRegByte(BME280_REG_HUM_CALIB_4) & 0xff;
+        int E5 = this.device.readRegByte(BME280_REG_HUM_CALIB_5) & 0xff;
+        int E6 = this.device.readRegByte(BME280_REG_HUM_CALIB_6) & 0xff;
+        int E7 = this.device.readRegByte(BME280_REG_HUM_CALIB_7);
+        calibration.humidity[3] = (E4 << 4) | (E5 & 0x0F);
+        calibration.humidity[4] = (E6 << 4) | (E5 >> 4);
+        calibration.humidity[5] = E7;
+
+        //        while (isReadingCalibration()) {
+        //            SystemClock.sleep(100);
+        //        }
+    }
+
+    /**
+     * Returns true if chip is busy reading calibration data
+     */
+    @SuppressWarnings("PointlessBitwiseExpression")
+    private boolean isReadingCalibration() throws IOException {
+        final int readingStatus = device.readRegByte(BME280_REG_STATUS) & 0xff;
+
+        return (readingStatus & (1 << 0)) != 0;
+    }
+
+    public void setSampling(@Mode final int mode, @Oversampling final int temperatureSampling,
+        @Oversampling final int pressureSampling, @Oversampling final int humiditySampling,
+        @Filter final int filter, @StandByDuration final int duration) throws IOException {
+        setSampling(new SamplingConfig(mode, temperatureSampling, pressureSampling, humiditySampling, filter, duration));
+    }
+
+    /**
+     * Apply a sampling configuration, see {@link #reconfigure(SamplingConfig)}.
+     *
+     * @param config sampling configuration.
+     * @throws IOException
+     */
+    public void setSampling(SamplingConfig config) throws IOException {
+        reconfigure(config);
+    }
+
+    /**
+     * Apply a sampling configuration and return when the first valid sample is expected. Readers running
+     * concurrently complete with the previous configuration before it is written. Humidity oversampling is skipped
+     * on sensors without humidity, see {@link ChipProfile#supported(SamplingConfig)}.
+     * <p>
+     * The sensor is put to sleep first, so no conversion runs with a partially written configuration and the
+     * config register write isn't ignored in normal mode, then the configured mode is resumed. The latest sample is
+     * dropped and {@link #readIfNew()} returns nothing until the first conversion with the new configuration went
+     * through the IIR filter warm-up, see {@link SamplingConfig#getSettlingTimeMicros(ChipProfile)}.
+     *
+     * @param config sampling configuration.
+     * @return {@link System#nanoTime()} from which samples reflect the new configuration, immediately in sleep and
+     * forced mode.
+     * @throws IOException
+     */
+    public long reconfigure(SamplingConfig config) throws IOException {
+        synchronized (busLock) {
+            if (device == null) {
+                throw new IllegalStateException("I2C device not open");
+            }
+
+            config = profile.supported(config);
+            writeConfiguration(config, sampling != null && sampling.getMode() == MODE_NORMAL);
+            sampling = config;
+            cachedTemperatureFineValid = false;
+            invalidateSamples();
+
+            final HealthWatchdog watchdog = this.watchdog;
+            if (watchdog != null) {
+                watchdog.onReconfigured();
+            }
+            final JitterHistogram jitterHistogram = this.jitterHistogram;
+            if (jitterHistogram != null) {
+                jitterHistogram.onReconfigured(config, profile);
+            }
+            return firstValidSampleNanos;
+        }
+    }
+
+    /**
+     * Returns the {@link System#nanoTime()} from which samples reflect the current configuration, see
+     * {@link #reconfigure(SamplingConfig)}. Compare it with {@link RawSample#getBurstStartNanos()} to drop samples
+     * of the filter warm-up.
+     */
+    public long getFirstValidSampleNanos() {
+        synchronized (busLock) {
+            return firstValidSampleNanos;
+        }
+    }
+
+    /**
+     * Returns the current sampling configuration snapshot.
+     */
+    public SamplingConfig getSamplingConfig() {
+        return sampling;
+    }
+
+    /**
+     * Write the shadowed configuration registers in sleep mode and enter the configured mode.
+     *
+     * @param sleepFirst true if the sensor may be sampling in normal mode.
+     */
+    private void writeConfiguration(final SamplingConfig config, final boolean sleepFirst) throws IOException {
+        if (sleepFirst) {
+            // Stop conversions first, config writes may be ignored in normal mode.
+            device.writeRegByte(BME280_REG_CTRL, (byte) config.withMode(MODE_SLEEP).ctrlMeas());
+        }
+        // You must make sure to also set BME280_REG_CTRL after setting the BME280_REG_CTRL_HUM register,
+        // otherwise the values won't be applied
+        if (profile.hasHumidity()) {
+            device.writeRegByte(BME280_REG_CTRL_HUM, (byte) config.ctrlHum());
+        }
+        device.writeRegByte(BME280_REG_CONFIG, (byte) config.config());
+        device.writeRegByte(BME280_REG_CTRL, (byte) config.ctrlMeas());
+        configuredNanos = System.nanoTime();
+        firstValidSampleNanos = configuredNanos + config.getSettlingTimeMicros(profile) * 1000L;
+    }
+
+    /**
+     * Set the watchdog that checks every sample for a sensor that lost its configuration, or null to disable it.
+     * When a problem is detected the configuration registers are rewritten and the read throws
+     * {@link SensorResetException}.
+     *
+     * @param watchdog health watchdog of this sensor.
+     */
+    public void setHealthWatchdog(HealthWatchdog watchdog) {
+        synchronized (busLock) {
+            this.watchdog = watchdog;
+        }
+    }
+
+    public HealthWatchdog getHealthWatchdog() {
+        return watchdog;
+    }
+
+    /**
+     * Returns the circuit breaker guarding the bus with its transaction, retry and state change counters, or null
+     * if the sensor was created without a retry policy and breaker.
+     */
+    public CircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    /**
+     * Set the histogram recording the sampling jitter of full samples read with {@link #readAll()},
+     * {@link #readRawSample()} or {@link #takeForcedMeasurement()}, or null to disable it. In normal mode the
+     * expected period follows the output data rate of the configuration.
+     *
+     * @param jitterHistogram jitter histogram of this sensor.
+     */
+    public void setJitterHistogram(JitterHistogram jitterHistogram) {
+        synchronized (busLock) {
+            if (jitterHistogram != null && sampling != null) {
+                jitterHistogram.onReconfigured(sampling, profile);
+            }
+            this.jitterHistogram = jitterHistogram;
+        }
+    }
+
+    public JitterHistogram getJitterHistogram() {
+        return jitterHistogram;
+    }
+
+    /**
+     * Returns the bus latencies measured on connection, or set with {@link #setBusProfile(BusProfile)}.
+     */
+    public BusProfile getBusProfile() {
+        return busProfile;
+    }
+
+    /**
+     * Replace the measured bus profile, e.g. with one measured while the bus was idle.
+     *
+     * @param busProfile bus profile picking the wait and read strategies.
+     */
+    public void setBusProfile(BusProfile busProfile) {
+        if (busProfile == null) {
+            throw new IllegalArgumentException("Bus profile must not be null");
+        }
+        this.busProfile = busProfile;
+    }
+
+    /**
+     * Pass raw values to the health watchdog and recover the sensor if needed.
+     */
+    private void checkHealth(final SamplingConfig config, final int rawTemperature, final int rawPressure, final int rawHumidity)
+        throws IOException {
+        final HealthWatchdog watchdog = this.watchdog;
+        if (watchdog == null) {
+            return;
+        }
+
+        int status = watchdog.onSample(rawTemperature, rawPressure, rawHumidity);
+        if (status == HealthWatchdog.STATUS_VERIFY) {
+            final int currentChipId = device.readRegByte(BME280_REG_ID);
+            final int ctrl = device.readRegByte(BME280_REG_CTRL) & 0xff;
+            // Mode bits return to sleep after a forced conversion, only compare oversampling.
+            status = watchdog.onVerify(currentChipId == chipId, (ctrl & 0xFC) == (config.ctrlMeas() & 0xFC));
+        }
+
+        switch (status) {
+            case HealthWatchdog.STATUS_HEALTHY:
+                return;
+            case HealthWatchdog.STATUS_CHIP_ID_MISMATCH:
+                throw new IOException("BME280 chip ID changed, expected " + chipId);
+            default:
+                final long start = System.nanoTime();
+                // Calibration is read-only NVM and survives resets, only the configuration needs to be restored.
+                // The reset left the sensor in sleep mode.
+                writeConfiguration(config, false);
+                cachedTemperatureFineValid = false;
+                invalidateSamples();
+                watchdog.onRecovered(System.nanoTime() - start);
+                throw new SensorResetException("BME280 lost its configuration, status " + status);
+        }
+    }
+
+    public void setSamplingNormal() throws IOException {
+        setSampling(SamplingConfig.PRESET_NORMAL);
+    }
+
+    public void setSamplingWeatherStation() throws IOException {
+        setSampling(SamplingConfig.PRESET_WEATHER_STATION);
+    }
+
+    public void setSamplingIndoorNavigation() throws IOException {
+        setSampling(SamplingConfig.PRESET_INDOOR_NAVIGATION);
+    }
+
+    /**
+     * Force read the current temperature, humidity and barometric pressure.
+     * The configured mode is left untouched and normal mode sampling is resumed at the end of this method.
+     *
+     * @return a 3-element array. The first element is temperature in degrees Celsius, second is humidity percentage and the
+     * third is barometric pressure in hPa units.
+     * @throws IOException
+     */
+    public float[] takeForcedMeasurement() throws IOException {
+        synchronized (busLock) {
+            if (device == null) {
+                throw new IllegalStateException("I2C device not open");
+            }
+
+            final SamplingConfig config = startForcedConversion();
+            final long triggeredNanos = System.nanoTime();
+
+            waitForConversion(config.withMode(MODE_FORCED), triggeredNanos);
+
+            return finishForcedConversion(config);
+        }
+    }
+
+    /**
+     * Returns the lock guarding bus transactions of this device.
+     */
+    Object getBusLock() {
+        return busLock;
+    }
+
+    /**
+     * Trigger a forced conversion with the current oversampling. Must be called with the bus lock held, until
+     * {@link #finishForcedConversion(SamplingConfig)} is called.
+     *
+     * @return configuration to pass to {@link #finishForcedConversion(SamplingConfig)}.
+     * @throws IOException
+     */
+    SamplingConfig startForcedConversion() throws IOException {
+        if (device == null) {
+            throw new IllegalStateException("I2C device not open");
+        }
+
+        final SamplingConfig config = sampling;
+        final SamplingConfig forced = config.withMode(MODE_FORCED);
+        if (profile.hasHumidity()) {
+            device.writeRegByte(BME280_REG_CTRL_HUM, (byte) forced.ctrlHum());
+        }
+        device.writeRegByte(BME280_REG_CTRL, (byte) forced.ctrlMeas());
+        return config;
+    }
+
+    /**
+     * Read the result of a forced conversion and resume normal mode sampling if it was configured.
+     *
+     * @param config configuration returned by {@link #startForcedConversion()}.
+     * @return a 3-element array as returned by {@link #readAll()}.
+     * @throws IOException
+     */
+    float[] finishForcedConversion(final SamplingConfig config) throws IOException {
+        try {
+            final long now = System.nanoTime();
+            return readAll(config, now, now);
+        } finally {
+            if (config.getMode() == MODE_NORMAL && device != null) {
+                device.writeRegByte(BME280_REG_CTRL, (byte) config.ctrlMeas());
+            }
+        }
+    }
+
+    /**
+     * Read and set the sensor chip ID and the matching profile.
+     */
+    private void setChipId() throws IOException {
+        if (device == null) {
+            throw new IllegalStateException("I2C device not open");
+        }
+
+        chipId = device.readRegByte(BME280_REG_ID);
+        final ChipProfile profile = ChipProfile.forChipId(chipId);
+        if (profile == null) {
+            LOGGER.severe("Failed to find Bosch BME280 or BMP280!");
+            this.profile = ChipProfile.BME280;
+        } else {
+            this.profile = profile;
+        }
+    }
+
+    /**
+     * Returns the sensor chip ID.
+     */
+    public int getChipId() {
+        return chipId;
+    }
+
+    /**
+     * Returns the capabilities of the sensor variant, BME280 if the chip ID is unknown.
+     */
+    public ChipProfile getChipProfile() {
+        return profile;
+    }
+
+    /**
+     * Returns the calibration data read from the sensor on connection.
+     */
+    public Calibration getCalibration() {
+        return calibration;
+    }
+
+    /**
+     * Read the current temperature.
+     *
+     * @return the current temperature in degrees Celsius
+     */
+    public float readTemperature() throws IOException, IllegalStateException {
+        synchronized (busLock) {
+            if (device == null) {
+                throw new IllegalStateException("I2C device not open");
+            }
+
+            final SamplingConfig config = sampling;
+            if (config.getOversamplingTemperature() == OVERSAMPLING_SKIPPED) {
+                throw new IllegalStateException("BME280 temperature oversampling is skipped");
+            }
+
+            throttleMeasurement();
+
+            final int rawTemp = readSample(BME280_REG_TEMP);
+            checkHealth(config, rawTemp, HealthWatchdog.NOT_READ, HealthWatchdog.NOT_READ);
+
+            return Compensation.temperature(Compensation.temperatureFine(rawTemp, calibration.temperature)) / 100.0f;
+        }
+    }
+
+    /**
+     * Read the current barometric pressure. If you also intend to use temperature readings, prefer
+     * {@link #readTemperatureAndPressure()} instead since sampling the current pressure already
+     * requires sampling the current temperature.
+     * <p>
+     * With a temperature decimation above 1 only the pressure data registers are read in between fine temperature
+     * refreshes, see {@link #setTemperatureDecimation(int)}.
+     *
+     * @return the barometric pressure in hPa units
+     * @throws IOException
+     */
+    public float readPressure() throws IOException, IllegalStateException {
+        synchronized (busLock) {
+            if (temperatureDecimation == 1 || !cachedTemperatureFineValid || pressureReadsSinceRefresh >= temperatureDecimation) {
+                final float[] values = readTemperatureAndPressure();
+                return values[1];
+            }
+
+            final SamplingConfig config = sampling;
+            if (config.getOversamplingPressure() == OVERSAMPLING_SKIPPED) {
+                throw new IllegalStateException("BME280 pressure oversampling is skipped.");
+            }
+            final int rawPressure = readSample(BME280_REG_PRESS);
+            checkHealth(config, HealthWatchdog.NOT_READ, rawPressure, HealthWatchdog.NOT_READ);
+            pressureReadsSinceRefresh++;
+
+            return Compensation.pressure(rawPressure, calibration.pressure, cachedTemperatureFine) / 25600.0f;
+        }
+    }
+
+    /**
+     * Set how often {@link #readPressure()} refreshes the fine temperature pressure compensation depends on.
+     * With a factor of n, temperature and pressure are read on every n-th call and only the 3 pressure bytes
+     * in between, halving bus traffic and compensation work for pressure sampled faster than temperature changes.
+     * <p>
+     * The reused fine temperature adds a pressure error of up to {@link #MULTI_RATE_PRESSURE_ERROR_HPA_PER_C}
+     * times the temperature change since the last refresh. Pick the factor so that temperature changes by less
+     * than the tolerated error divided by that bound within n pressure reads, e.g. 0.01 C for 0.19 hPa.
+     * The fine temperature is always refreshed after a configuration change.
+     *
+     * @param factor pressure reads per fine temperature refresh, 1 to refresh on every read.
+     */
+    public void setTemperatureDecimation(int factor) {
+        if (factor < 1) {
+            throw new IllegalArgumentException("Temperature decimation must be at least 1: " + factor);
+        }
+        synchronized (busLock) {
+            temperatureDecimation = factor;
+            cachedTemperatureFineValid = false;
+        }
+    }
+
+    public int getTemperatureDecimation() {
+        synchronized (busLock) {
+            return temperatureDecimation;
+        }
+    }
+
+    /**
+     * Read the current temperature and barometric pressure.
+     *
+     * @return a 2-element array. The first element is temperature in degrees Celsius, and the
+     * second is barometric pressure in hPa units.
+     * @throws IOException
+     */
+    public float[] readTemperatureAndPressure() throws IOException, IllegalStateException {
+        synchronized (busLock) {
+            final SamplingConfig config = sampling;
+            if (config.getOversamplingTemperature() == OVERSAMPLING_SKIPPED) {
+                throw new IllegalStateException("BME280 temperature oversampling is skipped.");
+            }
+            if (config.getOversamplingPressure() == OVERSAMPLING_SKIPPED) {
+                throw new IllegalStateException("BME280 pressure oversampling is skipped.");
+            }
+            // One burst, the data registers are only shadowed within a burst, separate reads could mix conversions.
+            // press_msb press_lsb press_xlsb temp_msb temp_lsb temp_xlsb
+            final byte[] data = readBuffer(BME280_REG_PRESS, 6);
+            final int rawPressure = sample20(data, 0);
+            final int rawTemp = sample20(data, 3);
+            checkHealth(config, rawTemp, rawPressure, HealthWatchdog.NOT_READ);
+
+            final int temperatureFine = Compensation.temperatureFine(rawTemp, calibration.temperature);
+            final float temperature = Compensation.temperature(temperatureFine) / 100.0f;
+            final float pressure = Compensation.pressure(rawPressure, calibration.pressure, temperatureFine) / 25600.0f;
+            cachedTemperatureFine = temperatureFine;
+            cachedTemperatureFineValid = true;
+            pressureReadsSinceRefresh = 1;
+
+            return new float[] {temperature, pressure};
+        }
+    }
+
+    /**
+     * Read the current temperature, humidity and barometric pressure.
+     *
+     * @return a 3-element array. The first element is temperature in degrees Celsius, second is humidity percentage,
+     * or NaN on sensors without humidity, and the third is barometric pressure in hPa units.
+     * @throws IOException
+     */
+    public float[] readAll() throws IOException, IllegalStateException {
+        final long requestNanos = System.nanoTime();
+        synchronized (busLock) {
+            final SamplingConfig config = sampling;
+            final RawSample sample = coalescedSample(config, requestNanos);
+            if (sample != null) {
+                checkAllSampled(config);
+                return new float[] {sample.getTemperature(), sample.getHumidity(), sample.getPressure()};
+            }
+            return readAll(config, requestNanos, System.nanoTime());
+        }
+    }
+
+    private float[] readAll(final SamplingConfig config, final long requestNanos, final long lockAcquiredNanos)
+        throws IOException, IllegalStateException {
+        checkAllSampled(config);
+        final RawSample sample = readRawSample(config, requestNanos, lockAcquiredNanos);
+
+        return new float[] {sample.getTemperature(), sample.getHumidity(), sample.getPressure()};
+    }
+
+    private void checkAllSampled(final SamplingConfig config) {
+        if (config.getOversamplingTemperature() == OVERSAMPLING_SKIPPED) {
+            throw new IllegalStateException("BME280 temperature oversampling is skipped.");
+        }
+        if (config.getOversamplingPressure() == OVERSAMPLING_SKIPPED) {
+            throw new IllegalStateException("BME280 pressure oversampling is skipped.");
+        }
+        if (profile.hasHumidity() && config.getOversamplingHumidity() == OVERSAMPLING_SKIPPED) {
+            throw new IllegalStateException("BME280 humidity oversampling is skipped.");
+        }
+    }
+
+    /**
+     * Drop the latest sample and the conversion tracking of {@link #readIfNew()}. Must be called with the bus
+     * lock held.
+     */
+    private void invalidateSamples() {
+        lastSample = null;
+        newSampleRead = false;
+        measuringSeen = false;
+    }
+
+    /**
+     * Returns the latest sample if it can be shared with a caller that requested a sample at the given time, or
+     * null if the bus has to be read. Must be called with the bus lock held.
+     */
+    private RawSample coalescedSample(final SamplingConfig config, final long requestNanos) {
+        final RawSample sample = lastSample;
+        if (sample == null) {
+            return null;
+        }
+        // Requested before the burst completed, the caller waited for it on the bus lock.
+        final boolean inFlight = sample.getBurstEndNanos() - requestNanos > 0;
+        // The data registers only change once per conversion period in normal mode.
+        final boolean current = sampleReuse && config.getMode() == MODE_NORMAL
+            && requestNanos - sample.getBurstStartNanos() < config.getConversionPeriodNanos(profile);
+        if (!inFlight && !current) {
+            return null;
+        }
+        coalescedReads++;
+        return sample;
+    }
+
+    /**
+     * Share the latest full sample with readers for the rest of its conversion period in normal mode, instead of
+     * only with readers that were waiting for it. Shared samples are at most one conversion behind the data
+     * registers, and cut the bus traffic of any number of readers to one burst per conversion. The latest sample
+     * is dropped whenever the configuration changes.
+     *
+     * @param enabled true to reuse samples within their conversion period.
+     */
+    public void setSampleReuse(boolean enabled) {
+        synchronized (busLock) {
+            sampleReuse = enabled;
+        }
+    }
+
+    public boolean isSampleReuse() {
+        synchronized (busLock) {
+            return sampleReuse;
+        }
+    }
+
+    /**
+     * Returns the number of {@link #readAll()} and {@link #readRawSample()} calls answered with a sample read for
+     * another caller, without a bus transaction.
+     */
+    public long getCoalescedReadCount() {
+        synchronized (busLock) {
+            return coalescedReads;
+        }
+    }
+
+    /**
+     * Read the current uncompensated temperature, pressure and humidity in a single burst.
+     * Skipped channels hold their data register reset values. Sensors without humidity burst read 6 bytes and
+     * the raw humidity is {@link HealthWatchdog#NOT_READ}. The sample carries the timestamps of the read, which
+     * is another caller's read if it was coalesced.
+     *
+     * @return raw sample, compensated only when its values are requested.
+     * @throws IOException
+     */
+    public RawSample readRawSample() throws IOException, IllegalStateException {
+        final long requestNanos = System.nanoTime();
+        synchronized (busLock) {
+            final long lockAcquiredNanos = System.nanoTime();
+            if (device == null) {
+                throw new IllegalStateException("I2C device not open");
+            }
+
+            final SamplingConfig config = sampling;
+            if (config.getOversamplingTemperature() == OVERSAMPLING_SKIPPED) {
+                throw new IllegalStateException("BME280 temperature oversampling is skipped.");
+            }
+            final RawSample sample = coalescedSample(config, requestNanos);
+            if (sample != null) {
+                return sample;
+            }
+
+            throttleMeasurement();
+
+            return readRawSample(config, requestNanos, lockAcquiredNanos);
+        }
+    }
+
+    /**
+     * Read the current uncompensated values if a conversion completed since the previous call, in normal mode.
+     * <p>
+     * Conversions are followed with the measuring status bit and the datasheet timing. A conversion is known to be
+     * new when the measuring bit was seen set since the previous sample and is clear again. No conversion can have
+     * completed, and no bus transaction is needed, for a standby time after the sampled one, and a single status
+     * read tells while the sensor is measuring the first conversion after the sample or was idle since the
+     * previous status read. Polling faster than the typical measurement time keeps track of every conversion.
+     * When it can't be told, the data registers are read and the sample is marked as
+     * {@link RawSample#isDuplicate() duplicate} if they weren't updated. The tracking is per device, so concurrent
+     * callers share the conversions and each one is returned once. Nothing is returned before
+     * {@link #getFirstValidSampleNanos()}.
+     *
+     * @return raw sample of a new conversion, or null if none completed since the previous call.
+     * @throws IOException
+     * @throws IllegalStateException if the sensor isn't sampling in normal mode.
+     */
+    public RawSample readIfNew() throws IOException, IllegalStateException {
+        final long requestNanos = System.nanoTime();
+        synchronized (busLock) {
+            final long lockAcquiredNanos = System.nanoTime();
+            if (device == null) {
+                throw new IllegalStateException("I2C device not open");
+            }
+
+            final SamplingConfig config = sampling;
+            if (config.getMode() != MODE_NORMAL) {
+                throw new IllegalStateException("BME280 is not sampling in normal mode.");
+            }
+            if (config.getOversamplingTemperature() == OVERSAMPLING_SKIPPED) {
+                throw new IllegalStateException("BME280 temperature oversampling is skipped.");
+            }
+            if (lockAcquiredNanos - firstValidSampleNanos < 0
+                || newSampleRead && !measuringSeen && lockAcquiredNanos - quietNanos < 0) {
+                return null;
+            }
+
+            final long standbyNanos = config.getStandbyMicros(profile) * 1000L;
+            final long measurementNanos = config.getMeasurementTimeTypicalMicros() * 1000L;
+            final boolean measuring = (device.readRegByte(BME280_REG_STATUS) & 0x08) != 0;
+            final long statusNanos = System.nanoTime();
+            if (newSampleRead) {
+                if (measuringSeen && measuring && statusNanos - measuringSeenNanos <= standbyNanos) {
+                    // Still the same conversion, the next one starts a standby time after it ended.
+                    measuringSeenNanos = statusNanos;
+                    return null;
+                }
+                if (!measuringSeen && measuring && statusNanos - standbyNanos - measurementNanos - quietNanos < 0) {
+                    // The conversion before the running one started before the quiet time, it was sampled.
+                    measuringSeen = true;
+                    measuringSeenNanos = statusNanos;
+                    return null;
+                }
+                if (!measuringSeen && !measuring && statusNanos - quietNanos < measurementNanos) {
+                    // Idle since no conversion had started, none could have completed.
+                    quietNanos = statusNanos;
+                    return null;
+                }
+            }
+
+            // A conversion seen running has completed, the next one starts a standby time later. Otherwise a
+            // conversion completing after the burst starts after the status read.
+            quietNanos = measuringSeen && !measuring ? measuringSeenNanos + standbyNanos : statusNanos;
+            // The running conversion, if any, is sampled by the next call.
+            measuringSeen = measuring;
+            measuringSeenNanos = statusNanos;
+
+            final RawSample sample = readRawSample(config, requestNanos, lockAcquiredNanos);
+            newSampleRead = true;
+            return sample;
+        }
+    }
+
+    private RawSample readRawSample(final SamplingConfig config, final long requestNanos, final long lockAcquiredNanos)
+        throws IOException, IllegalStateException {
+        if (device == null) {
+            throw new IllegalStateException("I2C device not open");
+        }
+
+        // press_msb press_lsb press_xlsb temp_msb temp_lsb temp_xlsb hum_msb hum_lsb
+        final byte[] data = new byte[8];
+        final ChipProfile profile = this.profile;
+        final long burstStartNanos = System.nanoTime();
+        device.readRegBuffer(BME280_REG_PRESS, data, profile.getDataLength());
+        final long burstEndNanos = System.nanoTime();
+        final int rawPressure = ((data[0] & 0xff) << 16 | (data[1] & 0xff) << 8 | (data[2] & 0xf0)) >> 4;
+        final int rawTemp = ((data[3] & 0xff) << 16 | (data[4] & 0xff) << 8 | (data[5] & 0xf0)) >> 4;
+        final int rawHumidity = profile.hasHumidity() ? (data[6] & 0xff) << 8 | (data[7] & 0xff) : HealthWatchdog.NOT_READ;
+
+        checkHealth(
+            config,
+            rawTemp,
+            config.getOversamplingPressure() == OVERSAMPLING_SKIPPED ? HealthWatchdog.NOT_READ : rawPressure,
+            config.getOversamplingHumidity() == OVERSAMPLING_SKIPPED ? HealthWatchdog.NOT_READ : rawHumidity
+        );
+
+        final JitterHistogram jitterHistogram = this.jitterHistogram;
+        if (jitterHistogram != null) {
+            jitterHistogram.record(burstStartNanos);
+        }
+
+        final RawSample previous = lastSample;
+        final boolean duplicate = previous != null && previous.getRawTemperature() == rawTemp
+            && previous.getRawPressure() == rawPressure && previous.getRawHumidity() == rawHumidity;
+        lastSample = new RawSample(rawTemp, rawPressure, rawHumidity, calibration,
+            requestNanos, lockAcquiredNanos, burstStartNanos, burstEndNanos, duplicate);
+        return lastSample;
+    }
+
+    /**
+     * Read the current humidity.
+     *
+     * @return the current humidity in percentage
+     * @throws IllegalStateException if the sensor has no humidity, see {@link ChipProfile#hasHumidity()}.
+     */
+    public float readHumidity() throws IOException, IllegalStateException {
+        synchronized (busLock) {
+            if (device == null) {
+                throw new IllegalStateException("I2C device not open");
+            }
+            if (!profile.hasHumidity()) {
+                throw new IllegalStateException(profile.getName() + " has no humidity sensor");
+            }
+
+            final SamplingConfig config = sampling;
+            if (config.getOversamplingTemperature() == OVERSAMPLING_SKIPPED) {
+                throw new IllegalStateException("BME280 temperature oversampling is skipped");
+            }
+
+            throttleMeasurement();
+
+            // One burst, the data registers are only shadowed within a burst, separate reads could mix conversions.
+            // temp_msb temp_lsb temp_xlsb hum_msb hum_lsb
+            final byte[] data = readBuffer(BME280_REG_TEMP, 5);
+            final int rawTemp = sample20(data, 0);
+            final int rawHumidity = (data[3] & 0xff) << 8 | (data[4] & 0xff);
+            checkHealth(config, rawTemp, HealthWatchdog.NOT_READ, rawHumidity);
+
+            final int temperatureFine = Compensation.temperatureFine(rawTemp, calibration.temperature);
+            return Compensation.humidity(rawHumidity, calibration.humidity, temperatureFine) / 1024.0f;
+        }
+    }
+
+    /**
+     * Reads 20 bits from the given address.
+     *
+     * @throws IOException
+     */
+    private int readSample(final int address) throws IOException, IllegalStateException {
+        if (device == null) {
+            throw new IllegalStateException("I2C device not open");
+        }
+
+        final byte[] buffer = new byte[3];
+        device.readRegBuffer(address, buffer, 3);
+        return sample20(buffer, 0);
+    }
+
+    /**
+     * Reads the given number of bytes from the given address in a single burst.
+     *
+     * @throws IOException
+     */
+    private byte[] readBuffer(final int address, final int length) throws IOException, IllegalStateException {
+        if (device == null) {
+            throw new IllegalStateException("I2C device not open");
+        }
+
+        final byte[] buffer = new byte[length];
+        device.readRegBuffer(address, buffer, length);
+        return buffer;
+    }
+
+    /**
+     * Returns the 20 bit sample at the given offset.
+     */
+    private static int sample20(final byte[] buffer, final int offset) {
+        // msb[7:0] lsb[7:0] xlsb[7:4]
+        final int msb = buffer[offset] & 0xff;
+        final int lsb = buffer[offset + 1] & 0xff;
+        final int xlsb = buffer[offset + 2] & 0xf0;
+        // Convert to 20bit integer
+        return (msb << 16 | lsb << 8 | xlsb) >> 4;
+    }
+
+    /**
+     * Wait until the first normal mode conversion with the current configuration completed, otherwise we would
+     * read the values of the previous configuration. Later conversions update the shadowed data registers.
+     */
+    private void throttleMeasurement() throws IOException {
+        if (device == null) {
+            throw new IllegalStateException("I2C device not open");
+        }
+
+        final SamplingConfig config = sampling;
+        if (config.getMode() == MODE_NORMAL
+            && System.nanoTime() - configuredNanos < config.getMeasurementTimeMaxMicros() * 1000L) {
+            waitForConversion(config, configuredNanos);
+        }
+    }
+
+    /**
+     * Wait for a conversion as picked by the bus profile: poll the measuring status bit after the typical
+     * measurement time, or sleep until the maximum measurement time. Polling gives up a poll interval after the
+     * maximum measurement time, to avoid a waiting deadlock.
+     *
+     * @param config      configuration of the conversion.
+     * @param startNanos  {@link System#nanoTime()} at which the conversion started.
+     */
+    private void waitForConversion(final SamplingConfig config, final long startNanos) throws IOException {
+        final long maxEndNanos = startNanos + config.getMeasurementTimeMaxMicros() * 1000L;
+        final BusProfile busProfile = this.busProfile;
+        if (!busProfile.prefersStatusPolling(config)) {
+            sleepUntil(maxEndNanos);
+            return;
+        }
+
+        final long intervalNanos = busProfile.getStatusPollIntervalNanos();
+        // The measuring bit is only set once the conversion is running, a status read right after the trigger
+        // could see it clear and return before the conversion even started.
+        sleepUntil(startNanos + config.getMeasurementTimeTypicalMicros() * 1000L);
+        while ((device.readRegByte(BME280_REG_STATUS) & 0x08) != 0) {
+            final long now = System.nanoTime();
+            if (now - maxEndNanos - intervalNanos >= 0) {
+                return;
+            }
+            sleepUntil(now + intervalNanos);
+        }
+    }
+
+    /**
+     * Sleep for the given time, ignoring interrupts. The interrupt status is restored afterwards.
+     */
+    private static void sleep(final long millis) {
+        sleepUntil(System.nanoTime() + millis * 1000000L);
+    }
+
+    /**
+     * Sleep until {@link System#nanoTime()} reaches the deadline, ignoring interrupts. The interrupt status is
+     * restored afterwards.
+     */
+    static void sleepUntil(final long deadlineNanos) {
+        boolean interrupted = false;
+        long remaining;
+        while ((remaining = deadlineNanos - System.nanoTime()) > 0) {
+            try {
+                Thread.sleep(remaining / 1000000L, (int) (remaining % 1000000L));
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @VisibleForTesting
+    public void setSamplingSkipped() throws IOException {
+        setSampling(
+            MODE_NORMAL,
+            OVERSAMPLING_SKIPPED, OVERSAMPLING_SKIPPED, OVERSAMPLING_SKIPPED,
+            FILTER_OFF,
+            STANDBY_MS_0_5
+        );
+    }
+
+    /**
+     * Compensation formula from the BME280 datasheet.
+     *
+     * @deprecated the fine temperature is not returned, use {@link Compensation} or {@link CompensationService}.
+     */
+    @Deprecated
+    @VisibleForTesting
+    public static float compensateTemperature(final int measuredTemperature, final int[] calibrationData) {
+        return Compensation.temperature(Compensation.temperatureFine(measuredTemperature, calibrationData)) / 100.0f;
+    }
+
+    /**
+     * Compensation formula from the BME280 datasheet.
+     *
+     * @deprecated use {@link Compensation} or {@link CompensationService}.
+     */
+    @Deprecated
+    @VisibleForTesting
+    public static float compensateHumidity(final int measuredHumidity, final int[] calibration, final int temperatureFine) {
+        return Compensation.humidity(measuredHumidity, calibration, temperatureFine) / 1024.0f;
+    }
+
+    /**
+     * Compensation formula from the BME280 datasheet.
+     *
+     * @deprecated use {@link Compensation} or {@link CompensationService}.
+     */
+    @Deprecated
+    @VisibleForTesting
+    public static float compensatePressure(final int measuredPressure, final int[] calibration, final int temperatureFine) {
+        return Compensation.pressure(measuredPressure, calibration, temperatureFine) / 25600.0f;
+    }
+}
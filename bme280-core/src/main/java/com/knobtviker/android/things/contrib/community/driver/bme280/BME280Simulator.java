@@ -0,0 +1,559 @@
+package com.knobtviker.android.things.contrib.community.driver.bme280;
+
+import java.io.IOException;
+
+/**
+ * Register-level simulation of a BME280 behind a {@link RegisterBus}.
+ * <p>
+ * The simulator holds the full register map: calibration NVM, chip ID, soft reset, ctrl_hum, ctrl_meas, config,
+ * status and the data registers. Data registers are filled from environmental waveforms by inverting the
+ * compensation formulas against the simulated calibration, so a driver reading them gets the waveform values back
+ * within the compensation resolution.
+ * <p>
+ * Conversions follow the datasheet timing for the active oversampling: the measuring status bit is set while a
+ * conversion runs, a forced conversion returns the mode to sleep when it completes, normal mode repeats conversions
+ * every measurement time plus standby time and im_update is set while the NVM is copied after a reset. Like the
+ * device, ctrl_hum and config take effect on the next write of ctrl_meas. The IIR filter is applied to the
+ * temperature and pressure ADC values.
+ * <p>
+ * A BMP280 can be simulated by passing its chip ID: the humidity calibration, ctrl_hum and humidity data
+ * registers then don't exist and read as zero.
+ * <p>
+ * Time is taken from a {@link Ticker} so that tests can advance it deterministically. All methods are thread safe.
+ */
+public final class BME280Simulator implements RegisterBus {
+
+    /**
+     * Environmental value as a function of time.
+     */
+    public interface Waveform {
+
+        /**
+         * Returns the value at the given ticker time.
+         *
+         * @param timeNanos ticker time in nanoseconds.
+         */
+        double valueAt(long timeNanos);
+    }
+
+    /**
+     * Source of monotonic time in nanoseconds.
+     */
+    public interface Ticker {
+
+        long nanoTime();
+    }
+
+    /**
+     * Ticker reading {@link System#nanoTime()}.
+     */
+    public static final Ticker SYSTEM_TICKER = new Ticker() {
+        @Override
+        public long nanoTime() {
+            return System.nanoTime();
+        }
+    };
+
+    /**
+     * Time the im_update status bit stays set after a reset while calibration is copied from NVM.
+     */
+    public static final long NVM_COPY_NANOS = 2000000L;
+
+    private static final int REG_CALIBRATION_1 = 0x88;
+    private static final int REG_CALIBRATION_HUMIDITY_1 = 0xA1;
+    private static final int REG_ID = 0xD0;
+    private static final int REG_SOFTRESET = 0xE0;
+    private static final int REG_CALIBRATION_2 = 0xE1;
+    private static final int REG_CTRL_HUM = 0xF2;
+    private static final int REG_STATUS = 0xF3;
+    private static final int REG_CTRL_MEAS = 0xF4;
+    private static final int REG_CONFIG = 0xF5;
+    private static final int REG_PRESS = 0xF7;
+    private static final int REG_TEMP = 0xFA;
+    private static final int REG_HUM = 0xFD;
+
+    private static final int SOFT_RESET_COMMAND = 0xB6;
+    private static final int STATUS_MEASURING = 0x08;
+    private static final int STATUS_IM_UPDATE = 0x01;
+    private static final int RESET_VALUE_20_BIT = 0x80000;
+    private static final int RESET_VALUE_16_BIT = 0x8000;
+
+    /**
+     * Normal mode conversions missed between two register accesses that are still replayed through the IIR filter.
+     * Older ones have decayed below the ADC resolution even with the x16 coefficient.
+     */
+    private static final int MAX_CATCH_UP_CONVERSIONS = 256;
+
+    private final Ticker ticker;
+    private final Calibration calibration;
+    private final ChipProfile profile;
+    private final byte[] registers = new byte[256];
+
+    private Waveform temperature = constant(20.0);
+    private Waveform pressure = constant(1013.25);
+    private Waveform humidity = constant(45.0);
+
+    private SamplingConfig active;
+    private long conversionStart;
+    private long conversionNanos;
+    private long periodNanos;
+    private long completedConversions;
+    private long nvmCopyEnd;
+    private long conversionCount;
+
+    private int filterCoefficient;
+    private boolean filterPrimed;
+    private double filteredTemperature;
+    private double filteredPressure;
+
+    private boolean closed;
+
+    /**
+     * Create a simulator with typical calibration values, running on {@link #SYSTEM_TICKER}.
+     */
+    public BME280Simulator() {
+        this(defaultCalibration(), SYSTEM_TICKER);
+    }
+
+    /**
+     * Create a simulator.
+     *
+     * @param calibration calibration programmed into the simulated NVM.
+     * @param ticker      time source of the conversion timing model.
+     */
+    public BME280Simulator(final Calibration calibration, final Ticker ticker) {
+        this(calibration, ticker, BME280Device.CHIP_ID_BME280);
+    }
+
+    /**
+     * Create a simulator of the given sensor variant.
+     *
+     * @param calibration calibration programmed into the simulated NVM.
+     * @param ticker      time source of the conversion timing model.
+     * @param chipId      value of the ID register, one of the BME280 or BMP280 chip IDs.
+     */
+    public BME280Simulator(final Calibration calibration, final Ticker ticker, final int chipId) {
+        final ChipProfile profile = ChipProfile.forChipId(chipId);
+        if (profile == null) {
+            throw new IllegalArgumentException("Unsupported chip ID " + chipId);
+        }
+        this.calibration = calibration;
+        this.ticker = ticker;
+        this.profile = profile;
+        writeCalibration();
+        registers[REG_ID] = (byte) chipId;
+        reset(ticker.nanoTime());
+    }
+
+    /**
+     * Returns calibration values of a typical sensor.
+     */
+    public static Calibration defaultCalibration() {
+        final Calibration calibration = new Calibration();
+        System.arraycopy(new int[] {27504, 26435, -1000}, 0, calibration.temperature, 0, 3);
+        System.arraycopy(new int[] {36477, -10685, 3024, 2855, 140, -7, 15500, -14600, 6000}, 0, calibration.pressure, 0, 9);
+        System.arraycopy(new int[] {75, 363, 0, 315, 50, 30}, 0, calibration.humidity, 0, 6);
+        return calibration;
+    }
+
+    /**
+     * Returns a waveform with a constant value.
+     */
+    public static Waveform constant(final double value) {
+        return new Waveform() {
+            @Override
+            public double valueAt(long timeNanos) {
+                return value;
+            }
+        };
+    }
+
+    /**
+     * Returns a sine waveform.
+     *
+     * @param mean        mean value.
+     * @param amplitude   peak deviation from the mean.
+     * @param periodNanos period in nanoseconds.
+     */
+    public static Waveform sine(final double mean, final double amplitude, final long periodNanos) {
+        if (periodNanos <= 0) {
+            throw new IllegalArgumentException("Period must be positive: " + periodNanos);
+        }
+        return new Waveform() {
+            @Override
+            public double valueAt(long timeNanos) {
+                return mean + amplitude * Math.sin(2.0 * Math.PI * (timeNanos % periodNanos) / periodNanos);
+            }
+        };
+    }
+
+    /**
+     * Returns a linear waveform.
+     *
+     * @param start          value at ticker time zero.
+     * @param slopePerSecond change of the value per second.
+     */
+    public static Waveform ramp(final double start, final double slopePerSecond) {
+        return new Waveform() {
+            @Override
+            public double valueAt(long timeNanos) {
+                return start + slopePerSecond * timeNanos / 1e9;
+            }
+        };
+    }
+
+    /**
+     * Set the temperature in degrees Celsius.
+     */
+    public synchronized void setTemperature(final Waveform temperature) {
+        this.temperature = temperature;
+    }
+
+    /**
+     * Set the barometric pressure in hPa.
+     */
+    public synchronized void setPressure(final Waveform pressure) {
+        this.pressure = pressure;
+    }
+
+    /**
+     * Set the relative humidity in percent.
+     */
+    public synchronized void setHumidity(final Waveform humidity) {
+        this.humidity = humidity;
+    }
+
+    /**
+     * Returns the calibration programmed into the simulated NVM.
+     */
+    public Calibration getCalibration() {
+        return calibration;
+    }
+
+    /**
+     * Returns the configuration latched by the last ctrl_meas write.
+     */
+    public synchronized SamplingConfig getActiveConfig() {
+        return active;
+    }
+
+    /**
+     * Returns the number of conversions completed since creation.
+     */
+    public synchronized long getConversionCount() {
+        advance(ticker.nanoTime());
+        return conversionCount;
+    }
+
+    @Override
+    public synchronized void close() {
+        closed = true;
+    }
+
+    @Override
+    public synchronized void readRegBuffer(int reg, byte[] buffer, int length) throws IOException {
+        checkOpen();
+        advance(ticker.nanoTime());
+        for (int i = 0; i < length; i++) {
+            buffer[i] = readRegister((reg + i) & 0xff);
+        }
+    }
+
+    @Override
+    public synchronized byte readRegByte(int reg) throws IOException {
+        checkOpen();
+        advance(ticker.nanoTime());
+        return readRegister(reg & 0xff);
+    }
+
+    @Override
+    public synchronized short readRegWord(int reg) throws IOException {
+        checkOpen();
+        advance(ticker.nanoTime());
+        // Little endian, like the calibration words.
+        return (short) ((readRegister(reg & 0xff) & 0xff) | (readRegister((reg + 1) & 0xff) & 0xff) << 8);
+    }
+
+    @Override
+    public synchronized void writeRegByte(int reg, byte data) throws IOException {
+        checkOpen();
+        writeRegister(reg & 0xff, data);
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("I2C device not open");
+        }
+    }
+
+    private byte readRegister(final int reg) {
+        if (reg == REG_STATUS) {
+            return (byte) status(ticker.nanoTime());
+        }
+        return registers[reg];
+    }
+
+    private void writeRegister(final int reg, final byte data) {
+        final long now = ticker.nanoTime();
+        advance(now);
+        switch (reg) {
+            case REG_SOFTRESET:
+                if ((data & 0xff) == SOFT_RESET_COMMAND) {
+                    reset(now);
+                }
+                break;
+            case REG_CTRL_HUM:
+                if (profile.hasHumidity()) {
+                    registers[reg] = data;
+                }
+                break;
+            case REG_CONFIG:
+                // Writes in normal mode may be ignored, the datasheet recommends writing it in sleep mode.
+                if (active.getMode() != BME280Device.MODE_NORMAL) {
+                    registers[reg] = data;
+                }
+                break;
+            case REG_CTRL_MEAS:
+                registers[reg] = data;
+                apply(now);
+                break;
+            default:
+                // Calibration, ID and data registers are read-only.
+                break;
+        }
+    }
+
+    /**
+     * Restore the power-on register values and start copying the NVM.
+     */
+    private void reset(final long now) {
+        registers[REG_CTRL_HUM] = 0;
+        registers[REG_CTRL_MEAS] = 0;
+        registers[REG_CONFIG] = 0;
+        putSample(REG_PRESS, RESET_VALUE_20_BIT);
+        putSample(REG_TEMP, RESET_VALUE_20_BIT);
+        putHumidity(RESET_VALUE_16_BIT);
+        active = new SamplingConfig(BME280Device.MODE_SLEEP, BME280Device.OVERSAMPLING_SKIPPED, BME280Device.OVERSAMPLING_SKIPPED,
+            BME280Device.OVERSAMPLING_SKIPPED, BME280Device.FILTER_OFF, BME280Device.STANDBY_MS_0_5);
+        filterCoefficient = 1;
+        filterPrimed = false;
+        nvmCopyEnd = now + NVM_COPY_NANOS;
+    }
+
+    /**
+     * Latch ctrl_hum, ctrl_meas and config and start conversions for the new mode.
+     */
+    private void apply(final long now) {
+        final int ctrlMeas = registers[REG_CTRL_MEAS] & 0xff;
+        final int config = registers[REG_CONFIG] & 0xff;
+        final int modeBits = ctrlMeas & 0x03;
+        final int mode = modeBits == 0 ? BME280Device.MODE_SLEEP : modeBits == BME280Device.MODE_NORMAL ? BME280Device.MODE_NORMAL : BME280Device.MODE_FORCED;
+
+        final SamplingConfig latched = new SamplingConfig(
+            mode,
+            oversampling(ctrlMeas >> 5),
+            oversampling(ctrlMeas >> 2),
+            oversampling(registers[REG_CTRL_HUM]),
+            Math.min((config >> 2) & 0x07, BME280Device.FILTER_X16),
+            (config >> 5) & 0x07
+        );
+        if (latched.getFilter() != active.getFilter()) {
+            filterPrimed = false;
+        }
+        active = latched;
+        filterCoefficient = 1 << latched.getFilter();
+
+        conversionStart = now;
+        conversionNanos = latched.getMeasurementTimeTypicalMicros() * 1000L;
+        periodNanos = latched.getConversionPeriodNanos(profile);
+        completedConversions = 0;
+    }
+
+    private static int oversampling(final int bits) {
+        return Math.min(bits & 0x07, BME280Device.OVERSAMPLING_16X);
+    }
+
+    /**
+     * Complete the conversions that finished before the given time.
+     */
+    private void advance(final long now) {
+        final SamplingConfig config = active;
+        if (config.getMode() == BME280Device.MODE_SLEEP) {
+            return;
+        }
+
+        final long elapsed = now - conversionStart;
+        if (elapsed < conversionNanos) {
+            return;
+        }
+
+        if (config.getMode() == BME280Device.MODE_FORCED) {
+            convert(config, conversionStart + conversionNanos);
+            // The device returns to sleep mode after a forced conversion.
+            registers[REG_CTRL_MEAS] = (byte) (registers[REG_CTRL_MEAS] & 0xFC);
+            active = config.withMode(BME280Device.MODE_SLEEP);
+            return;
+        }
+
+        final long done = (elapsed - conversionNanos) / periodNanos + 1;
+        for (long i = Math.max(completedConversions, done - MAX_CATCH_UP_CONVERSIONS); i < done; i++) {
+            convert(config, conversionStart + i * periodNanos + conversionNanos);
+        }
+        completedConversions = done;
+    }
+
+    private int status(final long now) {
+        int status = 0;
+        if (now - nvmCopyEnd < 0) {
+            status |= STATUS_IM_UPDATE;
+        }
+        final int mode = active.getMode();
+        final long elapsed = now - conversionStart;
+        if (mode == BME280Device.MODE_FORCED && elapsed < conversionNanos
+            || mode == BME280Device.MODE_NORMAL && elapsed % periodNanos < conversionNanos) {
+            status |= STATUS_MEASURING;
+        }
+        return status;
+    }
+
+    /**
+     * Update the data registers with a conversion completed at the given time.
+     */
+    private void convert(final SamplingConfig config, final long time) {
+        conversionCount++;
+
+        final int osTemperature = config.getOversamplingTemperature();
+        final int osPressure = config.getOversamplingPressure();
+        final int osHumidity = config.getOversamplingHumidity();
+
+        final int adcTemperature = rawTemperature(temperature.valueAt(time));
+        final int temperatureFine = Compensation.temperatureFine(adcTemperature, calibration.temperature);
+        final int adcPressure = rawPressure(pressure.valueAt(time), temperatureFine);
+
+        if (!filterPrimed) {
+            filteredTemperature = adcTemperature;
+            filteredPressure = adcPressure;
+            filterPrimed = true;
+        } else {
+            filteredTemperature += (adcTemperature - filteredTemperature) / filterCoefficient;
+            filteredPressure += (adcPressure - filteredPressure) / filterCoefficient;
+        }
+
+        putSample(REG_TEMP, osTemperature == BME280Device.OVERSAMPLING_SKIPPED
+            ? RESET_VALUE_20_BIT
+            : resolution((int) Math.round(filteredTemperature), osTemperature));
+        putSample(REG_PRESS, osPressure == BME280Device.OVERSAMPLING_SKIPPED || osTemperature == BME280Device.OVERSAMPLING_SKIPPED
+            ? RESET_VALUE_20_BIT
+            : resolution((int) Math.round(filteredPressure), osPressure));
+        putHumidity(osHumidity == BME280Device.OVERSAMPLING_SKIPPED || osTemperature == BME280Device.OVERSAMPLING_SKIPPED
+            ? RESET_VALUE_16_BIT
+            : rawHumidity(humidity.valueAt(time), temperatureFine));
+    }
+
+    /**
+     * Without the IIR filter the ADC resolution is 16 bits plus one bit per oversampling step.
+     */
+    private int resolution(final int adc, final int oversampling) {
+        if (filterCoefficient > 1) {
+            return adc;
+        }
+        final int droppedBits = 20 - Math.min(20, 15 + oversampling);
+        return adc & ~((1 << droppedBits) - 1);
+    }
+
+    /**
+     * Returns the smallest raw temperature that compensates to at least the given value.
+     */
+    int rawTemperature(final double celsius) {
+        final int target = (int) Math.round(celsius * 100.0);
+        int low = 0;
+        int high = (1 << 20) - 1;
+        while (low < high) {
+            final int middle = (low + high) >>> 1;
+            if (Compensation.temperature(Compensation.temperatureFine(middle, calibration.temperature)) < target) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Returns the smallest raw pressure that compensates to at most the given value. Pressure decreases with the
+     * raw value.
+     */
+    int rawPressure(final double hPa, final int temperatureFine) {
+        final long target = Math.round(hPa * 25600.0);
+        int low = 0;
+        int high = (1 << 20) - 1;
+        while (low < high) {
+            final int middle = (low + high) >>> 1;
+            if ((Compensation.pressure(middle, calibration.pressure, temperatureFine) & 0xffffffffL) > target) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Returns the smallest raw humidity that compensates to at least the given value.
+     */
+    int rawHumidity(final double percent, final int temperatureFine) {
+        final int target = (int) Math.round(Math.max(0.0, Math.min(100.0, percent)) * 1024.0);
+        int low = 0;
+        int high = 0xffff;
+        while (low < high) {
+            final int middle = (low + high) >>> 1;
+            if (Compensation.humidity(middle, calibration.humidity, temperatureFine) < target) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private void putSample(final int reg, final int value) {
+        // msb[7:0] lsb[7:0] xlsb[7:4]
+        registers[reg] = (byte) (value >> 12);
+        registers[reg + 1] = (byte) (value >> 4);
+        registers[reg + 2] = (byte) (value << 4);
+    }
+
+    private void putHumidity(final int value) {
+        if (!profile.hasHumidity()) {
+            return;
+        }
+        registers[REG_HUM] = (byte) (value >> 8);
+        registers[REG_HUM + 1] = (byte) value;
+    }
+
+    private void writeCalibration() {
+        for (int i = 0; i < 3; i++) {
+            putWord(REG_CALIBRATION_1 + 2 * i, calibration.temperature[i]);
+        }
+        for (int i = 0; i < 9; i++) {
+            putWord(REG_CALIBRATION_1 + 6 + 2 * i, calibration.pressure[i]);
+        }
+        if (!profile.hasHumidity()) {
+            return;
+        }
+        final int[] humidity = calibration.humidity;
+        registers[REG_CALIBRATION_HUMIDITY_1] = (byte) humidity[0];
+        putWord(REG_CALIBRATION_2, humidity[1]);
+        registers[REG_CALIBRATION_2 + 2] = (byte) humidity[2];
+        // dig_H4 and dig_H5 are 12-bit values sharing the nibbles of 0xE5.
+        registers[REG_CALIBRATION_2 + 3] = (byte) (humidity[3] >> 4);
+        registers[REG_CALIBRATION_2 + 4] = (byte) ((humidity[3] & 0x0F) | (humidity[4] & 0x0F) << 4);
+        registers[REG_CALIBRATION_2 + 5] = (byte) (humidity[4] >> 4);
+        registers[REG_CALIBRATION_2 + 6] = (byte) humidity[5];
+    }
+
+    private void putWord(final int reg, final int value) {
+        registers[reg] = (byte) value;
+        registers[reg + 1] = (byte) (value >> 8);
+    }
+}
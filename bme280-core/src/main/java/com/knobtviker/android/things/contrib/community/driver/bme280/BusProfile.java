@@ -0,0 +1,169 @@
+package com.knobtviker.android.things.contrib.community.driver.bme280;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Transaction latencies of a register bus and the read strategies derived from them.
+ * <p>
+ * {@link BME280Device} measures the median latency of single byte and burst reads when it connects. A transaction
+ * is modelled as a fixed overhead, addressing and host scheduling, plus a cost per transferred byte. The device
+ * picks from the profile:
+ * <ul>
+ * <li>whether to wait for a conversion by polling the measuring status bit, or blindly for the maximum measurement
+ * time when status reads are too slow to poll the spread between the typical and maximum measurement time</li>
+ * <li>the status poll interval, keeping the bus busy for at most a quarter of the wait</li>
+ * <li>whether to read data registers with unused registers in between in a single burst, when it saves at least
+ * {@link #MIN_BURST_SAVING_NANOS} over separate transactions. Contiguous registers are always read in one burst,
+ * it transfers the same bytes and only a burst is guaranteed to return a single conversion</li>
+ * </ul>
+ */
+public final class BusProfile {
+
+    /**
+     * Minimum saving in nanoseconds for a merged burst read, about the overhead of a transaction at 400 kHz.
+     * Smaller differences are lost in scheduling noise.
+     */
+    public static final long MIN_BURST_SAVING_NANOS = 50000L;
+
+    /**
+     * Shortest status poll interval in nanoseconds.
+     */
+    public static final long MIN_POLL_INTERVAL_NANOS = 100000L;
+
+    private final long singleByteNanos;
+    private final long burstNanos;
+    private final int burstLength;
+
+    /**
+     * Create a profile from measured latencies.
+     *
+     * @param singleByteNanos latency of a single byte register read.
+     * @param burstNanos      latency of a burst read.
+     * @param burstLength     number of bytes of the burst read, at least 2.
+     */
+    public BusProfile(long singleByteNanos, long burstNanos, int burstLength) {
+        if (singleByteNanos < 0 || burstNanos < 0) {
+            throw new IllegalArgumentException("Latencies must not be negative: " + singleByteNanos + ", " + burstNanos);
+        }
+        if (burstLength < 2) {
+            throw new IllegalArgumentException("Burst length must be at least 2: " + burstLength);
+        }
+        this.singleByteNanos = singleByteNanos;
+        this.burstNanos = burstNanos;
+        this.burstLength = burstLength;
+    }
+
+    /**
+     * Measure the median latencies of alternating single byte and burst reads of side effect free registers.
+     *
+     * @param bus            register bus to profile.
+     * @param singleRegister register read by the single byte reads.
+     * @param burstRegister  first register read by the burst reads.
+     * @param burstLength    number of bytes of the burst reads.
+     * @param rounds         number of reads of each kind.
+     */
+    static BusProfile measure(final RegisterBus bus, final int singleRegister, final int burstRegister,
+        final int burstLength, final int rounds) throws IOException {
+        final long[] single = new long[rounds];
+        final long[] burst = new long[rounds];
+        final byte[] buffer = new byte[burstLength];
+        for (int i = 0; i < rounds; i++) {
+            final long start = System.nanoTime();
+            bus.readRegByte(singleRegister);
+            final long singleEnd = System.nanoTime();
+            bus.readRegBuffer(burstRegister, buffer, burstLength);
+            final long burstEnd = System.nanoTime();
+            single[i] = singleEnd - start;
+            burst[i] = burstEnd - singleEnd;
+        }
+        return new BusProfile(median(single), median(burst), burstLength);
+    }
+
+    private static long median(final long[] values) {
+        Arrays.sort(values);
+        return values[values.length / 2];
+    }
+
+    /**
+     * Returns the median latency of a single byte read in nanoseconds.
+     */
+    public long getSingleByteNanos() {
+        return singleByteNanos;
+    }
+
+    /**
+     * Returns the median latency of a burst read in nanoseconds.
+     */
+    public long getBurstNanos() {
+        return burstNanos;
+    }
+
+    /**
+     * Returns the number of bytes of the profiled burst read.
+     */
+    public int getBurstLength() {
+        return burstLength;
+    }
+
+    /**
+     * Returns the cost of every further byte of a transaction in nanoseconds.
+     */
+    public long getPerByteNanos() {
+        return Math.max(0, (burstNanos - singleByteNanos) / (burstLength - 1));
+    }
+
+    /**
+     * Returns the fixed cost of a transaction in nanoseconds.
+     */
+    public long getTransactionOverheadNanos() {
+        return Math.max(0, singleByteNanos - getPerByteNanos());
+    }
+
+    /**
+     * Returns the estimated duration of the given transactions in nanoseconds.
+     *
+     * @param transactions number of transactions.
+     * @param bytes        total number of bytes transferred.
+     */
+    public long estimateNanos(int transactions, int bytes) {
+        return transactions * getTransactionOverheadNanos() + bytes * getPerByteNanos();
+    }
+
+    /**
+     * Returns the interval between status reads while waiting for a conversion in nanoseconds.
+     */
+    public long getStatusPollIntervalNanos() {
+        return Math.max(MIN_POLL_INTERVAL_NANOS, 4 * singleByteNanos);
+    }
+
+    /**
+     * Returns true if waiting for a conversion with the given configuration should poll the measuring status bit
+     * after the typical measurement time, false to sleep for the maximum measurement time.
+     *
+     * @param config sampling configuration of the conversion.
+     */
+    public boolean prefersStatusPolling(SamplingConfig config) {
+        final long spreadNanos = (config.getMeasurementTimeMaxMicros() - config.getMeasurementTimeTypicalMicros()) * 1000L;
+        return 2 * getStatusPollIntervalNanos() <= spreadNanos;
+    }
+
+    /**
+     * Returns true if registers with unused registers in between should be read in a single burst instead of
+     * separate transactions.
+     *
+     * @param separateTransactions number of separate transactions.
+     * @param separateBytes        total number of bytes of the separate transactions.
+     * @param burstBytes           number of bytes of the burst, including registers in between.
+     */
+    public boolean prefersBurst(int separateTransactions, int separateBytes, int burstBytes) {
+        return estimateNanos(separateTransactions, separateBytes) - estimateNanos(1, burstBytes) >= MIN_BURST_SAVING_NANOS;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "BusProfile{single byte %.1f us, %d byte burst %.1f us, overhead %.1f us, %.2f us/byte}",
+            singleByteNanos / 1e3, burstLength, burstNanos / 1e3, getTransactionOverheadNanos() / 1e3, getPerByteNanos() / 1e3);
+    }
+}
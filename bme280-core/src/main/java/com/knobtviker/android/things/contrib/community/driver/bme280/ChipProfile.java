@@ -0,0 +1,119 @@
+package com.knobtviker.android.things.contrib.community.driver.bme280;
+
+/**
+ * Capabilities of a sensor variant, selected by its chip ID.
+ * <p>
+ * The BMP280 shares the register map, calibration layout and compensation formulas of the BME280 but has no
+ * humidity sensor: there is no ctrl_hum register, no humidity calibration and the data registers end after the
+ * temperature bytes, so a burst read of all data is 6 bytes instead of 8. The two longest standby codes of the
+ * BMP280 are 2000 and 4000 ms where the BME280 has 10 and 20 ms.
+ */
+public final class ChipProfile {
+
+    /**
+     * Temperature, pressure and humidity sensor.
+     */
+    public static final ChipProfile BME280 = new ChipProfile("BME280", true, 10000, 20000);
+
+    /**
+     * Temperature and pressure sensor.
+     */
+    public static final ChipProfile BMP280 = new ChipProfile("BMP280", false, 2000000, 4000000);
+
+    private final String name;
+    private final boolean humidity;
+    // Standby times of the codes 0b110 and 0b111, the only ones that differ between the variants.
+    private final long standby6Micros;
+    private final long standby7Micros;
+
+    private ChipProfile(String name, boolean humidity, long standby6Micros, long standby7Micros) {
+        this.name = name;
+        this.humidity = humidity;
+        this.standby6Micros = standby6Micros;
+        this.standby7Micros = standby7Micros;
+    }
+
+    /**
+     * Returns the profile of the given chip ID, or null if it isn't a supported sensor.
+     *
+     * @param chipId value of the ID register.
+     */
+    public static ChipProfile forChipId(int chipId) {
+        switch (chipId & 0xff) {
+            case BME280Device.CHIP_ID_BME280:
+                return BME280;
+            case BME280Device.CHIP_ID_BMP280_SAMPLE_1:
+            case BME280Device.CHIP_ID_BMP280_SAMPLE_2:
+            case BME280Device.CHIP_ID_BMP280:
+                return BMP280;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Returns the chip name.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns true if the sensor measures humidity.
+     */
+    public boolean hasHumidity() {
+        return humidity;
+    }
+
+    /**
+     * Returns the number of data register bytes read in a burst, starting with the pressure.
+     */
+    public int getDataLength() {
+        return humidity ? 8 : 6;
+    }
+
+    /**
+     * Returns the inactive duration between conversions in normal mode in microseconds.
+     *
+     * @param standbyDuration standby code of the config register.
+     */
+    public long standbyMicros(@BME280Device.StandByDuration int standbyDuration) {
+        switch (standbyDuration) {
+            case BME280Device.STANDBY_MS_0_5:
+                return 500;
+            case BME280Device.STANDBY_MS_62_5:
+                return 62500;
+            case BME280Device.STANDBY_MS_125:
+                return 125000;
+            case BME280Device.STANDBY_MS_250:
+                return 250000;
+            case BME280Device.STANDBY_MS_500:
+                return 500000;
+            case BME280Device.STANDBY_MS_1000:
+                return 1000000;
+            case BME280Device.STANDBY_MS_10:
+                return standby6Micros;
+            default:
+                return standby7Micros;
+        }
+    }
+
+    /**
+     * Returns the configuration the sensor actually applies, humidity oversampling is skipped without a humidity
+     * sensor.
+     *
+     * @param config requested configuration.
+     */
+    public SamplingConfig supported(SamplingConfig config) {
+        if (humidity || config.getOversamplingHumidity() == BME280Device.OVERSAMPLING_SKIPPED) {
+            return config;
+        }
+        return new SamplingConfig(config.getMode(), config.getOversamplingTemperature(), config.getOversamplingPressure(),
+            BME280Device.OVERSAMPLING_SKIPPED, config.getFilter(), config.getStandbyDuration());
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
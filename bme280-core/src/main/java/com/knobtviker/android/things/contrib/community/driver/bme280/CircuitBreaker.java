@@ -0,0 +1,180 @@
+package com.knobtviker.android.things.contrib.community.driver.bme280;
+
+import android.support.annotation.IntDef;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+
+/**
+ * Per-device circuit breaker for bus transactions.
+ * <p>
+ * After a number of consecutive failed transactions the breaker opens and transactions fail fast with
+ * {@link CircuitOpenException} instead of stalling the bus. Once the open duration has passed the breaker is
+ * half open and admits a single probe transaction: success closes it again, failure reopens it.
+ * <p>
+ * The breaker also counts transactions, failures, retries, rejections and state changes of its device.
+ * Instances are thread safe, but must not be shared between devices.
+ */
+public class CircuitBreaker {
+
+    /**
+     * Breaker state.
+     */
+    @Retention(RetentionPolicy.SOURCE)
+    @IntDef({STATE_CLOSED, STATE_OPEN, STATE_HALF_OPEN})
+    public @interface State {
+    }
+
+    public static final int STATE_CLOSED = 0;
+    public static final int STATE_OPEN = 1;
+    public static final int STATE_HALF_OPEN = 2;
+
+    private final int failureThreshold;
+    private final long openDurationNanos;
+
+    private int state = STATE_CLOSED;
+    private int consecutiveFailures;
+    private long openedAt;
+    private boolean probing;
+
+    private long transactionCount;
+    private long failureCount;
+    private long retryCount;
+    private long rejectedCount;
+    private long openedCount;
+    private long halfOpenedCount;
+    private long closedCount;
+
+    /**
+     * Create a new circuit breaker.
+     *
+     * @param failureThreshold   number of consecutive failed transactions that open the breaker.
+     * @param openDurationMillis time the breaker stays open before admitting a probe.
+     */
+    public CircuitBreaker(int failureThreshold, long openDurationMillis) {
+        if (failureThreshold < 1) {
+            throw new IllegalArgumentException("Failure threshold must be positive: " + failureThreshold);
+        }
+        if (openDurationMillis < 0) {
+            throw new IllegalArgumentException("Open duration must not be negative: " + openDurationMillis);
+        }
+        this.failureThreshold = failureThreshold;
+        this.openDurationNanos = openDurationMillis * 1000000L;
+    }
+
+    /**
+     * Admit a transaction.
+     *
+     * @throws CircuitOpenException if the breaker is open or a half open probe is already running.
+     */
+    synchronized void acquire() throws CircuitOpenException {
+        if (state == STATE_OPEN) {
+            if (System.nanoTime() - openedAt < openDurationNanos) {
+                rejectedCount++;
+                throw new CircuitOpenException("Circuit open after " + consecutiveFailures + " consecutive failures");
+            }
+            state = STATE_HALF_OPEN;
+            halfOpenedCount++;
+        }
+        if (state == STATE_HALF_OPEN) {
+            if (probing) {
+                rejectedCount++;
+                throw new CircuitOpenException("Circuit half open, probe in progress");
+            }
+            probing = true;
+        }
+        transactionCount++;
+    }
+
+    synchronized void onSuccess() {
+        consecutiveFailures = 0;
+        probing = false;
+        if (state != STATE_CLOSED) {
+            state = STATE_CLOSED;
+            closedCount++;
+        }
+    }
+
+    synchronized void onFailure() {
+        failureCount++;
+        consecutiveFailures++;
+        probing = false;
+        if (state == STATE_HALF_OPEN || (state == STATE_CLOSED && consecutiveFailures >= failureThreshold)) {
+            state = STATE_OPEN;
+            openedAt = System.nanoTime();
+            openedCount++;
+        }
+    }
+
+    /**
+     * Release an admitted transaction that ended without a bus result, so a half open breaker admits the next
+     * probe.
+     */
+    synchronized void release() {
+        probing = false;
+    }
+
+    synchronized void onRetry() {
+        retryCount++;
+    }
+
+    /**
+     * Returns the current state, open breakers whose open duration has passed report half open.
+     */
+    @State
+    public synchronized int getState() {
+        if (state == STATE_OPEN && System.nanoTime() - openedAt >= openDurationNanos) {
+            return STATE_HALF_OPEN;
+        }
+        return state;
+    }
+
+    /**
+     * Returns the number of admitted transaction attempts.
+     */
+    public synchronized long getTransactionCount() {
+        return transactionCount;
+    }
+
+    /**
+     * Returns the number of failed transaction attempts.
+     */
+    public synchronized long getFailureCount() {
+        return failureCount;
+    }
+
+    /**
+     * Returns the number of retried transaction attempts.
+     */
+    public synchronized long getRetryCount() {
+        return retryCount;
+    }
+
+    /**
+     * Returns the number of transactions rejected without touching the bus.
+     */
+    public synchronized long getRejectedCount() {
+        return rejectedCount;
+    }
+
+    /**
+     * Returns the number of times the breaker opened.
+     */
+    public synchronized long getOpenedCount() {
+        return openedCount;
+    }
+
+    /**
+     * Returns the number of times the breaker went half open to probe the device.
+     */
+    public synchronized long getHalfOpenedCount() {
+        return halfOpenedCount;
+    }
+
+    /**
+     * Returns the number of times the breaker closed after a successful probe.
+     */
+    public synchronized long getClosedCount() {
+        return closedCount;
+    }
+}
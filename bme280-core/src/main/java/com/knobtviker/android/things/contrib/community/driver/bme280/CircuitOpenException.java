@@ -0,0 +1,15 @@
+package com.knobtviker.android.things.contrib.community.driver.bme280;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a bus transaction is rejected because the device circuit breaker is open.
+ */
+public class CircuitOpenException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    public CircuitOpenException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,103 @@
+package com.knobtviker.android.things.contrib.community.driver.bme280;
+
+/**
+ * Fixed-point compensation formulas from the BME280 datasheet.
+ * <p>
+ * The formulas have no side effects, the fine temperature is returned to and passed in by the caller, so they are
+ * safe to call concurrently from any thread.
+ */
+public final class Compensation {
+
+    /**
+     * Fixed-point scale of {@link #temperature(int)}, hundredths of degrees Celsius.
+     */
+    public static final int TEMPERATURE_SCALE = 100;
+    /**
+     * Fixed-point scale of {@link #pressure(int, int[], int)} for hPa, Pa as unsigned 24.8 fixed-point.
+     */
+    public static final int PRESSURE_SCALE = 25600;
+    /**
+     * Fixed-point scale of {@link #humidity(int, int[], int)}, percentage as unsigned 22.10 fixed-point.
+     */
+    public static final int HUMIDITY_SCALE = 1024;
+
+    private Compensation() {
+    }
+
+    /**
+     * Calculate the fine temperature used by the pressure and humidity compensation.
+     *
+     * @param measuredTemperature 20-bit raw temperature.
+     * @param calibration         temperature calibration data.
+     * @return fine temperature.
+     */
+    public static int temperatureFine(final int measuredTemperature, final int[] calibration) {
+        final int var1 = ((((measuredTemperature >> 3) - (calibration[0] << 1))) * calibration[1]) >> 11;
+        final int var2 = (((((measuredTemperature >> 4) - calibration[0])
+            * ((measuredTemperature >> 4) - calibration[0])) >> 12)
+            * calibration[2]) >> 14;
+
+        return var1 + var2;
+    }
+
+    /**
+     * Calculate the temperature from the fine temperature.
+     *
+     * @param temperatureFine fine temperature.
+     * @return temperature in hundredths of degrees Celsius.
+     */
+    public static int temperature(final int temperatureFine) {
+        return (temperatureFine * 5 + 128) >> 8;
+    }
+
+    /**
+     * Calculate the pressure.
+     *
+     * @param measuredPressure 20-bit raw pressure.
+     * @param calibration      pressure calibration data.
+     * @param temperatureFine  fine temperature.
+     * @return pressure in Pa as unsigned 24.8 fixed-point, divide by 25600 for hPa.
+     */
+    public static int pressure(final int measuredPressure, final int[] calibration, final int temperatureFine) {
+        long var1 = ((long) temperatureFine) - 128000;
+
+        long var2 = var1 * var1 * (long) calibration[5];
+        var2 = var2 + ((var1 * (long) calibration[4]) << 17);
+        var2 = var2 + (((long) calibration[3]) << 35);
+        var1 = ((var1 * var1 * (long) calibration[2]) >> 8) + ((var1 * (long) calibration[1]) << 12);
+        var1 = (((((long) 1) << 47) + var1)) * ((long) calibration[0]) >> 33;
+
+        if (var1 == 0) {
+            return 0; // avoid exception caused by division by zero
+        }
+
+        long p = 1048576 - measuredPressure;
+        p = (((p << 31) - var2) * 3125) / var1;
+        var1 = (((long) calibration[8]) * (p >> 13) * (p >> 13)) >> 25;
+        var2 = (((long) calibration[7]) * p) >> 19;
+        p = ((p + var1 + var2) >> 8) + (((long) calibration[6]) << 4);
+
+        return (int) p;
+    }
+
+    /**
+     * Calculate the relative humidity.
+     *
+     * @param measuredHumidity 16-bit raw humidity.
+     * @param calibration      humidity calibration data.
+     * @param temperatureFine  fine temperature.
+     * @return relative humidity in percentage as unsigned 22.10 fixed-point, divide by 1024 for percentage.
+     */
+    public static int humidity(final int measuredHumidity, final int[] calibration, final int temperatureFine) {
+        int var1 = (temperatureFine - 76800);
+        var1 = (((((measuredHumidity << 14) - (calibration[3] << 20) - (calibration[4] * var1)) + 16384) >> 15)
+            * (((((((var1 * calibration[5]) >> 10)
+            * (((var1 * calibration[2]) >> 11) + 32768)) >> 10) + 2097152)
+            * calibration[1] + 8192) >> 14));
+        var1 = (var1 - (((((var1 >> 15) * (var1 >> 15)) >> 7) * calibration[0]) >> 4));
+        var1 = (var1 < 0 ? 0 : var1);
+        var1 = (var1 > 419430400 ? 419430400 : var1);
+
+        return var1 >> 12;
+    }
+}
@@ -0,0 +1,336 @@
+package com.knobtviker.android.things.contrib.community.driver.bme280;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Compensates interleaved raw frames of many sensors on a pool of workers.
+ * <p>
+ * Sensors are sharded across the workers by their ID, every worker owns a bounded queue and the calibration
+ * contexts of its sensors, so workers never share state and scale with the number of cores. Frames of a sensor
+ * are always compensated by the same worker in the order they were submitted. Registration travels through the
+ * same queue, a sensor can be re-registered with a new calibration without racing its pending frames.
+ * <p>
+ * Compensated values are delivered to the {@link Listener} on the worker thread of the sensor, in the fixed-point
+ * units of {@link Compensation} and bit for bit equal to {@link BME280Device#readAll()}. Consecutive frames with
+ * the same raw temperature reuse the fine temperature of the previous frame.
+ * <p>
+ * Submissions block while the queue of the worker is full. Instances are thread safe.
+ */
+public class CompensationService implements AutoCloseable {
+
+    private static final Logger LOGGER = Logger.getLogger(CompensationService.class.getSimpleName());
+
+    /**
+     * Humidity passed to the listener for frames of sensors without humidity.
+     */
+    public static final int NO_HUMIDITY = -1;
+
+    /**
+     * Receives compensated frames.
+     */
+    public interface Listener {
+
+        /**
+         * Called on the worker thread of the sensor for every compensated frame, in submission order per sensor.
+         *
+         * @param sensorId    ID of the sensor.
+         * @param timestamp   frame timestamp.
+         * @param temperature temperature in hundredths of degrees Celsius.
+         * @param pressure    pressure in Pa as unsigned 24.8 fixed-point.
+         * @param humidity    humidity in percentage as unsigned 22.10 fixed-point, or {@link #NO_HUMIDITY}.
+         */
+        void onCompensated(int sensorId, long timestamp, int temperature, int pressure, int humidity);
+    }
+
+    private static final Task SHUTDOWN = new Task(0, null, null, null, null, null, 0);
+
+    private final Listener listener;
+    private final Worker[] workers;
+    private final Set<Integer> registered = Collections.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
+
+    // Submissions hold the read lock while enqueueing, close() takes the write lock, so no task lands behind SHUTDOWN.
+    private final ReadWriteLock closeLock = new ReentrantReadWriteLock();
+    private boolean closed;
+
+    /**
+     * Create a service with one worker per available processor.
+     *
+     * @param listener receives compensated frames.
+     */
+    public CompensationService(Listener listener) {
+        this(listener, Runtime.getRuntime().availableProcessors(), 1024);
+    }
+
+    /**
+     * Create a service.
+     *
+     * @param listener      receives compensated frames.
+     * @param workerCount   number of worker threads.
+     * @param queueCapacity number of pending submissions per worker before submitting blocks.
+     */
+    public CompensationService(Listener listener, int workerCount, int queueCapacity) {
+        if (workerCount <= 0 || queueCapacity <= 0) {
+            throw new IllegalArgumentException("Worker count and queue capacity must be positive");
+        }
+        this.listener = listener;
+        this.workers = new Worker[workerCount];
+        for (int i = 0; i < workerCount; i++) {
+            workers[i] = new Worker(i, queueCapacity);
+        }
+        for (final Worker worker : workers) {
+            worker.start();
+        }
+    }
+
+    /**
+     * Returns the number of workers.
+     */
+    public int getWorkerCount() {
+        return workers.length;
+    }
+
+    /**
+     * Returns the number of frames compensated so far.
+     */
+    public long getCompensatedCount() {
+        long count = 0;
+        for (final Worker worker : workers) {
+            count += worker.compensatedCount;
+        }
+        return count;
+    }
+
+    /**
+     * Register a sensor, or replace its calibration. Frames submitted before are compensated with the previous
+     * calibration.
+     *
+     * @param sensorId    ID of the sensor.
+     * @param calibration calibration of the sensor, copied.
+     * @throws InterruptedException if interrupted while the queue of the worker is full.
+     */
+    public void register(int sensorId, Calibration calibration) throws InterruptedException {
+        final Calibration copy = new Calibration();
+        System.arraycopy(calibration.temperature, 0, copy.temperature, 0, copy.temperature.length);
+        System.arraycopy(calibration.pressure, 0, copy.pressure, 0, copy.pressure.length);
+        System.arraycopy(calibration.humidity, 0, copy.humidity, 0, copy.humidity.length);
+        enqueue(sensorId, new Task(sensorId, copy, null, null, null, null, 0));
+        registered.add(sensorId);
+    }
+
+    /**
+     * Submit a single raw frame.
+     *
+     * @param sensorId       ID of a registered sensor.
+     * @param timestamp      frame timestamp.
+     * @param rawTemperature 20-bit raw temperature.
+     * @param rawPressure    20-bit raw pressure.
+     * @param rawHumidity    16-bit raw humidity, or a negative value if the sensor has no humidity.
+     * @throws InterruptedException if interrupted while the queue of the worker is full.
+     */
+    public void submit(int sensorId, long timestamp, int rawTemperature, int rawPressure, int rawHumidity)
+        throws InterruptedException {
+        checkRegistered(sensorId);
+        enqueue(sensorId, new Task(sensorId, null, new long[] {timestamp}, new int[] {rawTemperature},
+            new int[] {rawPressure}, new int[] {rawHumidity}, 1));
+    }
+
+    /**
+     * Submit a decoded batch of raw frames. The frames are copied, so the batch can be reused right away.
+     *
+     * @param sensorId ID of a registered sensor.
+     * @param batch    frames of the sensor.
+     * @throws InterruptedException if interrupted while the queue of the worker is full.
+     */
+    public void submit(int sensorId, RawFrameCodec.Batch batch) throws InterruptedException {
+        checkRegistered(sensorId);
+        final int count = batch.size();
+        final long[] timestamps = new long[count];
+        final int[] temperature = new int[count];
+        final int[] pressure = new int[count];
+        final int[] humidity = new int[count];
+        System.arraycopy(batch.timestamps, 0, timestamps, 0, count);
+        System.arraycopy(batch.temperature, 0, temperature, 0, count);
+        System.arraycopy(batch.pressure, 0, pressure, 0, count);
+        System.arraycopy(batch.humidity, 0, humidity, 0, count);
+        enqueue(sensorId, new Task(sensorId, null, timestamps, temperature, pressure, humidity, count));
+    }
+
+    private void checkRegistered(final int sensorId) {
+        if (!registered.contains(sensorId)) {
+            throw new IllegalArgumentException("Sensor " + sensorId + " is not registered");
+        }
+    }
+
+    private void enqueue(final int sensorId, final Task task) throws InterruptedException {
+        closeLock.readLock().lockInterruptibly();
+        try {
+            if (closed) {
+                throw new IllegalStateException("Compensation service is closed");
+            }
+            workers[shardOf(sensorId)].queue.put(task);
+        } finally {
+            closeLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the worker of a sensor. IDs are mixed first, so sequential IDs spread evenly.
+     */
+    int shardOf(final int sensorId) {
+        int hash = sensorId * 0x9E3779B9;
+        hash ^= hash >>> 16;
+        return (hash & 0x7FFFFFFF) % workers.length;
+    }
+
+    /**
+     * Stop accepting submissions, compensate the pending frames and wait for the workers to finish.
+     */
+    @Override
+    public void close() {
+        // Waits for submissions blocked on a full queue, the workers keep draining meanwhile.
+        closeLock.writeLock().lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        } finally {
+            closeLock.writeLock().unlock();
+        }
+        boolean interrupted = false;
+        for (final Worker worker : workers) {
+            while (true) {
+                try {
+                    worker.queue.put(SHUTDOWN);
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        for (final Worker worker : workers) {
+            while (worker.isAlive()) {
+                try {
+                    worker.join();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Calibration of a sensor with the fine temperature of its last frame.
+     */
+    private static final class Context {
+
+        private final Calibration calibration;
+        private int lastRawTemperature = -1;
+        private int lastTemperatureFine;
+
+        private Context(Calibration calibration) {
+            this.calibration = calibration;
+        }
+
+        private int temperatureFine(final int rawTemperature) {
+            if (rawTemperature != lastRawTemperature) {
+                lastTemperatureFine = Compensation.temperatureFine(rawTemperature, calibration.temperature);
+                lastRawTemperature = rawTemperature;
+            }
+            return lastTemperatureFine;
+        }
+    }
+
+    private static final class Task {
+
+        private final int sensorId;
+        private final Calibration calibration;
+        private final long[] timestamps;
+        private final int[] temperature;
+        private final int[] pressure;
+        private final int[] humidity;
+        private final int count;
+
+        private Task(int sensorId, Calibration calibration, long[] timestamps, int[] temperature, int[] pressure,
+            int[] humidity, int count) {
+            this.sensorId = sensorId;
+            this.calibration = calibration;
+            this.timestamps = timestamps;
+            this.temperature = temperature;
+            this.pressure = pressure;
+            this.humidity = humidity;
+            this.count = count;
+        }
+    }
+
+    private final class Worker extends Thread {
+
+        private final BlockingQueue<Task> queue;
+        // Only touched by this worker.
+        private final Map<Integer, Context> contexts = new HashMap<>();
+        // Written by this worker only, per worker to keep workers from contending on a shared counter.
+        private volatile long compensatedCount;
+
+        private Worker(int index, int queueCapacity) {
+            super("bme280-compensation-" + index);
+            setDaemon(true);
+            this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                final Task task;
+                try {
+                    task = queue.take();
+                } catch (InterruptedException e) {
+                    // Only close() stops a worker, pending frames must not be lost.
+                    continue;
+                }
+                if (task == SHUTDOWN) {
+                    return;
+                }
+                if (task.calibration != null) {
+                    contexts.put(task.sensorId, new Context(task.calibration));
+                    continue;
+                }
+                compensate(contexts.get(task.sensorId), task);
+            }
+        }
+
+        private void compensate(final Context context, final Task task) {
+            final int[] pressureCalibration = context.calibration.pressure;
+            final int[] humidityCalibration = context.calibration.humidity;
+            for (int i = 0; i < task.count; i++) {
+                final int temperatureFine = context.temperatureFine(task.temperature[i]);
+                final int rawHumidity = task.humidity[i];
+                try {
+                    listener.onCompensated(
+                        task.sensorId,
+                        task.timestamps[i],
+                        Compensation.temperature(temperatureFine),
+                        Compensation.pressure(task.pressure[i], pressureCalibration, temperatureFine),
+                        rawHumidity < 0 ? NO_HUMIDITY : Compensation.humidity(rawHumidity, humidityCalibration, temperatureFine)
+                    );
+                } catch (RuntimeException e) {
+                    // A failing frame must not drop the rest of the batch.
+                    LOGGER.log(Level.SEVERE, "Listener failed for sensor " + task.sensorId, e);
+                }
+            }
+            compensatedCount += task.count;
+        }
+    }
+}
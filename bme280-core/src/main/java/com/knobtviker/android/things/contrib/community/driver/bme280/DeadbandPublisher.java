@@ -0,0 +1,155 @@
+package com.knobtviker.android.things.contrib.community.driver.bme280;
+
+/**
+ * Publishes samples only when a channel moved past its deadband or when the heartbeat interval has passed.
+ * <p>
+ * Changes are measured against the last published sample, not the last offered one, so slow drifts are still
+ * published once they accumulate past the deadband. Comparisons are done on the fixed-point compensated values
+ * returned by {@link Compensation}:
+ * <ul>
+ * <li>temperature in hundredths of degrees Celsius</li>
+ * <li>pressure in Pa as unsigned 24.8 fixed-point</li>
+ * <li>humidity in percentage as unsigned 22.10 fixed-point</li>
+ * </ul>
+ * Instances are not thread safe.
+ */
+public class DeadbandPublisher {
+
+    /**
+     * Receives published samples.
+     */
+    public interface Listener {
+
+        /**
+         * Called for every published sample, with values in the fixed-point units of {@link Compensation}.
+         *
+         * @param timestamp   sample timestamp.
+         * @param temperature temperature in hundredths of degrees Celsius.
+         * @param pressure    pressure in Pa as unsigned 24.8 fixed-point.
+         * @param humidity    humidity in percentage as unsigned 22.10 fixed-point, or a negative value if not measured.
+         */
+        void onSample(long timestamp, int temperature, int pressure, int humidity);
+    }
+
+    private final Listener listener;
+    private final int temperatureDeadband;
+    private final int pressureDeadband;
+    private final int humidityDeadband;
+    private final long heartbeatInterval;
+
+    private boolean published;
+    private long lastTimestamp;
+    private int lastTemperature;
+    private int lastPressure;
+    private int lastHumidity;
+
+    private long offeredCount;
+    private long publishedCount;
+
+    /**
+     * Create a new publisher with deadbands of the sensor resolution.
+     *
+     * @param listener          receives published samples.
+     * @param heartbeatInterval maximum time between published samples, in the unit of the offered timestamps.
+     */
+    public DeadbandPublisher(Listener listener, long heartbeatInterval) {
+        this(listener, BME280Device.RESOLUTION_TEMP_C, BME280Device.RESOLUTION_PRESSURE_HPA, BME280Device.RESOLUTION_HUMIDITY_PERCENT, heartbeatInterval);
+    }
+
+    /**
+     * Create a new publisher.
+     *
+     * @param listener            receives published samples.
+     * @param temperatureDeadband minimum temperature change in degrees Celsius.
+     * @param pressureDeadband    minimum pressure change in hPa.
+     * @param humidityDeadband    minimum humidity change in percentage.
+     * @param heartbeatInterval   maximum time between published samples, in the unit of the offered timestamps.
+     */
+    public DeadbandPublisher(Listener listener, float temperatureDeadband, float pressureDeadband, float humidityDeadband,
+        long heartbeatInterval) {
+        if (temperatureDeadband < 0 || pressureDeadband < 0 || humidityDeadband < 0) {
+            throw new IllegalArgumentException("Deadbands must not be negative");
+        }
+        if (heartbeatInterval <= 0) {
+            throw new IllegalArgumentException("Heartbeat interval must be positive: " + heartbeatInterval);
+        }
+        this.listener = listener;
+        this.temperatureDeadband = fixedPoint(temperatureDeadband, Compensation.TEMPERATURE_SCALE);
+        this.pressureDeadband = fixedPoint(pressureDeadband, Compensation.PRESSURE_SCALE);
+        this.humidityDeadband = fixedPoint(humidityDeadband, Compensation.HUMIDITY_SCALE);
+        this.heartbeatInterval = heartbeatInterval;
+    }
+
+    private static int fixedPoint(final float deadband, final int scale) {
+        // A change is published when |delta| > deadband, which for integer deltas is |delta| > floor(deadband).
+        // Adding an ulp first keeps decimal deadbands like 0.01f, stored slightly below 0.01, from flooring one short.
+        return (int) Math.floor((deadband + (double) Math.ulp(deadband)) * scale);
+    }
+
+    /**
+     * Offer a sample in the fixed-point units of {@link Compensation}.
+     *
+     * @param timestamp   sample timestamp.
+     * @param temperature temperature in hundredths of degrees Celsius.
+     * @param pressure    pressure in Pa as unsigned 24.8 fixed-point.
+     * @param humidity    humidity in percentage as unsigned 22.10 fixed-point, or a negative value if not measured.
+     * @return true if the sample was published.
+     */
+    public boolean offer(final long timestamp, final int temperature, final int pressure, final int humidity) {
+        offeredCount++;
+        if (published
+            && timestamp - lastTimestamp < heartbeatInterval
+            && Math.abs(temperature - lastTemperature) <= temperatureDeadband
+            && Math.abs(pressure - lastPressure) <= pressureDeadband
+            && Math.abs(humidity - lastHumidity) <= humidityDeadband) {
+            return false;
+        }
+
+        published = true;
+        lastTimestamp = timestamp;
+        lastTemperature = temperature;
+        lastPressure = pressure;
+        lastHumidity = humidity;
+        publishedCount++;
+        listener.onSample(timestamp, temperature, pressure, humidity);
+        return true;
+    }
+
+    /**
+     * Offer a raw sample, e.g. from {@link BME280Device#readRawSample()}, compensating it to the exact fixed-point
+     * values.
+     *
+     * @param timestamp sample timestamp.
+     * @param sample    raw sample.
+     * @return true if the sample was published.
+     */
+    public boolean offer(final long timestamp, final RawSample sample) {
+        final Calibration calibration = sample.getCalibration();
+        final int temperatureFine = sample.getTemperatureFine();
+        return offer(timestamp,
+            Compensation.temperature(temperatureFine),
+            Compensation.pressure(sample.getRawPressure(), calibration.pressure, temperatureFine),
+            sample.getRawHumidity() < 0 ? -1 : Compensation.humidity(sample.getRawHumidity(), calibration.humidity, temperatureFine));
+    }
+
+    /**
+     * Forget the last published sample, so the next offered sample is published.
+     */
+    public void reset() {
+        published = false;
+    }
+
+    /**
+     * Returns the number of samples offered so far.
+     */
+    public long getOfferedCount() {
+        return offeredCount;
+    }
+
+    /**
+     * Returns the number of samples published so far.
+     */
+    public long getPublishedCount() {
+        return publishedCount;
+    }
+}
@@ -0,0 +1,316 @@
+package com.knobtviker.android.things.contrib.community.driver.bme280;
+
+import android.support.annotation.IntDef;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+
+/**
+ * Derives altitude, sea level pressure, dew point and absolute humidity from compensated readings.
+ * <p>
+ * Coefficients depending on the reference pressure and station altitude are computed once when they are set.
+ * In {@link #PRECISION_FAST} the transcendental functions are replaced by linearly interpolated lookup tables
+ * shared by all instances, with the following maximum absolute errors against {@link #PRECISION_EXACT}
+ * inside the sensor operating range:
+ * <ul>
+ * <li>altitude: 0.02 m</li>
+ * <li>dew point: 0.02 degrees Celsius for humidity above 1%</li>
+ * <li>absolute humidity: 0.001 g/m<sup>3</sup></li>
+ * </ul>
+ * Sea level pressure is a single multiplication with a cached factor in both modes.
+ * Inputs outside the table ranges are evaluated exactly. Instances are not thread safe.
+ */
+public class DerivedQuantities {
+
+    /**
+     * Evaluation precision.
+     */
+    @Retention(RetentionPolicy.SOURCE)
+    @IntDef({PRECISION_EXACT, PRECISION_FAST})
+    public @interface Precision {
+    }
+
+    public static final int PRECISION_EXACT = 0;
+    public static final int PRECISION_FAST = 1;
+
+    /**
+     * Standard atmosphere pressure at sea level in hPa.
+     */
+    public static final float STANDARD_SEA_LEVEL_PRESSURE_HPA = 1013.25f;
+
+    /**
+     * Index of the altitude in meters in the array returned by {@link #evaluate(float[], float[])}.
+     */
+    public static final int INDEX_ALTITUDE = 0;
+    /**
+     * Index of the sea level pressure in hPa in the array returned by {@link #evaluate(float[], float[])}.
+     */
+    public static final int INDEX_SEA_LEVEL_PRESSURE = 1;
+    /**
+     * Index of the dew point in degrees Celsius in the array returned by {@link #evaluate(float[], float[])}.
+     */
+    public static final int INDEX_DEW_POINT = 2;
+    /**
+     * Index of the absolute humidity in g/m<sup>3</sup> in the array returned by {@link #evaluate(float[], float[])}.
+     */
+    public static final int INDEX_ABSOLUTE_HUMIDITY = 3;
+
+    // International barometric formula
+    private static final double ALTITUDE_SCALE_M = 44330.0;
+    private static final double ALTITUDE_EXPONENT = 1.0 / 5.255;
+    private static final double SEA_LEVEL_EXPONENT = -5.255;
+
+    // Magnus formula constants over water (Sonntag 1990)
+    private static final double MAGNUS_A_HPA = 6.112;
+    private static final double MAGNUS_B = 17.62;
+    private static final double MAGNUS_C = 243.12;
+    // Molar mass of water divided by the universal gas constant, scaled for hPa and g/m3
+    private static final double ABSOLUTE_HUMIDITY_SCALE = 216.7;
+    private static final double KELVIN_OFFSET = 273.15;
+
+    // Pressure ratio table, p / p0 in [0.25, 1.25]
+    private static final float RATIO_MIN = 0.25f;
+    private static final float RATIO_MAX = 1.25f;
+    private static final int RATIO_STEPS = 1024;
+    private static final float RATIO_SCALE = RATIO_STEPS / (RATIO_MAX - RATIO_MIN);
+    private static final float[] ALTITUDE_TABLE = new float[RATIO_STEPS + 1];
+
+    // Natural logarithm of relative humidity table, RH in [1, 100] %
+    private static final float HUMIDITY_MIN = 1f;
+    private static final float HUMIDITY_MAX = 100f;
+    private static final int HUMIDITY_STEPS = 990;
+    private static final float HUMIDITY_SCALE = HUMIDITY_STEPS / (HUMIDITY_MAX - HUMIDITY_MIN);
+    private static final float[] LOG_HUMIDITY_TABLE = new float[HUMIDITY_STEPS + 1];
+
+    // Saturation vapour pressure table, T in [-40, 85] degrees Celsius
+    private static final float TEMPERATURE_MIN = BME280Device.MIN_TEMP_C;
+    private static final float TEMPERATURE_MAX = BME280Device.MAX_TEMP_C;
+    private static final int TEMPERATURE_STEPS = 1000;
+    private static final float TEMPERATURE_SCALE = TEMPERATURE_STEPS / (TEMPERATURE_MAX - TEMPERATURE_MIN);
+    private static final float[] SATURATION_PRESSURE_TABLE = new float[TEMPERATURE_STEPS + 1];
+
+    static {
+        for (int i = 0; i <= RATIO_STEPS; i++) {
+            ALTITUDE_TABLE[i] = (float) exactAltitude(RATIO_MIN + i / (double) RATIO_SCALE);
+        }
+        for (int i = 0; i <= HUMIDITY_STEPS; i++) {
+            LOG_HUMIDITY_TABLE[i] = (float) Math.log((HUMIDITY_MIN + i / (double) HUMIDITY_SCALE) / 100.0);
+        }
+        for (int i = 0; i <= TEMPERATURE_STEPS; i++) {
+            SATURATION_PRESSURE_TABLE[i] = (float) exactSaturationPressure(TEMPERATURE_MIN + i / (double) TEMPERATURE_SCALE);
+        }
+    }
+
+    private final boolean fast;
+
+    private float referencePressure;
+    private float inverseReferencePressure;
+    private float stationAltitude;
+    private float seaLevelFactor;
+
+    /**
+     * Create a new derived quantities stage referenced to the standard sea level pressure and zero altitude.
+     *
+     * @param precision evaluation precision.
+     */
+    public DerivedQuantities(@Precision int precision) {
+        this(precision, STANDARD_SEA_LEVEL_PRESSURE_HPA, 0f);
+    }
+
+    /**
+     * Create a new derived quantities stage.
+     *
+     * @param precision         evaluation precision.
+     * @param referencePressure pressure in hPa at zero altitude, usually the local sea level pressure.
+     * @param stationAltitude   altitude of the sensor in meters, used to reduce pressure to sea level.
+     */
+    public DerivedQuantities(@Precision int precision, float referencePressure, float stationAltitude) {
+        if (precision != PRECISION_EXACT && precision != PRECISION_FAST) {
+            throw new IllegalArgumentException("Unknown precision " + precision);
+        }
+        this.fast = precision == PRECISION_FAST;
+        setReferencePressure(referencePressure);
+        setStationAltitude(stationAltitude);
+    }
+
+    /**
+     * Set the pressure at zero altitude used by {@link #altitude(float)}.
+     *
+     * @param referencePressure pressure in hPa.
+     */
+    public void setReferencePressure(float referencePressure) {
+        if (!(referencePressure > 0)) {
+            throw new IllegalArgumentException("Reference pressure must be positive: " + referencePressure);
+        }
+        this.referencePressure = referencePressure;
+        this.inverseReferencePressure = 1f / referencePressure;
+    }
+
+    public float getReferencePressure() {
+        return referencePressure;
+    }
+
+    /**
+     * Set the altitude of the sensor used by {@link #seaLevelPressure(float)}.
+     *
+     * @param stationAltitude altitude in meters.
+     */
+    public void setStationAltitude(float stationAltitude) {
+        this.stationAltitude = stationAltitude;
+        this.seaLevelFactor = (float) Math.pow(1.0 - stationAltitude / ALTITUDE_SCALE_M, SEA_LEVEL_EXPONENT);
+    }
+
+    public float getStationAltitude() {
+        return stationAltitude;
+    }
+
+    /**
+     * Calculate the altitude from pressure.
+     *
+     * @param pressure barometric pressure in hPa.
+     * @return altitude in meters relative to the reference pressure.
+     */
+    public float altitude(final float pressure) {
+        final float ratio = pressure * inverseReferencePressure;
+        if (fast && ratio >= RATIO_MIN && ratio <= RATIO_MAX) {
+            return interpolate(ALTITUDE_TABLE, (ratio - RATIO_MIN) * RATIO_SCALE);
+        }
+        return (float) exactAltitude(pressure / (double) referencePressure);
+    }
+
+    /**
+     * Reduce pressure at the station altitude to sea level.
+     *
+     * @param pressure barometric pressure in hPa.
+     * @return sea level pressure in hPa.
+     */
+    public float seaLevelPressure(final float pressure) {
+        return pressure * seaLevelFactor;
+    }
+
+    /**
+     * Calculate the dew point.
+     *
+     * @param temperature temperature in degrees Celsius.
+     * @param humidity    relative humidity percentage.
+     * @return dew point in degrees Celsius.
+     */
+    public float dewPoint(final float temperature, final float humidity) {
+        final double logHumidity;
+        if (fast && humidity >= HUMIDITY_MIN && humidity <= HUMIDITY_MAX) {
+            logHumidity = interpolate(LOG_HUMIDITY_TABLE, (humidity - HUMIDITY_MIN) * HUMIDITY_SCALE);
+        } else {
+            logHumidity = Math.log(humidity / 100.0);
+        }
+        final double gamma = logHumidity + MAGNUS_B * temperature / (MAGNUS_C + temperature);
+        return (float) (MAGNUS_C * gamma / (MAGNUS_B - gamma));
+    }
+
+    /**
+     * Calculate the absolute humidity.
+     *
+     * @param temperature temperature in degrees Celsius.
+     * @param humidity    relative humidity percentage.
+     * @return absolute humidity in g/m<sup>3</sup>.
+     */
+    public float absoluteHumidity(final float temperature, final float humidity) {
+        final double saturationPressure;
+        if (fast && temperature >= TEMPERATURE_MIN && temperature <= TEMPERATURE_MAX) {
+            saturationPressure = interpolate(SATURATION_PRESSURE_TABLE, (temperature - TEMPERATURE_MIN) * TEMPERATURE_SCALE);
+        } else {
+            saturationPressure = exactSaturationPressure(temperature);
+        }
+        return (float) (ABSOLUTE_HUMIDITY_SCALE * saturationPressure * humidity / 100.0 / (KELVIN_OFFSET + temperature));
+    }
+
+    /**
+     * Evaluate all derived quantities of a sample.
+     *
+     * @param sample  a 3-element array as returned by {@link BME280Device#readAll()}.
+     * @param derived a 4-element array the results are written to, indexed by the {@code INDEX_*} constants,
+     *                or null to allocate a new one.
+     * @return the derived quantities array.
+     */
+    public float[] evaluate(final float[] sample, float[] derived) {
+        if (derived == null) {
+            derived = new float[4];
+        }
+        final float temperature = sample[0];
+        final float humidity = sample[1];
+        final float pressure = sample[2];
+        derived[INDEX_ALTITUDE] = altitude(pressure);
+        derived[INDEX_SEA_LEVEL_PRESSURE] = seaLevelPressure(pressure);
+        derived[INDEX_DEW_POINT] = dewPoint(temperature, humidity);
+        derived[INDEX_ABSOLUTE_HUMIDITY] = absoluteHumidity(temperature, humidity);
+        return derived;
+    }
+
+    /**
+     * Calculate altitudes of a batch of pressures.
+     *
+     * @param pressures barometric pressures in hPa.
+     * @param altitudes altitudes in meters, may be the same array as pressures.
+     * @param count     number of values.
+     */
+    public void altitudes(final float[] pressures, final float[] altitudes, final int count) {
+        for (int i = 0; i < count; i++) {
+            altitudes[i] = altitude(pressures[i]);
+        }
+    }
+
+    /**
+     * Reduce a batch of pressures to sea level.
+     *
+     * @param pressures          barometric pressures in hPa.
+     * @param seaLevelPressures sea level pressures in hPa, may be the same array as pressures.
+     * @param count              number of values.
+     */
+    public void seaLevelPressures(final float[] pressures, final float[] seaLevelPressures, final int count) {
+        final float factor = seaLevelFactor;
+        for (int i = 0; i < count; i++) {
+            seaLevelPressures[i] = pressures[i] * factor;
+        }
+    }
+
+    /**
+     * Calculate dew points of a batch of readings.
+     *
+     * @param temperatures temperatures in degrees Celsius.
+     * @param humidities   relative humidity percentages.
+     * @param dewPoints    dew points in degrees Celsius, may be the same array as one of the inputs.
+     * @param count        number of values.
+     */
+    public void dewPoints(final float[] temperatures, final float[] humidities, final float[] dewPoints, final int count) {
+        for (int i = 0; i < count; i++) {
+            dewPoints[i] = dewPoint(temperatures[i], humidities[i]);
+        }
+    }
+
+    /**
+     * Calculate absolute humidities of a batch of readings.
+     *
+     * @param temperatures temperatures in degrees Celsius.
+     * @param humidities   relative humidity percentages.
+     * @param absolute     absolute humidities in g/m<sup>3</sup>, may be the same array as one of the inputs.
+     * @param count        number of values.
+     */
+    public void absoluteHumidities(final float[] temperatures, final float[] humidities, final float[] absolute, final int count) {
+        for (int i = 0; i < count; i++) {
+            absolute[i] = absoluteHumidity(temperatures[i], humidities[i]);
+        }
+    }
+
+    private static float interpolate(final float[] table, final float position) {
+        final int index = Math.min((int) position, table.length - 2);
+        final float fraction = position - index;
+        return table[index] + (table[index + 1] - table[index]) * fraction;
+    }
+
+    private static double exactAltitude(final double ratio) {
+        return ALTITUDE_SCALE_M * (1.0 - Math.pow(ratio, ALTITUDE_EXPONENT));
+    }
+
+    private static double exactSaturationPressure(final double temperature) {
+        return MAGNUS_A_HPA * Math.exp(MAGNUS_B * temperature / (MAGNUS_C + temperature));
+    }
+}
@@ -0,0 +1,145 @@
+package com.knobtviker.android.things.contrib.community.driver.bme280;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Forced mode sampling of many sensors in one conversion time.
+ * <p>
+ * Calling {@link BME280Device#takeForcedMeasurement()} on every sensor in turn costs one conversion per sensor.
+ * A cycle of the fleet instead triggers the forced conversions of all sensors back to back, sleeps once until
+ * the longest datasheet maximum conversion time of the triggered sensors has passed and then burst reads them
+ * all, so the cycle time stays close to a single conversion.
+ * <p>
+ * The bus locks of all sensors are held for the whole cycle, acquired in a global order so that fleets sharing
+ * sensors can't deadlock. A sensor failing with an {@link IOException} or a runtime exception, such as a closed
+ * sensor, doesn't fail the cycle, its result is null and the exception is available from {@link #getFailure(int)}.
+ * Every triggered sensor is read and resumes its mode, whatever happened to the others. Cycles are serialized,
+ * results and failures are those of the last cycle.
+ */
+public final class ForcedSamplingFleet {
+
+    private final BME280Device[] devices;
+    private final BME280Device[] lockOrder;
+
+    private final SamplingConfig[] configs;
+    private final float[][] results;
+    private final Exception[] failures;
+
+    private long lastCycleNanos;
+    private long lastWaitNanos;
+
+    /**
+     * Create a fleet.
+     *
+     * @param devices sensors sampled in each cycle, results are in the same order.
+     */
+    public ForcedSamplingFleet(List<? extends BME280Device> devices) {
+        this.devices = devices.toArray(new BME280Device[devices.size()]);
+        this.lockOrder = this.devices.clone();
+        Arrays.sort(lockOrder, new Comparator<BME280Device>() {
+            @Override
+            public int compare(BME280Device a, BME280Device b) {
+                return a.sequence < b.sequence ? -1 : a.sequence == b.sequence ? 0 : 1;
+            }
+        });
+        for (int i = 1; i < lockOrder.length; i++) {
+            if (lockOrder[i] == lockOrder[i - 1]) {
+                throw new IllegalArgumentException("Sensor added to the fleet twice");
+            }
+        }
+        this.configs = new SamplingConfig[this.devices.length];
+        this.results = new float[this.devices.length][];
+        this.failures = new Exception[this.devices.length];
+    }
+
+    /**
+     * Returns the number of sensors.
+     */
+    public int size() {
+        return devices.length;
+    }
+
+    /**
+     * Take a forced measurement of every sensor.
+     *
+     * @return per sensor a 3-element array as returned by {@link BME280Device#readAll()}, or null if it failed.
+     */
+    public synchronized float[][] sample() {
+        final long start = System.nanoTime();
+        lockAndSample(0);
+        lastCycleNanos = System.nanoTime() - start;
+        return results.clone();
+    }
+
+    private void lockAndSample(final int index) {
+        if (index < lockOrder.length) {
+            synchronized (lockOrder[index].getBusLock()) {
+                lockAndSample(index + 1);
+            }
+            return;
+        }
+
+        for (int i = 0; i < devices.length; i++) {
+            results[i] = null;
+            failures[i] = null;
+            configs[i] = null;
+        }
+        long deadline = System.nanoTime();
+        try {
+            for (int i = 0; i < devices.length; i++) {
+                try {
+                    final SamplingConfig config = devices[i].startForcedConversion();
+                    configs[i] = config;
+                    final long end = System.nanoTime() + config.withMode(BME280Device.MODE_FORCED).getMeasurementTimeMaxMicros() * 1000L;
+                    if (end - deadline > 0) {
+                        deadline = end;
+                    }
+                } catch (IOException | RuntimeException e) {
+                    failures[i] = e;
+                }
+            }
+        } finally {
+            // Sensors already switched to forced mode must be read and resumed even if triggering failed.
+            final long waitStart = System.nanoTime();
+            BME280Device.sleepUntil(deadline);
+            lastWaitNanos = System.nanoTime() - waitStart;
+
+            for (int i = 0; i < devices.length; i++) {
+                if (configs[i] == null) {
+                    continue;
+                }
+                try {
+                    results[i] = devices[i].finishForcedConversion(configs[i]);
+                } catch (IOException | RuntimeException e) {
+                    failures[i] = e;
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the failure of a sensor in the last cycle, or null if it was sampled.
+     *
+     * @param index index of the sensor.
+     */
+    public synchronized Exception getFailure(int index) {
+        return failures[index];
+    }
+
+    /**
+     * Returns the duration of the last cycle in nanoseconds.
+     */
+    public synchronized long getLastCycleNanos() {
+        return lastCycleNanos;
+    }
+
+    /**
+     * Returns the time the last cycle slept waiting for conversions in nanoseconds.
+     */
+    public synchronized long getLastWaitNanos() {
+        return lastWaitNanos;
+    }
+}
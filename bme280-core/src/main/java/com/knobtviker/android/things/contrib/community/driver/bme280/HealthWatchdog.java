@@ -0,0 +1,216 @@
+package com.knobtviker.android.things.contrib.community.driver.bme280;
+
+import android.support.annotation.IntDef;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+
+/**
+ * Detects sensors that silently returned to their power-on state, for example after a brown-out.
+ * <p>
+ * The watchdog inspects every raw sample read by {@link BME280Device} for the data register reset values and for
+ * frozen readings, and periodically asks the driver to verify the chip ID and the control register against
+ * its shadow copy. On detection the driver rewrites only the shadowed configuration registers, keeping the
+ * cached calibration, instead of the full soft reset and calibration readout of a new connection.
+ * <p>
+ * Reset value detection is armed by the first valid sample after each (re)configuration, so conversions still
+ * pending after a configuration change are not mistaken for a reset. Instances are not thread safe and must
+ * not be shared between sensors.
+ */
+public class HealthWatchdog {
+
+    /**
+     * Health status.
+     */
+    @Retention(RetentionPolicy.SOURCE)
+    @IntDef({STATUS_HEALTHY, STATUS_RESET_VALUE, STATUS_FROZEN, STATUS_CONFIG_LOST, STATUS_CHIP_ID_MISMATCH, STATUS_VERIFY})
+    public @interface Status {
+    }
+
+    public static final int STATUS_HEALTHY = 0;
+    /**
+     * A data register holds its power-on reset value.
+     */
+    public static final int STATUS_RESET_VALUE = 1;
+    /**
+     * Raw values did not change for the configured number of consecutive samples.
+     */
+    public static final int STATUS_FROZEN = 2;
+    /**
+     * The control register does not match the last written configuration.
+     */
+    public static final int STATUS_CONFIG_LOST = 3;
+    /**
+     * The chip ID does not match the one read on connection.
+     */
+    public static final int STATUS_CHIP_ID_MISMATCH = 4;
+    /**
+     * The sample looks healthy, but the registers are due for verification.
+     */
+    public static final int STATUS_VERIFY = 5;
+
+    /**
+     * Marks a channel that was not read with the sample.
+     */
+    public static final int NOT_READ = -1;
+
+    static final int RESET_VALUE_20_BIT = 0x80000;
+    static final int RESET_VALUE_16_BIT = 0x8000;
+
+    private final int frozenThreshold;
+    private final int verifyInterval;
+
+    private boolean armed;
+    private int lastTemperature = NOT_READ;
+    private int lastPressure = NOT_READ;
+    private int lastHumidity = NOT_READ;
+    private int unchangedCount;
+    private int samplesSinceVerify;
+
+    private long resetValueCount;
+    private long frozenCount;
+    private long configLostCount;
+    private long chipIdMismatchCount;
+    private long recoveryCount;
+    private long lastRecoveryNanos;
+
+    /**
+     * Create a new watchdog.
+     *
+     * @param frozenThreshold number of consecutive identical samples considered frozen. Polling faster than the
+     *                        output data rate returns identical samples, so this must exceed the ratio of the
+     *                        polling rate to the output data rate.
+     * @param verifyInterval  number of samples between register verifications, or 0 to never verify.
+     */
+    public HealthWatchdog(int frozenThreshold, int verifyInterval) {
+        if (frozenThreshold < 2) {
+            throw new IllegalArgumentException("Frozen threshold must be at least 2: " + frozenThreshold);
+        }
+        if (verifyInterval < 0) {
+            throw new IllegalArgumentException("Verify interval must not be negative: " + verifyInterval);
+        }
+        this.frozenThreshold = frozenThreshold;
+        this.verifyInterval = verifyInterval;
+    }
+
+    /**
+     * Inspect a raw sample.
+     *
+     * @param rawTemperature 20-bit raw temperature or {@link #NOT_READ}.
+     * @param rawPressure    20-bit raw pressure or {@link #NOT_READ}.
+     * @param rawHumidity    16-bit raw humidity or {@link #NOT_READ}.
+     * @return health status.
+     */
+    @Status
+    int onSample(final int rawTemperature, final int rawPressure, final int rawHumidity) {
+        if (rawTemperature == RESET_VALUE_20_BIT || rawPressure == RESET_VALUE_20_BIT || rawHumidity == RESET_VALUE_16_BIT) {
+            if (armed) {
+                resetValueCount++;
+                return STATUS_RESET_VALUE;
+            }
+            return STATUS_HEALTHY;
+        }
+        armed = true;
+
+        if (rawTemperature == lastTemperature && rawPressure == lastPressure && rawHumidity == lastHumidity) {
+            if (++unchangedCount >= frozenThreshold - 1) {
+                frozenCount++;
+                unchangedCount = 0;
+                return STATUS_FROZEN;
+            }
+        } else {
+            unchangedCount = 0;
+            lastTemperature = rawTemperature;
+            lastPressure = rawPressure;
+            lastHumidity = rawHumidity;
+        }
+
+        if (verifyInterval > 0 && ++samplesSinceVerify >= verifyInterval) {
+            samplesSinceVerify = 0;
+            return STATUS_VERIFY;
+        }
+        return STATUS_HEALTHY;
+    }
+
+    /**
+     * Inspect the verified registers.
+     *
+     * @param chipIdMatches true if the chip ID matches the one read on connection.
+     * @param configMatches true if the control register matches the last written configuration.
+     * @return health status.
+     */
+    @Status
+    int onVerify(final boolean chipIdMatches, final boolean configMatches) {
+        if (!chipIdMatches) {
+            chipIdMismatchCount++;
+            return STATUS_CHIP_ID_MISMATCH;
+        }
+        if (!configMatches) {
+            configLostCount++;
+            return STATUS_CONFIG_LOST;
+        }
+        return STATUS_HEALTHY;
+    }
+
+    /**
+     * Called after the configuration registers have been rewritten.
+     *
+     * @param downtimeNanos time spent recovering.
+     */
+    void onRecovered(final long downtimeNanos) {
+        recoveryCount++;
+        lastRecoveryNanos = downtimeNanos;
+        onReconfigured();
+    }
+
+    /**
+     * Called after the sampling configuration changed.
+     */
+    void onReconfigured() {
+        armed = false;
+        unchangedCount = 0;
+        lastTemperature = lastPressure = lastHumidity = NOT_READ;
+    }
+
+    /**
+     * Returns the number of samples holding data register reset values.
+     */
+    public long getResetValueCount() {
+        return resetValueCount;
+    }
+
+    /**
+     * Returns the number of detected frozen readings.
+     */
+    public long getFrozenCount() {
+        return frozenCount;
+    }
+
+    /**
+     * Returns the number of verifications that found the control register reset.
+     */
+    public long getConfigLostCount() {
+        return configLostCount;
+    }
+
+    /**
+     * Returns the number of verifications that found a different chip ID.
+     */
+    public long getChipIdMismatchCount() {
+        return chipIdMismatchCount;
+    }
+
+    /**
+     * Returns the number of recoveries.
+     */
+    public long getRecoveryCount() {
+        return recoveryCount;
+    }
+
+    /**
+     * Returns the time spent by the last recovery in nanoseconds.
+     */
+    public long getLastRecoveryNanos() {
+        return lastRecoveryNanos;
+    }
+}
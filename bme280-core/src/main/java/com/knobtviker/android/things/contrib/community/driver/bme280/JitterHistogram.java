@@ -0,0 +1,163 @@
+package com.knobtviker.android.things.contrib.community.driver.bme280;
+
+import java.util.Arrays;
+
+/**
+ * Fixed-bucket histogram of the deviation of sample intervals from the expected sampling period.
+ * <p>
+ * {@link BME280Device} records the burst start timestamp of every full sample and sets the expected period to the
+ * output data rate of each normal mode configuration. Forced mode has no output data rate, set the polling period
+ * with {@link #setExpectedPeriodNanos(long)} instead. The interval spanning a configuration change is not recorded.
+ * <p>
+ * Buckets have a fixed width and are centered on zero: bucket {@code size() / 2} holds deviations from 0 up
+ * to the bucket width, lower buckets early samples and higher buckets late ones. The first and last buckets
+ * also collect all deviations beyond the range. Recording doesn't allocate. Instances are thread safe.
+ */
+public final class JitterHistogram {
+
+    private final long bucketWidthNanos;
+    private final long[] counts;
+
+    private long expectedPeriodNanos;
+    private long previousNanos;
+    private boolean hasPrevious;
+
+    private long count;
+    private long sumNanos;
+    private long maxAbsNanos;
+
+    /**
+     * Create a new histogram.
+     *
+     * @param bucketWidthNanos width of each bucket in nanoseconds.
+     * @param bucketCount      number of buckets, including the two open-ended ones.
+     */
+    public JitterHistogram(long bucketWidthNanos, int bucketCount) {
+        if (bucketWidthNanos <= 0) {
+            throw new IllegalArgumentException("Bucket width must be positive: " + bucketWidthNanos);
+        }
+        if (bucketCount < 2) {
+            throw new IllegalArgumentException("At least 2 buckets are required: " + bucketCount);
+        }
+        this.bucketWidthNanos = bucketWidthNanos;
+        this.counts = new long[bucketCount];
+    }
+
+    /**
+     * Set the expected interval between samples, or 0 if it is unknown and intervals aren't recorded.
+     * The next interval is not recorded.
+     *
+     * @param periodNanos expected sampling period in nanoseconds.
+     */
+    public synchronized void setExpectedPeriodNanos(long periodNanos) {
+        expectedPeriodNanos = periodNanos;
+        hasPrevious = false;
+    }
+
+    public synchronized long getExpectedPeriodNanos() {
+        return expectedPeriodNanos;
+    }
+
+    /**
+     * Expect the output data rate of a new configuration on the given sensor variant. The period is kept outside
+     * normal mode.
+     */
+    synchronized void onReconfigured(final SamplingConfig config, final ChipProfile chip) {
+        if (config.getMode() == BME280Device.MODE_NORMAL) {
+            expectedPeriodNanos = config.getConversionPeriodNanos(chip);
+        }
+        hasPrevious = false;
+    }
+
+    /**
+     * Record a sample timestamp.
+     *
+     * @param timestampNanos monotonic timestamp of the sample, from {@link System#nanoTime()}.
+     */
+    public synchronized void record(long timestampNanos) {
+        if (hasPrevious && expectedPeriodNanos > 0) {
+            final long deviation = timestampNanos - previousNanos - expectedPeriodNanos;
+            counts[bucketOf(deviation)]++;
+            count++;
+            sumNanos += deviation;
+            maxAbsNanos = Math.max(maxAbsNanos, Math.abs(deviation));
+        }
+        previousNanos = timestampNanos;
+        hasPrevious = true;
+    }
+
+    private int bucketOf(final long deviation) {
+        final long bucket = floorDiv(deviation, bucketWidthNanos) + counts.length / 2;
+        return (int) Math.max(0, Math.min(counts.length - 1, bucket));
+    }
+
+    // Math.floorDiv is Java 8.
+    private static long floorDiv(final long dividend, final long divisor) {
+        final long quotient = dividend / divisor;
+        return (dividend % divisor != 0 && (dividend < 0) != (divisor < 0)) ? quotient - 1 : quotient;
+    }
+
+    /**
+     * Returns the number of buckets.
+     */
+    public int size() {
+        return counts.length;
+    }
+
+    /**
+     * Returns the lower bound of the deviation of a bucket in nanoseconds. The first bucket is open-ended.
+     *
+     * @param bucket bucket index.
+     */
+    public long getBucketLowerBoundNanos(int bucket) {
+        return (bucket - counts.length / 2) * bucketWidthNanos;
+    }
+
+    /**
+     * Returns the number of intervals recorded in a bucket.
+     *
+     * @param bucket bucket index.
+     */
+    public synchronized long get(int bucket) {
+        return counts[bucket];
+    }
+
+    /**
+     * Returns a copy of the counts of all buckets.
+     */
+    public synchronized long[] getCounts() {
+        return counts.clone();
+    }
+
+    /**
+     * Returns the number of recorded intervals.
+     */
+    public synchronized long getCount() {
+        return count;
+    }
+
+    /**
+     * Returns the mean deviation from the expected period in nanoseconds, positive if samples are late on average.
+     */
+    public synchronized double getMeanDeviationNanos() {
+        return count == 0 ? 0 : sumNanos / (double) count;
+    }
+
+    /**
+     * Returns the largest absolute deviation from the expected period in nanoseconds.
+     */
+    public synchronized long getMaxAbsDeviationNanos() {
+        return maxAbsNanos;
+    }
+
+    /**
+     * Clear all counts, keeping the expected period.
+     */
+    public synchronized void reset() {
+        Arrays.fill(counts, 0);
+        count = 0;
+        sumNanos = 0;
+        maxAbsNanos = 0;
+        hasPrevious = false;
+    }
+}
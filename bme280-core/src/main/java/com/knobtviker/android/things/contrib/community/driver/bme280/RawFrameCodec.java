@@ -0,0 +1,216 @@
+package com.knobtviker.android.things.contrib.community.driver.bme280;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Compact binary codec for shipping raw frames in batches over {@link ByteBuffer}s.
+ * <p>
+ * A session starts with a header carrying the calibration once, followed by any number of batches:
+ * <pre>
+ *     header:
+ *         int   magic 'BMEB'
+ *         short format version
+ *         short reserved
+ *         int[18] calibration (temperature[3], pressure[9], humidity[6])
+ *     batch:
+ *         varint frame count
+ *         frames...
+ *     frame:
+ *         zig-zag varlong timestamp delta to the previous frame of the batch, or the timestamp of the first frame
+ *         long  press[19:0] 0000 temp[19:0] 000n hum[15:0]
+ * </pre>
+ * The 8-byte frame has the layout of the burst read of the data registers, 20-bit pressure and temperature
+ * with their low nibble padding followed by 16-bit humidity, so a frame costs 9 bytes at regular sampling
+ * intervals. The lowest padding bit n, always clear in a register read, marks a frame without humidity such as
+ * from a BMP280, it is decoded as a humidity of {@link HealthWatchdog#NOT_READ}. Batches are self-contained and can be decoded in any order once the header is known.
+ * <p>
+ * Values are decoded straight into the primitive arrays of a reusable {@link Batch} and can be compensated
+ * with {@link Compensation} on the receiving side. Buffers are read and written at their current position in
+ * big-endian order. The codec is stateless and thread safe.
+ */
+public final class RawFrameCodec {
+
+    static final int MAGIC = 0x424D4542;
+    static final short VERSION = 1;
+
+    /**
+     * Size in bytes of the session header.
+     */
+    public static final int HEADER_SIZE = 4 + 2 + 2 + RawFrames.CALIBRATION_SIZE;
+
+    /**
+     * Size in bytes of a frame without its timestamp.
+     */
+    public static final int FRAME_SIZE = 8;
+
+    // Lowest bit of the temperature padding nibble.
+    private static final long NO_HUMIDITY = 1L << 16;
+
+    private static final int MIN_ENCODED_FRAME_SIZE = 1 + FRAME_SIZE;
+    private static final int MAX_ENCODED_FRAME_SIZE = RawFrames.MAX_VARLONG_SIZE + FRAME_SIZE;
+
+    private RawFrameCodec() {
+    }
+
+    /**
+     * Decoded frames of a batch. Arrays are reused and grown as needed, only the first {@link #size()} entries
+     * are valid.
+     */
+    public static final class Batch {
+
+        public long[] timestamps;
+        public int[] temperature;
+        public int[] pressure;
+        public int[] humidity;
+
+        private int size;
+
+        public Batch() {
+            this(256);
+        }
+
+        public Batch(int capacity) {
+            timestamps = new long[capacity];
+            temperature = new int[capacity];
+            pressure = new int[capacity];
+            humidity = new int[capacity];
+        }
+
+        /**
+         * Returns the number of decoded frames.
+         */
+        public int size() {
+            return size;
+        }
+
+        void ensureCapacity(final int capacity) {
+            if (timestamps.length < capacity) {
+                final int grown = Math.max(capacity, timestamps.length + (timestamps.length >> 1));
+                timestamps = new long[grown];
+                temperature = new int[grown];
+                pressure = new int[grown];
+                humidity = new int[grown];
+            }
+        }
+    }
+
+    /**
+     * Returns the maximum size in bytes of an encoded batch.
+     *
+     * @param frameCount number of frames in the batch.
+     */
+    public static int maxBatchSize(int frameCount) {
+        return RawFrames.MAX_VARINT_SIZE + frameCount * MAX_ENCODED_FRAME_SIZE;
+    }
+
+    /**
+     * Write the session header.
+     *
+     * @param buffer      destination buffer with at least {@link #HEADER_SIZE} bytes remaining.
+     * @param calibration calibration of the sensor the frames are read from.
+     */
+    public static void putHeader(ByteBuffer buffer, Calibration calibration) {
+        buffer.putInt(MAGIC);
+        buffer.putShort(VERSION);
+        buffer.putShort((short) 0);
+        RawFrames.putCalibration(buffer, calibration);
+    }
+
+    /**
+     * Read the session header.
+     *
+     * @param buffer source buffer.
+     * @return calibration of the sensor the frames were read from.
+     * @throws IllegalArgumentException if the buffer doesn't start with a supported header.
+     */
+    public static Calibration getHeader(ByteBuffer buffer) {
+        if (buffer.getInt() != MAGIC) {
+            throw new IllegalArgumentException("Not a raw frame session");
+        }
+        final short version = buffer.getShort();
+        if (version != VERSION) {
+            throw new IllegalArgumentException("Unsupported raw frame session version " + version);
+        }
+        buffer.getShort();
+        return RawFrames.getCalibration(buffer);
+    }
+
+    /**
+     * Write a batch of frames.
+     *
+     * @param buffer      destination buffer with at least {@link #maxBatchSize(int)} bytes remaining.
+     * @param timestamps  timestamps of the frames.
+     * @param temperature raw 20-bit temperatures.
+     * @param pressure    raw 20-bit pressures.
+     * @param humidity    raw 16-bit humidities, or negative values for frames without humidity.
+     * @param offset      index of the first frame in the arrays.
+     * @param count       number of frames.
+     */
+    public static void putBatch(ByteBuffer buffer, long[] timestamps, int[] temperature, int[] pressure, int[] humidity,
+        int offset, int count) {
+        RawFrames.putVarInt(buffer, count);
+        long previous = 0;
+        for (int i = offset; i < offset + count; i++) {
+            RawFrames.putVarLong(buffer, RawFrames.zigZag(timestamps[i] - previous));
+            previous = timestamps[i];
+            buffer.putLong(frame(temperature[i], pressure[i], humidity[i]));
+        }
+    }
+
+    /**
+     * Write a batch of frames from burst reads of the data registers 0xF7 to 0xFE, without decoding them. Frames
+     * of a sensor without humidity need the lowest bit of their temperature xlsb byte set, see the frame layout.
+     *
+     * @param buffer     destination buffer with at least {@link #maxBatchSize(int)} bytes remaining.
+     * @param timestamps timestamps of the frames.
+     * @param bursts     {@link #FRAME_SIZE} register bytes per frame.
+     * @param offset     index of the first frame.
+     * @param count      number of frames.
+     */
+    public static void putBatch(ByteBuffer buffer, long[] timestamps, byte[] bursts, int offset, int count) {
+        RawFrames.putVarInt(buffer, count);
+        long previous = 0;
+        for (int i = offset; i < offset + count; i++) {
+            RawFrames.putVarLong(buffer, RawFrames.zigZag(timestamps[i] - previous));
+            previous = timestamps[i];
+            buffer.put(bursts, i * FRAME_SIZE, FRAME_SIZE);
+        }
+    }
+
+    /**
+     * Read a batch of frames.
+     *
+     * @param buffer source buffer.
+     * @param batch  batch to decode into, its previous content is replaced.
+     * @return the number of decoded frames.
+     * @throws IllegalArgumentException if the batch is malformed.
+     */
+    public static int getBatch(ByteBuffer buffer, Batch batch) {
+        final int count = RawFrames.getVarInt(buffer);
+        if (count < 0 || count > buffer.remaining() / MIN_ENCODED_FRAME_SIZE) {
+            throw new IllegalArgumentException("Malformed batch of " + count + " frames");
+        }
+        batch.ensureCapacity(count);
+        final long[] timestamps = batch.timestamps;
+        final int[] temperature = batch.temperature;
+        final int[] pressure = batch.pressure;
+        final int[] humidity = batch.humidity;
+
+        long timestamp = 0;
+        for (int i = 0; i < count; i++) {
+            timestamp += RawFrames.unZigZag(RawFrames.getVarLong(buffer));
+            timestamps[i] = timestamp;
+            final long frame = buffer.getLong();
+            pressure[i] = (int) (frame >>> 44) & 0xFFFFF;
+            temperature[i] = (int) (frame >>> 20) & 0xFFFFF;
+            humidity[i] = (frame & NO_HUMIDITY) != 0 ? HealthWatchdog.NOT_READ : (int) frame & 0xFFFF;
+        }
+        batch.size = count;
+        return count;
+    }
+
+    private static long frame(final int temperature, final int pressure, final int humidity) {
+        return (long) (pressure & 0xFFFFF) << 44 | (long) (temperature & 0xFFFFF) << 20
+            | (humidity < 0 ? NO_HUMIDITY : humidity & 0xFFFF);
+    }
+}
@@ -0,0 +1,208 @@
+package com.knobtviker.android.things.contrib.community.driver.bme280;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Sequential reader for binary raw frame logs written by {@link RawFrameLogWriter}.
+ * <p>
+ * Frames are decoded straight from read-only memory mapped regions of the file, without intermediate copies
+ * or per-frame allocations. Call {@link #next()} to advance and the getters to access the current frame.
+ * Instances are not thread safe.
+ */
+public class RawFrameLogReader implements AutoCloseable {
+
+    private static final int DEFAULT_REGION_SIZE = 1 << 24;
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final long fileSize;
+    private final int regionSize;
+    private final Calibration calibration;
+
+    private MappedByteBuffer buffer;
+    private long regionPosition;
+    private boolean finished;
+
+    private long timestamp;
+    private int rawTemperature;
+    private int rawPressure;
+    private int rawHumidity;
+    private long frameCount;
+
+    /**
+     * Open a log file and read its calibration header.
+     *
+     * @param file log file.
+     * @throws IOException if the file can't be read or is not a raw frame log.
+     */
+    public RawFrameLogReader(File file) throws IOException {
+        this(file, DEFAULT_REGION_SIZE);
+    }
+
+    /**
+     * Open a log file and read its calibration header.
+     *
+     * @param file       log file.
+     * @param regionSize size in bytes of each memory mapped region the file is read by.
+     * @throws IOException if the file can't be read or is not a raw frame log.
+     */
+    public RawFrameLogReader(File file, int regionSize) throws IOException {
+        if (regionSize < RawFrameLogWriter.HEADER_SIZE + RawFrameLogWriter.MAX_FRAME_SIZE) {
+            throw new IllegalArgumentException("Region size too small: " + regionSize);
+        }
+        this.regionSize = regionSize;
+        this.file = new RandomAccessFile(file, "r");
+        this.channel = this.file.getChannel();
+        try {
+            fileSize = channel.size();
+            if (fileSize < RawFrameLogWriter.HEADER_SIZE) {
+                throw new IOException("Not a raw frame log: " + file);
+            }
+            map(0);
+            if (buffer.getInt() != RawFrameLogWriter.MAGIC) {
+                throw new IOException("Not a raw frame log: " + file);
+            }
+            final short version = buffer.getShort();
+            if (version != RawFrameLogWriter.VERSION) {
+                throw new IOException("Unsupported raw frame log version " + version + ": " + file);
+            }
+            buffer.getShort();
+            calibration = RawFrames.getCalibration(buffer);
+        } catch (IOException | RuntimeException e) {
+            this.file.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the calibration of the sensor the frames were read from.
+     */
+    public Calibration getCalibration() {
+        return calibration;
+    }
+
+    /**
+     * Advance to the next frame.
+     *
+     * @return true if a frame was decoded, false if the end of the log has been reached.
+     * @throws IOException
+     * @throws IllegalArgumentException if the log ends within a frame.
+     */
+    public boolean next() throws IOException {
+        if (finished) {
+            return false;
+        }
+        if (buffer == null) {
+            throw new IllegalStateException("Raw frame log is closed");
+        }
+        if (buffer.remaining() < RawFrameLogWriter.MAX_FRAME_SIZE && regionPosition + buffer.limit() < fileSize) {
+            map(regionPosition + buffer.position());
+        }
+        if (!buffer.hasRemaining()) {
+            finished = true;
+            return false;
+        }
+
+        final int tag = buffer.get() & 0xff;
+        if ((tag & RawFrameLogWriter.TAG_FRAME) == 0) {
+            finished = true;
+            return false;
+        }
+
+        // Decoded into locals, a truncated frame leaves the current frame untouched.
+        final long frameStart = regionPosition + buffer.position() - 1;
+        final long frameTimestamp;
+        int frameTemperature = rawTemperature;
+        int framePressure = rawPressure;
+        int frameHumidity = rawHumidity;
+        try {
+            frameTimestamp = timestamp + RawFrames.unZigZag(RawFrames.getVarLong(buffer));
+            if ((tag & RawFrameLogWriter.TAG_TEMPERATURE) != 0) {
+                frameTemperature += RawFrames.unZigZag(RawFrames.getVarInt(buffer));
+            }
+            if ((tag & RawFrameLogWriter.TAG_PRESSURE) != 0) {
+                framePressure += RawFrames.unZigZag(RawFrames.getVarInt(buffer));
+            }
+            if ((tag & RawFrameLogWriter.TAG_HUMIDITY) != 0) {
+                frameHumidity += RawFrames.unZigZag(RawFrames.getVarInt(buffer));
+            }
+        } catch (BufferUnderflowException e) {
+            finished = true;
+            throw new IllegalArgumentException("Malformed raw frame log, frame at " + frameStart + " is truncated");
+        }
+        timestamp = frameTimestamp;
+        rawTemperature = frameTemperature;
+        rawPressure = framePressure;
+        rawHumidity = frameHumidity;
+        frameCount++;
+        return true;
+    }
+
+    /**
+     * Returns the timestamp of the current frame.
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * Returns the 20-bit raw temperature of the current frame.
+     */
+    public int getRawTemperature() {
+        return rawTemperature;
+    }
+
+    /**
+     * Returns the 20-bit raw pressure of the current frame.
+     */
+    public int getRawPressure() {
+        return rawPressure;
+    }
+
+    /**
+     * Returns the 16-bit raw humidity of the current frame.
+     */
+    public int getRawHumidity() {
+        return rawHumidity;
+    }
+
+    /**
+     * Returns the number of frames decoded so far.
+     */
+    public long getFrameCount() {
+        return frameCount;
+    }
+
+    /**
+     * Returns the number of log bytes consumed so far, including the header.
+     */
+    public long position() {
+        return buffer == null ? fileSize : regionPosition + buffer.position();
+    }
+
+    /**
+     * Returns the size of the log file in bytes.
+     */
+    public long size() {
+        return fileSize;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (buffer != null) {
+            buffer = null;
+            file.close();
+        }
+    }
+
+    private void map(final long position) throws IOException {
+        final long length = Math.min(regionSize, fileSize - position);
+        buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+        regionPosition = position;
+    }
+}
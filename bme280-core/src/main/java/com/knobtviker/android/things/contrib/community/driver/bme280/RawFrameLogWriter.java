@@ -0,0 +1,207 @@
+package com.knobtviker.android.things.contrib.community.driver.bme280;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Append-only writer for binary raw frame logs.
+ * <p>
+ * A log stores the calibration block once, followed by uncompensated 20/20/16-bit ADC frames.
+ * Raw frames are lossless and can be compensated later with {@link Compensation}, {@link ReplayEngine} or
+ * {@link CompensationService}.
+ * <p>
+ * File layout, all multi-byte header values are big-endian:
+ * <pre>
+ *     int   magic 'BMEL'
+ *     short format version
+ *     short reserved
+ *     int[18] calibration (temperature[3], pressure[9], humidity[6])
+ *     frames...
+ *     byte  0x00 end of frames
+ * </pre>
+ * Every frame starts with a tag byte with the highest bit set. Bits 0, 1 and 2 mark if the temperature,
+ * pressure and humidity values changed since the previous frame. The tag is followed by the zig-zag varint
+ * timestamp delta and the zig-zag varint deltas of the changed channels only, so a frame of a stable reading
+ * takes 2 to 3 bytes. The first frame is encoded against a timestamp and raw values of zero.
+ * <p>
+ * The file is written through memory mapped regions that are grown on demand and truncated to the written
+ * size on {@link #close()}. Instances are not thread safe.
+ */
+public class RawFrameLogWriter implements AutoCloseable {
+
+    static final int MAGIC = 0x424D454C;
+    static final short VERSION = 1;
+    static final int HEADER_SIZE = 4 + 2 + 2 + RawFrames.CALIBRATION_SIZE;
+
+    static final int TAG_FRAME = 0x80;
+    static final int TAG_TEMPERATURE = 0x01;
+    static final int TAG_PRESSURE = 0x02;
+    static final int TAG_HUMIDITY = 0x04;
+
+    static final int MAX_FRAME_SIZE = 1 + RawFrames.MAX_VARLONG_SIZE + 3 * RawFrames.MAX_VARINT_SIZE;
+
+    private static final int DEFAULT_REGION_SIZE = 1 << 20;
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final int regionSize;
+
+    private MappedByteBuffer buffer;
+    private long regionPosition;
+
+    private long lastTimestamp;
+    private int lastTemperature;
+    private int lastPressure;
+    private int lastHumidity;
+    private long frameCount;
+
+    /**
+     * Create a new log file, replacing any existing file, and write the calibration header.
+     *
+     * @param file        log file.
+     * @param calibration calibration of the sensor the frames are read from.
+     * @throws IOException
+     */
+    public RawFrameLogWriter(File file, Calibration calibration) throws IOException {
+        this(file, calibration, DEFAULT_REGION_SIZE);
+    }
+
+    /**
+     * Create a new log file, replacing any existing file, and write the calibration header.
+     *
+     * @param file        log file.
+     * @param calibration calibration of the sensor the frames are read from.
+     * @param regionSize  size in bytes of each memory mapped region the file grows by.
+     * @throws IOException
+     */
+    public RawFrameLogWriter(File file, Calibration calibration, int regionSize) throws IOException {
+        if (regionSize < HEADER_SIZE + MAX_FRAME_SIZE) {
+            throw new IllegalArgumentException("Region size too small: " + regionSize);
+        }
+        this.regionSize = regionSize;
+        this.file = new RandomAccessFile(file, "rw");
+        this.channel = this.file.getChannel();
+        try {
+            channel.truncate(0);
+            map(0);
+            buffer.putInt(MAGIC);
+            buffer.putShort(VERSION);
+            buffer.putShort((short) 0);
+            RawFrames.putCalibration(buffer, calibration);
+        } catch (IOException | RuntimeException e) {
+            this.file.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Append a raw frame.
+     *
+     * @param timestamp      frame timestamp, in any unit as long as it is consistent within the log.
+     * @param rawTemperature 20-bit raw temperature.
+     * @param rawPressure    20-bit raw pressure.
+     * @param rawHumidity    16-bit raw humidity.
+     * @throws IOException
+     */
+    public void append(final long timestamp, final int rawTemperature, final int rawPressure, final int rawHumidity) throws IOException {
+        if (buffer == null) {
+            throw new IllegalStateException("Raw frame log is closed");
+        }
+        if (buffer.remaining() < MAX_FRAME_SIZE + 1) {
+            map(regionPosition + buffer.position());
+        }
+
+        int tag = TAG_FRAME;
+        if (rawTemperature != lastTemperature) {
+            tag |= TAG_TEMPERATURE;
+        }
+        if (rawPressure != lastPressure) {
+            tag |= TAG_PRESSURE;
+        }
+        if (rawHumidity != lastHumidity) {
+            tag |= TAG_HUMIDITY;
+        }
+
+        buffer.put((byte) tag);
+        RawFrames.putVarLong(buffer, RawFrames.zigZag(timestamp - lastTimestamp));
+        if ((tag & TAG_TEMPERATURE) != 0) {
+            RawFrames.putVarInt(buffer, RawFrames.zigZag(rawTemperature - lastTemperature));
+        }
+        if ((tag & TAG_PRESSURE) != 0) {
+            RawFrames.putVarInt(buffer, RawFrames.zigZag(rawPressure - lastPressure));
+        }
+        if ((tag & TAG_HUMIDITY) != 0) {
+            RawFrames.putVarInt(buffer, RawFrames.zigZag(rawHumidity - lastHumidity));
+        }
+
+        lastTimestamp = timestamp;
+        lastTemperature = rawTemperature;
+        lastPressure = rawPressure;
+        lastHumidity = rawHumidity;
+        frameCount++;
+    }
+
+    /**
+     * Append a raw sample.
+     *
+     * @param timestamp frame timestamp, in any unit as long as it is consistent within the log.
+     * @param sample    raw sample read from the sensor this log was created for.
+     * @throws IOException
+     */
+    public void append(final long timestamp, final RawSample sample) throws IOException {
+        append(timestamp, sample.getRawTemperature(), sample.getRawPressure(), sample.getRawHumidity());
+    }
+
+    /**
+     * Returns the number of frames appended so far.
+     */
+    public long getFrameCount() {
+        return frameCount;
+    }
+
+    /**
+     * Returns the number of bytes written so far, including the header.
+     */
+    public long size() {
+        return buffer == null ? 0 : regionPosition + buffer.position();
+    }
+
+    /**
+     * Force the frames written so far to the storage device.
+     */
+    public void flush() {
+        if (buffer != null) {
+            buffer.force();
+        }
+    }
+
+    /**
+     * Terminate the frames, truncate the file to its written size and close it.
+     */
+    @Override
+    public void close() throws IOException {
+        if (buffer != null) {
+            try {
+                final long size = regionPosition + buffer.position();
+                // Unwritten mapped space is zero filled, but terminate explicitly in case a region is reused.
+                buffer.put((byte) 0);
+                buffer.force();
+                buffer = null;
+                channel.truncate(size + 1);
+            } finally {
+                file.close();
+            }
+        }
+    }
+
+    private void map(final long position) throws IOException {
+        if (buffer != null) {
+            buffer.force();
+        }
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, position, regionSize);
+        regionPosition = position;
+    }
+}
@@ -0,0 +1,114 @@
+package com.knobtviker.android.things.contrib.community.driver.bme280;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Shared encoding helpers for the binary raw frame formats.
+ */
+final class RawFrames {
+
+    /**
+     * Number of calibration words stored in a calibration block.
+     */
+    static final int CALIBRATION_WORDS = 3 + 9 + 6;
+
+    /**
+     * Size in bytes of an encoded calibration block.
+     */
+    static final int CALIBRATION_SIZE = CALIBRATION_WORDS * 4;
+
+    /**
+     * Maximum size in bytes of a variable length encoded long.
+     */
+    static final int MAX_VARLONG_SIZE = 10;
+
+    /**
+     * Maximum size in bytes of a variable length encoded int.
+     */
+    static final int MAX_VARINT_SIZE = 5;
+
+    private RawFrames() {
+    }
+
+    static void putCalibration(final ByteBuffer buffer, final Calibration calibration) {
+        for (final int value : calibration.temperature) {
+            buffer.putInt(value);
+        }
+        for (final int value : calibration.pressure) {
+            buffer.putInt(value);
+        }
+        for (final int value : calibration.humidity) {
+            buffer.putInt(value);
+        }
+    }
+
+    static Calibration getCalibration(final ByteBuffer buffer) {
+        final Calibration calibration = new Calibration();
+        for (int i = 0; i < calibration.temperature.length; i++) {
+            calibration.temperature[i] = buffer.getInt();
+        }
+        for (int i = 0; i < calibration.pressure.length; i++) {
+            calibration.pressure[i] = buffer.getInt();
+        }
+        for (int i = 0; i < calibration.humidity.length; i++) {
+            calibration.humidity[i] = buffer.getInt();
+        }
+        return calibration;
+    }
+
+    static int zigZag(final int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    static int unZigZag(final int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    static long zigZag(final long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    static long unZigZag(final long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    static void putVarInt(final ByteBuffer buffer, int value) {
+        while ((value & ~0x7F) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    static int getVarInt(final ByteBuffer buffer) {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            final int b = buffer.get();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Malformed variable length int");
+    }
+
+    static void putVarLong(final ByteBuffer buffer, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    static long getVarLong(final ByteBuffer buffer) {
+        long value = 0;
+        for (int shift = 0; shift < 70; shift += 7) {
+            final int b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Malformed variable length long");
+    }
+}
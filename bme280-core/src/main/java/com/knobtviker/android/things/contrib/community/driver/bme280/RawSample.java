@@ -0,0 +1,198 @@
+package com.knobtviker.android.things.contrib.community.driver.bme280;
+
+/**
+ * Uncompensated ADC values of a single conversion, together with the calibration of the sensor they were read
+ * from.
+ * <p>
+ * The fine temperature is computed on creation. Compensated values are computed only when first requested and
+ * cached in volatile fields afterwards, so forward-only consumers never run the compensation. Lazy compensation is
+ * idempotent and depends only on final fields, so samples can be shared between threads.
+ * <p>
+ * Samples read by {@link BME280Device} carry {@link System#nanoTime()} timestamps of the read: when it was
+ * requested, when the bus lock was acquired and when the data burst started and ended. The lock wait, the
+ * conversion wait and the bus transfer can be told apart from the differences.
+ */
+public class RawSample {
+
+    private final int rawTemperature;
+    private final int rawPressure;
+    private final int rawHumidity;
+    private final Calibration calibration;
+    private final long requestNanos;
+    private final long lockAcquiredNanos;
+    private final long burstStartNanos;
+    private final long burstEndNanos;
+    private final boolean duplicate;
+    private final int temperatureFine;
+
+    private volatile float temperature = Float.NaN;
+    private volatile float pressure = Float.NaN;
+    private volatile float humidity = Float.NaN;
+
+    /**
+     * Create a new raw sample.
+     *
+     * @param rawTemperature 20-bit raw temperature.
+     * @param rawPressure    20-bit raw pressure.
+     * @param rawHumidity    16-bit raw humidity, or a negative value if the sensor has no humidity.
+     * @param calibration    calibration of the sensor the values were read from.
+     */
+    public RawSample(int rawTemperature, int rawPressure, int rawHumidity, Calibration calibration) {
+        this(rawTemperature, rawPressure, rawHumidity, calibration, 0, 0, 0, 0);
+    }
+
+    /**
+     * Create a new raw sample with the timestamps of its read.
+     *
+     * @param rawTemperature    20-bit raw temperature.
+     * @param rawPressure       20-bit raw pressure.
+     * @param rawHumidity       16-bit raw humidity, or a negative value if the sensor has no humidity.
+     * @param calibration       calibration of the sensor the values were read from.
+     * @param requestNanos      time the read was requested.
+     * @param lockAcquiredNanos time the bus lock was acquired.
+     * @param burstStartNanos   time the data burst started.
+     * @param burstEndNanos     time the data burst completed.
+     */
+    public RawSample(int rawTemperature, int rawPressure, int rawHumidity, Calibration calibration,
+        long requestNanos, long lockAcquiredNanos, long burstStartNanos, long burstEndNanos) {
+        this(rawTemperature, rawPressure, rawHumidity, calibration, requestNanos, lockAcquiredNanos, burstStartNanos,
+            burstEndNanos, false);
+    }
+
+    /**
+     * Create a new raw sample with the timestamps of its read.
+     *
+     * @param rawTemperature    20-bit raw temperature.
+     * @param rawPressure       20-bit raw pressure.
+     * @param rawHumidity       16-bit raw humidity, or a negative value if the sensor has no humidity.
+     * @param calibration       calibration of the sensor the values were read from.
+     * @param requestNanos      time the read was requested.
+     * @param lockAcquiredNanos time the bus lock was acquired.
+     * @param burstStartNanos   time the data burst started.
+     * @param burstEndNanos     time the data burst completed.
+     * @param duplicate         true if the raw values repeat the previous sample of the sensor.
+     */
+    public RawSample(int rawTemperature, int rawPressure, int rawHumidity, Calibration calibration,
+        long requestNanos, long lockAcquiredNanos, long burstStartNanos, long burstEndNanos, boolean duplicate) {
+        this.rawTemperature = rawTemperature;
+        this.rawPressure = rawPressure;
+        this.rawHumidity = rawHumidity;
+        this.calibration = calibration;
+        this.requestNanos = requestNanos;
+        this.lockAcquiredNanos = lockAcquiredNanos;
+        this.burstStartNanos = burstStartNanos;
+        this.burstEndNanos = burstEndNanos;
+        this.duplicate = duplicate;
+        this.temperatureFine = Compensation.temperatureFine(rawTemperature, calibration.temperature);
+    }
+
+    /**
+     * Returns the 20-bit raw temperature.
+     */
+    public int getRawTemperature() {
+        return rawTemperature;
+    }
+
+    /**
+     * Returns the 20-bit raw pressure.
+     */
+    public int getRawPressure() {
+        return rawPressure;
+    }
+
+    /**
+     * Returns the 16-bit raw humidity, or a negative value if the sensor has no humidity.
+     */
+    public int getRawHumidity() {
+        return rawHumidity;
+    }
+
+    /**
+     * Returns the calibration of the sensor the values were read from.
+     */
+    public Calibration getCalibration() {
+        return calibration;
+    }
+
+    /**
+     * Returns the {@link System#nanoTime()} at which the read was requested, or 0 if unknown.
+     */
+    public long getRequestNanos() {
+        return requestNanos;
+    }
+
+    /**
+     * Returns the {@link System#nanoTime()} at which the bus lock was acquired, or 0 if unknown.
+     * The conversion wait, if any, follows.
+     */
+    public long getLockAcquiredNanos() {
+        return lockAcquiredNanos;
+    }
+
+    /**
+     * Returns the {@link System#nanoTime()} at which the data burst started, or 0 if unknown. The data registers
+     * are shadowed for the burst, so this is the timestamp of the sample.
+     */
+    public long getBurstStartNanos() {
+        return burstStartNanos;
+    }
+
+    /**
+     * Returns the {@link System#nanoTime()} at which the data burst completed, or 0 if unknown.
+     */
+    public long getBurstEndNanos() {
+        return burstEndNanos;
+    }
+
+    /**
+     * Returns true if the raw values of all channels repeat the previous sample read from the sensor with the same
+     * configuration. The data registers most likely weren't updated by a new conversion in between, though a
+     * noiseless new conversion can repeat them too.
+     */
+    public boolean isDuplicate() {
+        return duplicate;
+    }
+
+    /**
+     * Returns the fine temperature used by the pressure and humidity compensation.
+     */
+    public int getTemperatureFine() {
+        return temperatureFine;
+    }
+
+    /**
+     * Returns the temperature in degrees Celsius.
+     */
+    public float getTemperature() {
+        float value = temperature;
+        if (Float.isNaN(value)) {
+            value = Compensation.temperature(temperatureFine) / 100.0f;
+            temperature = value;
+        }
+        return value;
+    }
+
+    /**
+     * Returns the barometric pressure in hPa units.
+     */
+    public float getPressure() {
+        float value = pressure;
+        if (Float.isNaN(value)) {
+            value = Compensation.pressure(rawPressure, calibration.pressure, temperatureFine) / 25600.0f;
+            pressure = value;
+        }
+        return value;
+    }
+
+    /**
+     * Returns the humidity in percentage, or NaN if the sensor has no humidity.
+     */
+    public float getHumidity() {
+        float value = humidity;
+        if (Float.isNaN(value) && rawHumidity >= 0) {
+            value = Compensation.humidity(rawHumidity, calibration.humidity, temperatureFine) / 1024.0f;
+            humidity = value;
+        }
+        return value;
+    }
+}
@@ -0,0 +1,50 @@
+package com.knobtviker.android.things.contrib.community.driver.bme280;
+
+import java.io.IOException;
+
+/**
+ * Register level transport to a sensor, such as an I2C or SPI peripheral.
+ * <p>
+ * Words are little endian, burst reads auto-increment the register address.
+ */
+public interface RegisterBus extends AutoCloseable {
+
+    /**
+     * Read multiple bytes starting from the given register.
+     *
+     * @param reg    first register address.
+     * @param buffer buffer to read into.
+     * @param length number of bytes to read.
+     * @throws IOException
+     */
+    void readRegBuffer(int reg, byte[] buffer, int length) throws IOException;
+
+    /**
+     * Read a byte from the given register.
+     *
+     * @throws IOException
+     */
+    byte readRegByte(int reg) throws IOException;
+
+    /**
+     * Read a little endian word from the given register.
+     *
+     * @throws IOException
+     */
+    short readRegWord(int reg) throws IOException;
+
+    /**
+     * Write a byte to the given register.
+     *
+     * @throws IOException
+     */
+    void writeRegByte(int reg, byte data) throws IOException;
+
+    /**
+     * Close the transport.
+     *
+     * @throws IOException
+     */
+    @Override
+    void close() throws IOException;
+}
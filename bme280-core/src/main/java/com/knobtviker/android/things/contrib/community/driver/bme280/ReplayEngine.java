@@ -0,0 +1,342 @@
+package com.knobtviker.android.things.contrib.community.driver.bme280;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Offline engine that recompensates raw frame logs written by {@link RawFrameLogWriter}.
+ * <p>
+ * Files are replayed in parallel on a fork-join pool, and frames of each file are decoded in blocks which are
+ * compensated in parallel chunks with the calibration stored in that file. Compensation uses the same
+ * {@link Compensation} formulas as the driver, so the output matches {@link BME280Device#readAll()} bit for bit.
+ * <p>
+ * Each input file is written to an output file of the same name with the {@link #OUTPUT_EXTENSION} extension.
+ * Output layout, all values are big-endian:
+ * <pre>
+ *     int   magic 'BMEC'
+ *     short format version
+ *     short reserved
+ *     long  frame count
+ *     frames of long timestamp, float temperature in degrees Celsius, float humidity percentage or NaN
+ *     for frames without humidity and float barometric pressure in hPa units
+ * </pre>
+ */
+public class ReplayEngine {
+
+    /**
+     * Extension of compensated output files.
+     */
+    public static final String OUTPUT_EXTENSION = ".compensated";
+
+    static final int OUTPUT_MAGIC = 0x424D4543;
+    static final short OUTPUT_VERSION = 1;
+    static final int OUTPUT_HEADER_SIZE = 4 + 2 + 2 + 8;
+    static final int OUTPUT_FRAME_SIZE = 8 + 4 + 4 + 4;
+
+    private static final int DEFAULT_CHUNK_SIZE = 4096;
+    private static final int DEFAULT_BLOCK_SIZE = 1 << 16;
+
+    /**
+     * Receives progress updates while replaying. Updates are delivered from the worker threads of the pool.
+     */
+    public interface Listener {
+
+        /**
+         * Called after each decoded block has been compensated and written.
+         *
+         * @param framesDone   total number of frames written so far, across all files.
+         * @param bytesRead    total number of log bytes consumed so far, across all files.
+         * @param elapsedNanos time elapsed since the replay started.
+         */
+        void onProgress(long framesDone, long bytesRead, long elapsedNanos);
+    }
+
+    /**
+     * Summary of a finished replay.
+     */
+    public static class Result {
+
+        private final int fileCount;
+        private final long frameCount;
+        private final long bytesRead;
+        private final long bytesWritten;
+        private final long elapsedNanos;
+
+        Result(int fileCount, long frameCount, long bytesRead, long bytesWritten, long elapsedNanos) {
+            this.fileCount = fileCount;
+            this.frameCount = frameCount;
+            this.bytesRead = bytesRead;
+            this.bytesWritten = bytesWritten;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        public int getFileCount() {
+            return fileCount;
+        }
+
+        public long getFrameCount() {
+            return frameCount;
+        }
+
+        public long getBytesRead() {
+            return bytesRead;
+        }
+
+        public long getBytesWritten() {
+            return bytesWritten;
+        }
+
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        /**
+         * Returns the throughput in frames per second.
+         */
+        public double getFramesPerSecond() {
+            return elapsedNanos == 0 ? 0 : frameCount * 1e9 / elapsedNanos;
+        }
+
+        /**
+         * Returns the throughput of written output in bytes per second.
+         */
+        public double getBytesWrittenPerSecond() {
+            return elapsedNanos == 0 ? 0 : bytesWritten * 1e9 / elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d files, %d frames in %.3f s (%.0f frames/s, %.1f MB/s written)",
+                fileCount, frameCount, elapsedNanos / 1e9, getFramesPerSecond(), getBytesWrittenPerSecond() / 1e6);
+        }
+    }
+
+    /**
+     * Pool shared by engines created without one, started on first use.
+     */
+    private static final class DefaultPool {
+
+        private static final ForkJoinPool INSTANCE = new ForkJoinPool();
+    }
+
+    private final ForkJoinPool pool;
+    private final int chunkSize;
+    private final int blockSize;
+
+    /**
+     * Create a new replay engine running on a fork-join pool with one thread per processor, shared by all engines
+     * created this way.
+     */
+    public ReplayEngine() {
+        this(DefaultPool.INSTANCE, DEFAULT_CHUNK_SIZE, DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * Create a new replay engine.
+     *
+     * @param pool      fork-join pool the replay runs on.
+     * @param chunkSize maximum number of frames compensated by a single task.
+     * @param blockSize number of frames decoded from a log before they are compensated and written.
+     */
+    public ReplayEngine(ForkJoinPool pool, int chunkSize, int blockSize) {
+        if (chunkSize <= 0 || blockSize <= 0) {
+            throw new IllegalArgumentException("Chunk and block sizes must be positive");
+        }
+        this.pool = pool;
+        this.chunkSize = chunkSize;
+        this.blockSize = blockSize;
+    }
+
+    /**
+     * Replay raw frame logs and write the compensated output files.
+     *
+     * @param inputs          raw frame log files.
+     * @param outputDirectory directory the compensated output files are written to.
+     * @param listener        optional progress listener, may be null.
+     * @return replay summary.
+     * @throws IOException if any of the files can't be read or written.
+     */
+    public Result replay(List<File> inputs, File outputDirectory, Listener listener) throws IOException {
+        if (!outputDirectory.isDirectory() && !outputDirectory.mkdirs()) {
+            throw new IOException("Can't create output directory " + outputDirectory);
+        }
+
+        final Progress progress = new Progress(listener);
+        final List<FileTask> tasks = new ArrayList<>(inputs.size());
+        for (final File input : inputs) {
+            tasks.add(new FileTask(input, new File(outputDirectory, input.getName() + OUTPUT_EXTENSION), progress));
+        }
+
+        pool.invoke(new RecursiveAction() {
+            @Override
+            protected void compute() {
+                invokeAll(tasks);
+            }
+        });
+
+        long bytesWritten = 0;
+        for (final FileTask task : tasks) {
+            if (task.error != null) {
+                throw task.error;
+            }
+            bytesWritten += task.bytesWritten;
+        }
+
+        return new Result(tasks.size(), progress.frames.get(), progress.bytes.get(), bytesWritten, System.nanoTime() - progress.start);
+    }
+
+    private static final class Progress {
+
+        private final Listener listener;
+        private final long start = System.nanoTime();
+        private final AtomicLong frames = new AtomicLong();
+        private final AtomicLong bytes = new AtomicLong();
+
+        private Progress(Listener listener) {
+            this.listener = listener;
+        }
+
+        private void update(final int frameDelta, final long byteDelta) {
+            final long framesDone = frames.addAndGet(frameDelta);
+            final long bytesRead = bytes.addAndGet(byteDelta);
+            if (listener != null) {
+                listener.onProgress(framesDone, bytesRead, System.nanoTime() - start);
+            }
+        }
+    }
+
+    private final class FileTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final File input;
+        private final File output;
+        private final Progress progress;
+
+        private IOException error;
+        private long bytesWritten;
+
+        private FileTask(File input, File output, Progress progress) {
+            this.input = input;
+            this.output = output;
+            this.progress = progress;
+        }
+
+        @Override
+        protected void compute() {
+            try {
+                replayFile();
+            } catch (IOException e) {
+                error = e;
+            }
+        }
+
+        private void replayFile() throws IOException {
+            final long[] timestamps = new long[blockSize];
+            final int[] temperatures = new int[blockSize];
+            final int[] pressures = new int[blockSize];
+            final int[] humidities = new int[blockSize];
+
+            try (RawFrameLogReader reader = new RawFrameLogReader(input);
+                 RandomAccessFile file = new RandomAccessFile(output, "rw")) {
+                final FileChannel channel = file.getChannel();
+                channel.truncate(0);
+
+                final Calibration calibration = reader.getCalibration();
+                long frames = 0;
+                long bytesReported = 0;
+                boolean more = true;
+                while (more) {
+                    int count = 0;
+                    while (count < blockSize && (more = reader.next())) {
+                        timestamps[count] = reader.getTimestamp();
+                        temperatures[count] = reader.getRawTemperature();
+                        pressures[count] = reader.getRawPressure();
+                        humidities[count] = reader.getRawHumidity();
+                        count++;
+                    }
+                    if (count == 0) {
+                        break;
+                    }
+
+                    final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE,
+                        OUTPUT_HEADER_SIZE + frames * OUTPUT_FRAME_SIZE, (long) count * OUTPUT_FRAME_SIZE);
+                    invokeAll(new ChunkTask(calibration, timestamps, temperatures, pressures, humidities, buffer, 0, count));
+                    frames += count;
+
+                    final long bytesRead = reader.position();
+                    progress.update(count, bytesRead - bytesReported);
+                    bytesReported = bytesRead;
+                }
+
+                final MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0, OUTPUT_HEADER_SIZE);
+                header.putInt(OUTPUT_MAGIC);
+                header.putShort(OUTPUT_VERSION);
+                header.putShort((short) 0);
+                header.putLong(frames);
+                header.force();
+
+                bytesWritten = OUTPUT_HEADER_SIZE + frames * OUTPUT_FRAME_SIZE;
+            }
+        }
+    }
+
+    private final class ChunkTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Calibration calibration;
+        private final long[] timestamps;
+        private final int[] temperatures;
+        private final int[] pressures;
+        private final int[] humidities;
+        private final MappedByteBuffer buffer;
+        private final int from;
+        private final int to;
+
+        private ChunkTask(Calibration calibration, long[] timestamps, int[] temperatures, int[] pressures, int[] humidities,
+            MappedByteBuffer buffer, int from, int to) {
+            this.calibration = calibration;
+            this.timestamps = timestamps;
+            this.temperatures = temperatures;
+            this.pressures = pressures;
+            this.humidities = humidities;
+            this.buffer = buffer;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > chunkSize) {
+                final int middle = (from + to) >>> 1;
+                invokeAll(
+                    new ChunkTask(calibration, timestamps, temperatures, pressures, humidities, buffer, from, middle),
+                    new ChunkTask(calibration, timestamps, temperatures, pressures, humidities, buffer, middle, to)
+                );
+                return;
+            }
+
+            // Absolute puts only, so chunks can share the block buffer.
+            int offset = from * OUTPUT_FRAME_SIZE;
+            for (int i = from; i < to; i++) {
+                final int temperatureFine = Compensation.temperatureFine(temperatures[i], calibration.temperature);
+                buffer.putLong(offset, timestamps[i]);
+                buffer.putFloat(offset + 8, Compensation.temperature(temperatureFine) / 100.0f);
+                buffer.putFloat(offset + 12, humidities[i] < 0
+                    ? Float.NaN
+                    : Compensation.humidity(humidities[i], calibration.humidity, temperatureFine) / 1024.0f);
+                buffer.putFloat(offset + 16, Compensation.pressure(pressures[i], calibration.pressure, temperatureFine) / 25600.0f);
+                offset += OUTPUT_FRAME_SIZE;
+            }
+        }
+    }
+}
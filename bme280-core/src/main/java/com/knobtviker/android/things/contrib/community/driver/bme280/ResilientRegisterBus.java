@@ -0,0 +1,114 @@
+package com.knobtviker.android.things.contrib.community.driver.bme280;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Random;
+
+/**
+ * {@link RegisterBus} decorator that retries failed transactions and guards the device with a circuit breaker.
+ * <p>
+ * Every register access is a separate transaction, attempted up to {@link RetryPolicy#getMaxAttempts()} times
+ * with jittered backoff in between. Rejections of an open breaker are not retried.
+ */
+class ResilientRegisterBus implements RegisterBus {
+
+    private final RegisterBus bus;
+    private final RetryPolicy retryPolicy;
+    private final CircuitBreaker circuitBreaker;
+    private final Random random = new Random();
+
+    ResilientRegisterBus(RegisterBus bus, RetryPolicy retryPolicy, CircuitBreaker circuitBreaker) {
+        this.bus = bus;
+        this.retryPolicy = retryPolicy;
+        this.circuitBreaker = circuitBreaker;
+    }
+
+    private abstract static class Transaction {
+
+        abstract int run() throws IOException;
+    }
+
+    private int execute(final Transaction transaction) throws IOException {
+        for (int attempt = 1; ; attempt++) {
+            circuitBreaker.acquire();
+            try {
+                final int result = transaction.run();
+                circuitBreaker.onSuccess();
+                return result;
+            } catch (IOException e) {
+                circuitBreaker.onFailure();
+                if (attempt >= retryPolicy.getMaxAttempts()) {
+                    throw e;
+                }
+            } catch (RuntimeException | Error e) {
+                // Not a bus failure, e.g. a closed device, but a half open probe must not stay in progress.
+                circuitBreaker.release();
+                throw e;
+            }
+            circuitBreaker.onRetry();
+            backoff(attempt);
+        }
+    }
+
+    private void backoff(final int retry) throws InterruptedIOException {
+        final long millis;
+        synchronized (random) {
+            millis = retryPolicy.backoffMillis(retry, random);
+        }
+        if (millis > 0) {
+            try {
+                Thread.sleep(millis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted during retry backoff");
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        bus.close();
+    }
+
+    @Override
+    public void readRegBuffer(final int reg, final byte[] buffer, final int length) throws IOException {
+        execute(new Transaction() {
+            @Override
+            int run() throws IOException {
+                bus.readRegBuffer(reg, buffer, length);
+                return 0;
+            }
+        });
+    }
+
+    @Override
+    public byte readRegByte(final int reg) throws IOException {
+        return (byte) execute(new Transaction() {
+            @Override
+            int run() throws IOException {
+                return bus.readRegByte(reg);
+            }
+        });
+    }
+
+    @Override
+    public short readRegWord(final int reg) throws IOException {
+        return (short) execute(new Transaction() {
+            @Override
+            int run() throws IOException {
+                return bus.readRegWord(reg);
+            }
+        });
+    }
+
+    @Override
+    public void writeRegByte(final int reg, final byte data) throws IOException {
+        execute(new Transaction() {
+            @Override
+            int run() throws IOException {
+                bus.writeRegByte(reg, data);
+                return 0;
+            }
+        });
+    }
+}
@@ -0,0 +1,74 @@
+package com.knobtviker.android.things.contrib.community.driver.bme280;
+
+import java.util.Random;
+
+/**
+ * Bounded retry policy with exponential, jittered backoff for bus transactions.
+ * Instances are immutable and can be shared between devices.
+ */
+public class RetryPolicy {
+
+    /**
+     * Policy that never retries.
+     */
+    public static final RetryPolicy NONE = new RetryPolicy(1, 0, 0, 0f);
+
+    private final int maxAttempts;
+    private final long initialBackoffMillis;
+    private final long maxBackoffMillis;
+    private final float jitter;
+
+    /**
+     * Create a new retry policy.
+     *
+     * @param maxAttempts          maximum number of attempts of a transaction, including the first one.
+     * @param initialBackoffMillis backoff before the first retry, doubled for every following retry.
+     * @param maxBackoffMillis     upper bound of the backoff.
+     * @param jitter               fraction of the backoff randomly taken off, between 0 and 1, so devices
+     *                             sharing a bus don't retry in lockstep.
+     */
+    public RetryPolicy(int maxAttempts, long initialBackoffMillis, long maxBackoffMillis, float jitter) {
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("At least one attempt is required");
+        }
+        if (initialBackoffMillis < 0 || maxBackoffMillis < initialBackoffMillis) {
+            throw new IllegalArgumentException("Invalid backoff " + initialBackoffMillis + "-" + maxBackoffMillis);
+        }
+        if (jitter < 0f || jitter > 1f) {
+            throw new IllegalArgumentException("Jitter must be between 0 and 1: " + jitter);
+        }
+        this.maxAttempts = maxAttempts;
+        this.initialBackoffMillis = initialBackoffMillis;
+        this.maxBackoffMillis = maxBackoffMillis;
+        this.jitter = jitter;
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    public long getInitialBackoffMillis() {
+        return initialBackoffMillis;
+    }
+
+    public long getMaxBackoffMillis() {
+        return maxBackoffMillis;
+    }
+
+    public float getJitter() {
+        return jitter;
+    }
+
+    /**
+     * Calculate the backoff before a retry.
+     *
+     * @param retry  retry number, starting at 1.
+     * @param random source of the jitter.
+     * @return backoff in milliseconds.
+     */
+    long backoffMillis(final int retry, final Random random) {
+        final long backoff = retry > 62 ? maxBackoffMillis : Math.min(maxBackoffMillis, initialBackoffMillis << (retry - 1));
+        final long capped = backoff < 0 ? maxBackoffMillis : backoff;
+        return capped - (long) (capped * jitter * random.nextFloat());
+    }
+}
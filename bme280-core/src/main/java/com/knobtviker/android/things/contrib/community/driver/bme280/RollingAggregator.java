@@ -0,0 +1,195 @@
+package com.knobtviker.android.things.contrib.community.driver.bme280;
+
+import android.support.annotation.IntDef;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+
+/**
+ * Rolling min, max and mean of each channel over multiple time resolutions.
+ * <p>
+ * The first tier keeps every sample of its span, each following tier keeps one aggregated bucket per span of
+ * the previous tier, so with the default 1 s, 1 min and 1 h tiers memory is bounded by the maximum sample rate
+ * plus 2 * 61 buckets per channel, no matter how long the sensor runs. All storage is preallocated, updates are
+ * amortized constant time and queries constant time. Values are aggregated in the fixed-point units of
+ * {@link Compensation} and returned in degrees Celsius, hPa and percentage.
+ * <p>
+ * The first tier holds at most the configured number of samples. When more arrive within its span, the oldest
+ * ones are dropped early and the first tier covers less than its span, which {@link #isTruncated(int)} reports.
+ * Later tiers aggregate buckets and never truncate.
+ * <p>
+ * Queries reflect the windows as of the last added sample. Instances are not thread safe.
+ */
+public class RollingAggregator {
+
+    /**
+     * Measured channel.
+     */
+    @Retention(RetentionPolicy.SOURCE)
+    @IntDef({CHANNEL_TEMPERATURE, CHANNEL_PRESSURE, CHANNEL_HUMIDITY})
+    public @interface Channel {
+    }
+
+    public static final int CHANNEL_TEMPERATURE = 0;
+    public static final int CHANNEL_PRESSURE = 1;
+    public static final int CHANNEL_HUMIDITY = 2;
+
+    /**
+     * Tier indexes of the default resolutions.
+     */
+    public static final int TIER_SECOND = 0;
+    public static final int TIER_MINUTE = 1;
+    public static final int TIER_HOUR = 2;
+
+    private static final long[] DEFAULT_SPANS_MS = {1000L, 60 * 1000L, 60 * 60 * 1000L};
+
+    private static final float[] SCALES = {
+        Compensation.TEMPERATURE_SCALE, Compensation.PRESSURE_SCALE, Compensation.HUMIDITY_SCALE
+    };
+
+    private final long[] spans;
+    private final RollingWindow[][] windows;
+
+    /**
+     * Create a new aggregator with 1 s, 1 min and 1 h tiers over millisecond timestamps.
+     *
+     * @param maxSamplesPerSecond maximum expected sample rate, faster sampling truncates the first tier.
+     */
+    public RollingAggregator(int maxSamplesPerSecond) {
+        this(DEFAULT_SPANS_MS, maxSamplesPerSecond);
+    }
+
+    /**
+     * Create a new aggregator.
+     *
+     * @param spans          strictly increasing tier spans, in the unit of the added timestamps. Each span
+     *                       should be a multiple of the previous one.
+     * @param firstTierLimit maximum number of samples within the first span, older samples are dropped early
+     *                       and truncate the first tier when it is exceeded.
+     */
+    public RollingAggregator(long[] spans, int firstTierLimit) {
+        if (spans.length == 0) {
+            throw new IllegalArgumentException("At least one tier is required");
+        }
+        for (int i = 1; i < spans.length; i++) {
+            if (spans[i] <= spans[i - 1]) {
+                throw new IllegalArgumentException("Tier spans must be strictly increasing");
+            }
+        }
+        this.spans = spans.clone();
+        this.windows = new RollingWindow[spans.length][SCALES.length];
+        for (int tier = 0; tier < spans.length; tier++) {
+            for (int channel = 0; channel < SCALES.length; channel++) {
+                windows[tier][channel] = tier == 0
+                    ? new RollingWindow(spans[0], 0, firstTierLimit)
+                    : new RollingWindow(spans[tier], spans[tier - 1], (int) ((spans[tier] + spans[tier - 1] - 1) / spans[tier - 1]) + 1);
+            }
+        }
+    }
+
+    /**
+     * Add a sample in the fixed-point units of {@link Compensation}.
+     *
+     * @param timestamp   sample timestamp, not earlier than the previous one.
+     * @param temperature temperature in hundredths of degrees Celsius.
+     * @param pressure    pressure in Pa as unsigned 24.8 fixed-point.
+     * @param humidity    humidity in percentage as unsigned 22.10 fixed-point.
+     */
+    public void add(final long timestamp, final int temperature, final int pressure, final int humidity) {
+        for (final RollingWindow[] tier : windows) {
+            tier[CHANNEL_TEMPERATURE].add(timestamp, temperature);
+            tier[CHANNEL_PRESSURE].add(timestamp, pressure);
+            tier[CHANNEL_HUMIDITY].add(timestamp, humidity);
+        }
+    }
+
+    /**
+     * Add a raw sample, e.g. from {@link BME280Device#readRawSample()}, compensating it to the exact fixed-point
+     * values. Samples without humidity are only added to the temperature and pressure windows.
+     *
+     * @param timestamp sample timestamp, not earlier than the previous one.
+     * @param sample    raw sample.
+     */
+    public void add(final long timestamp, final RawSample sample) {
+        final Calibration calibration = sample.getCalibration();
+        final int temperatureFine = sample.getTemperatureFine();
+        final int temperature = Compensation.temperature(temperatureFine);
+        final int pressure = Compensation.pressure(sample.getRawPressure(), calibration.pressure, temperatureFine);
+        if (sample.getRawHumidity() >= 0) {
+            add(timestamp, temperature, pressure, Compensation.humidity(sample.getRawHumidity(), calibration.humidity, temperatureFine));
+        } else {
+            for (final RollingWindow[] tier : windows) {
+                tier[CHANNEL_TEMPERATURE].add(timestamp, temperature);
+                tier[CHANNEL_PRESSURE].add(timestamp, pressure);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of tiers.
+     */
+    public int getTierCount() {
+        return spans.length;
+    }
+
+    /**
+     * Returns the span of a tier.
+     */
+    public long getSpan(final int tier) {
+        return spans[tier];
+    }
+
+    /**
+     * Returns true if samples within the span of a tier were dropped early because more than the first tier limit
+     * arrived, so its min, max and mean cover less than the span.
+     */
+    public boolean isTruncated(final int tier) {
+        for (final RollingWindow window : windows[tier]) {
+            if (window.truncated()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the number of samples aggregated in a tier window.
+     */
+    public long getCount(final int tier, @Channel final int channel) {
+        return windows[tier][channel].count();
+    }
+
+    /**
+     * Returns the minimum of a channel in a tier window, or NaN if the window is empty.
+     */
+    public float getMin(final int tier, @Channel final int channel) {
+        final RollingWindow window = windows[tier][channel];
+        return window.count() == 0 ? Float.NaN : window.min() / SCALES[channel];
+    }
+
+    /**
+     * Returns the maximum of a channel in a tier window, or NaN if the window is empty.
+     */
+    public float getMax(final int tier, @Channel final int channel) {
+        final RollingWindow window = windows[tier][channel];
+        return window.count() == 0 ? Float.NaN : window.max() / SCALES[channel];
+    }
+
+    /**
+     * Returns the mean of a channel in a tier window, or NaN if the window is empty.
+     */
+    public float getMean(final int tier, @Channel final int channel) {
+        return (float) (windows[tier][channel].mean() / SCALES[channel]);
+    }
+
+    /**
+     * Drop all aggregated samples.
+     */
+    public void clear() {
+        for (final RollingWindow[] tier : windows) {
+            for (final RollingWindow window : tier) {
+                window.clear();
+            }
+        }
+    }
+}
@@ -0,0 +1,197 @@
+package com.knobtviker.android.things.contrib.community.driver.bme280;
+
+/**
+ * Time based sliding window of fixed-point values with constant time min, max and mean.
+ * <p>
+ * Values are kept in preallocated ring buffers, min and max are tracked with monotonic deques of entry
+ * sequence numbers and the mean with running sums. With a bucket period the window stores one aggregated
+ * entry per period instead of every value, and the partially filled current bucket takes part in queries.
+ * <p>
+ * When more entries than the capacity arrive within the span, the oldest ones are dropped early and the window
+ * is truncated, covering less than the span until the dropped entries would have expired, see {@link #truncated()}.
+ */
+final class RollingWindow {
+
+    private final long span;
+    private final long bucketPeriod;
+    private final int capacity;
+
+    private final long[] times;
+    private final int[] mins;
+    private final int[] maxs;
+    private final long[] sums;
+    private final int[] counts;
+
+    // Monotonic deques of entry sequence numbers, increasing minimums and decreasing maximums.
+    private final long[] minDeque;
+    private final long[] maxDeque;
+    private int minHead;
+    private int minSize;
+    private int maxHead;
+    private int maxSize;
+
+    // Sequence numbers of the oldest entry and of the next entry to append.
+    private long headSequence;
+    private long tailSequence;
+
+    private long sum;
+    private long count;
+
+    private long latest;
+    private boolean dropped;
+    private long lastDroppedTime;
+
+    private long bucketStart;
+    private int bucketMin;
+    private int bucketMax;
+    private long bucketSum;
+    private int bucketCount;
+
+    /**
+     * @param span         length of the window.
+     * @param bucketPeriod length of each aggregated entry, or 0 to store every value.
+     * @param capacity     maximum number of entries, older entries are dropped early when it is exceeded.
+     */
+    RollingWindow(long span, long bucketPeriod, int capacity) {
+        if (span <= 0 || bucketPeriod < 0 || capacity <= 0) {
+            throw new IllegalArgumentException("Invalid rolling window " + span + "/" + bucketPeriod + "/" + capacity);
+        }
+        this.span = span;
+        this.bucketPeriod = bucketPeriod;
+        this.capacity = capacity;
+        this.times = new long[capacity];
+        this.mins = new int[capacity];
+        this.maxs = new int[capacity];
+        this.sums = new long[capacity];
+        this.counts = new int[capacity];
+        this.minDeque = new long[capacity];
+        this.maxDeque = new long[capacity];
+    }
+
+    void add(final long timestamp, final int value) {
+        // Expired entries first, so they don't count against the capacity.
+        evict(timestamp - span);
+        if (bucketPeriod == 0) {
+            push(timestamp, value, value, value, 1);
+        } else {
+            final long start = timestamp - floorMod(timestamp, bucketPeriod);
+            if (bucketCount > 0 && start != bucketStart) {
+                push(bucketStart, bucketMin, bucketMax, bucketSum, bucketCount);
+                bucketCount = 0;
+            }
+            if (bucketCount == 0) {
+                bucketStart = start;
+                bucketMin = value;
+                bucketMax = value;
+                bucketSum = value;
+            } else {
+                bucketMin = Math.min(bucketMin, value);
+                bucketMax = Math.max(bucketMax, value);
+                bucketSum += value;
+            }
+            bucketCount++;
+        }
+        latest = timestamp;
+        evict(timestamp - span);
+    }
+
+    /**
+     * Returns true if entries within the span were dropped early because the capacity was exceeded, so min, max
+     * and mean only cover the newest entries.
+     */
+    boolean truncated() {
+        return dropped && lastDroppedTime > latest - span;
+    }
+
+    long count() {
+        return count + bucketCount;
+    }
+
+    int min() {
+        int min = minSize > 0 ? mins[index(minDeque[minHead])] : Integer.MAX_VALUE;
+        if (bucketCount > 0) {
+            min = Math.min(min, bucketMin);
+        }
+        return min;
+    }
+
+    int max() {
+        int max = maxSize > 0 ? maxs[index(maxDeque[maxHead])] : Integer.MIN_VALUE;
+        if (bucketCount > 0) {
+            max = Math.max(max, bucketMax);
+        }
+        return max;
+    }
+
+    double mean() {
+        final long total = count + bucketCount;
+        return total == 0 ? Double.NaN : (sum + bucketSum) / (double) total;
+    }
+
+    void clear() {
+        headSequence = tailSequence = 0;
+        minHead = minSize = maxHead = maxSize = 0;
+        sum = count = 0;
+        dropped = false;
+        bucketCount = 0;
+        bucketSum = 0;
+    }
+
+    private void push(final long time, final int min, final int max, final long entrySum, final int entryCount) {
+        if (tailSequence - headSequence == capacity) {
+            dropped = true;
+            lastDroppedTime = times[index(headSequence)];
+            removeHead();
+        }
+
+        final long sequence = tailSequence++;
+        final int index = index(sequence);
+        times[index] = time;
+        mins[index] = min;
+        maxs[index] = max;
+        sums[index] = entrySum;
+        counts[index] = entryCount;
+        sum += entrySum;
+        count += entryCount;
+
+        while (minSize > 0 && mins[index(minDeque[(minHead + minSize - 1) % capacity])] >= min) {
+            minSize--;
+        }
+        minDeque[(minHead + minSize++) % capacity] = sequence;
+
+        while (maxSize > 0 && maxs[index(maxDeque[(maxHead + maxSize - 1) % capacity])] <= max) {
+            maxSize--;
+        }
+        maxDeque[(maxHead + maxSize++) % capacity] = sequence;
+    }
+
+    private void evict(final long oldest) {
+        while (headSequence < tailSequence && times[index(headSequence)] <= oldest) {
+            removeHead();
+        }
+    }
+
+    private void removeHead() {
+        final int index = index(headSequence);
+        sum -= sums[index];
+        count -= counts[index];
+        if (minSize > 0 && minDeque[minHead] == headSequence) {
+            minHead = (minHead + 1) % capacity;
+            minSize--;
+        }
+        if (maxSize > 0 && maxDeque[maxHead] == headSequence) {
+            maxHead = (maxHead + 1) % capacity;
+            maxSize--;
+        }
+        headSequence++;
+    }
+
+    private int index(final long sequence) {
+        return (int) (sequence % capacity);
+    }
+
+    private static long floorMod(final long value, final long divisor) {
+        final long mod = value % divisor;
+        return mod < 0 ? mod + divisor : mod;
+    }
+}
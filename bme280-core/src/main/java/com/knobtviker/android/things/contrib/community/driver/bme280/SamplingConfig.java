@@ -0,0 +1,464 @@
+package com.knobtviker.android.things.contrib.community.driver.bme280;
+
+/**
+ * Immutable snapshot of the sampling configuration and its register encoding.
+ * <p>
+ * Besides the register values a configuration computes datasheet figures for planning: measurement time,
+ * output data rate, IIR filter step response and average supply current. Use a {@link Builder} to create
+ * validated configurations.
+ */
+public final class SamplingConfig {
+
+    /**
+     * Highest resolution on all channels, a conversion every 98.5 ms.
+     */
+    public static final SamplingConfig PRESET_NORMAL = new Builder()
+        .oversampling(BME280Device.OVERSAMPLING_16X, BME280Device.OVERSAMPLING_16X, BME280Device.OVERSAMPLING_16X)
+        .build();
+
+    /**
+     * Lowest resolution and current on all channels, a conversion every 8.5 ms.
+     */
+    public static final SamplingConfig PRESET_WEATHER_STATION = new Builder()
+        .oversampling(BME280Device.OVERSAMPLING_1X, BME280Device.OVERSAMPLING_1X, BME280Device.OVERSAMPLING_1X)
+        .build();
+
+    /**
+     * Filtered high resolution pressure at 25 Hz, the datasheet indoor navigation settings.
+     */
+    public static final SamplingConfig PRESET_INDOOR_NAVIGATION = new Builder()
+        .oversampling(BME280Device.OVERSAMPLING_2X, BME280Device.OVERSAMPLING_16X, BME280Device.OVERSAMPLING_1X)
+        .filter(BME280Device.FILTER_X16)
+        .build();
+
+    // Typical sleep and standby currents from the datasheet.
+    private static final float SLEEP_CURRENT_UA = 0.1f;
+    private static final float STANDBY_CURRENT_UA = 0.2f;
+
+    private final int mode;
+    private final int oversamplingTemperature;
+    private final int oversamplingPressure;
+    private final int oversamplingHumidity;
+    private final int filter;
+    private final int standbyDuration;
+
+    /**
+     * Create a new sampling configuration.
+     *
+     * @param mode                    power mode.
+     * @param oversamplingTemperature temperature oversampling.
+     * @param oversamplingPressure    pressure oversampling.
+     * @param oversamplingHumidity    humidity oversampling.
+     * @param filter                  IIR filter coefficient.
+     * @param standbyDuration         inactive duration between conversions in normal mode.
+     */
+    public SamplingConfig(@BME280Device.Mode int mode, @BME280Device.Oversampling int oversamplingTemperature,
+        @BME280Device.Oversampling int oversamplingPressure, @BME280Device.Oversampling int oversamplingHumidity,
+        @BME280Device.Filter int filter, @BME280Device.StandByDuration int standbyDuration) {
+        checkRange("mode", mode, BME280Device.MODE_NORMAL);
+        checkRange("temperature oversampling", oversamplingTemperature, BME280Device.OVERSAMPLING_16X);
+        checkRange("pressure oversampling", oversamplingPressure, BME280Device.OVERSAMPLING_16X);
+        checkRange("humidity oversampling", oversamplingHumidity, BME280Device.OVERSAMPLING_16X);
+        checkRange("filter", filter, BME280Device.FILTER_X16);
+        checkRange("standby duration", standbyDuration, BME280Device.STANDBY_MS_20);
+        this.mode = mode;
+        this.oversamplingTemperature = oversamplingTemperature;
+        this.oversamplingPressure = oversamplingPressure;
+        this.oversamplingHumidity = oversamplingHumidity;
+        this.filter = filter;
+        this.standbyDuration = standbyDuration;
+    }
+
+    private static void checkRange(final String name, final int value, final int max) {
+        if (value < 0 || value > max) {
+            throw new IllegalArgumentException("Invalid " + name + ": " + value);
+        }
+    }
+
+    @BME280Device.Mode
+    public int getMode() {
+        return mode;
+    }
+
+    @BME280Device.Oversampling
+    public int getOversamplingTemperature() {
+        return oversamplingTemperature;
+    }
+
+    @BME280Device.Oversampling
+    public int getOversamplingPressure() {
+        return oversamplingPressure;
+    }
+
+    @BME280Device.Oversampling
+    public int getOversamplingHumidity() {
+        return oversamplingHumidity;
+    }
+
+    @BME280Device.Filter
+    public int getFilter() {
+        return filter;
+    }
+
+    @BME280Device.StandByDuration
+    public int getStandbyDuration() {
+        return standbyDuration;
+    }
+
+    /**
+     * Returns the typical duration of a single conversion in microseconds, from the datasheet formula
+     * 1 + 2 * T + (2 * P + 0.5) + (2 * H + 0.5) ms with the oversampling multipliers of enabled channels.
+     */
+    public long getMeasurementTimeTypicalMicros() {
+        return measurementTimeMicros(1000, 2000, 500);
+    }
+
+    /**
+     * Returns the maximum duration of a single conversion in microseconds, from the datasheet formula
+     * 1.25 + 2.3 * T + (2.3 * P + 0.575) + (2.3 * H + 0.575) ms with the oversampling multipliers of enabled
+     * channels.
+     */
+    public long getMeasurementTimeMaxMicros() {
+        return measurementTimeMicros(1250, 2300, 575);
+    }
+
+    /**
+     * Returns the inactive duration between conversions in normal mode in microseconds on a BME280.
+     */
+    public long getStandbyMicros() {
+        return getStandbyMicros(ChipProfile.BME280);
+    }
+
+    /**
+     * Returns the inactive duration between conversions in normal mode in microseconds.
+     *
+     * @param chip sensor variant, the longest standby codes differ between them.
+     */
+    public long getStandbyMicros(ChipProfile chip) {
+        return chip.standbyMicros(standbyDuration);
+    }
+
+    /**
+     * Returns the interval between the starts of conversions in normal mode in nanoseconds.
+     */
+    long getConversionPeriodNanos(final ChipProfile chip) {
+        return (getMeasurementTimeTypicalMicros() + getStandbyMicros(chip)) * 1000L;
+    }
+
+    private long measurementTimeMicros(final int base, final int perSample, final int channelOverhead) {
+        long micros = base + perSample * multiplier(oversamplingTemperature);
+        if (oversamplingPressure != BME280Device.OVERSAMPLING_SKIPPED) {
+            micros += perSample * multiplier(oversamplingPressure) + channelOverhead;
+        }
+        if (oversamplingHumidity != BME280Device.OVERSAMPLING_SKIPPED) {
+            micros += perSample * multiplier(oversamplingHumidity) + channelOverhead;
+        }
+        return micros;
+    }
+
+    /**
+     * Returns the output data rate in normal mode in Hz on a BME280, one conversion per typical measurement time
+     * plus standby time. Returns 0 in sleep and forced mode where conversions are triggered by the caller.
+     */
+    public float getOutputDataRateHz() {
+        return getOutputDataRateHz(ChipProfile.BME280);
+    }
+
+    /**
+     * Returns the output data rate in normal mode in Hz on the given sensor variant, see
+     * {@link #getOutputDataRateHz()}.
+     */
+    public float getOutputDataRateHz(ChipProfile chip) {
+        if (mode != BME280Device.MODE_NORMAL) {
+            return 0f;
+        }
+        return 1000000f / (getMeasurementTimeTypicalMicros() + getStandbyMicros(chip));
+    }
+
+    /**
+     * Returns the number of samples the IIR filter takes to reach 75 % of a step change.
+     */
+    public int getFilterStepResponseSamples() {
+        switch (filter) {
+            case BME280Device.FILTER_X2:
+                return 2;
+            case BME280Device.FILTER_X4:
+                return 5;
+            case BME280Device.FILTER_X8:
+                return 11;
+            case BME280Device.FILTER_X16:
+                return 22;
+            default:
+                return 1;
+        }
+    }
+
+    /**
+     * Returns the time to reach 75 % of a step change in microseconds on a BME280, in normal mode at the output
+     * data rate and otherwise with conversions triggered back to back.
+     */
+    public long getFilterStepResponseMicros() {
+        return getFilterStepResponseMicros(ChipProfile.BME280);
+    }
+
+    /**
+     * Returns the time to reach 75 % of a step change in microseconds on the given sensor variant, see
+     * {@link #getFilterStepResponseMicros()}.
+     */
+    public long getFilterStepResponseMicros(ChipProfile chip) {
+        final long cycle = getMeasurementTimeTypicalMicros() + (mode == BME280Device.MODE_NORMAL ? getStandbyMicros(chip) : 0);
+        return getFilterStepResponseSamples() * cycle;
+    }
+
+    /**
+     * Returns the time from entering normal mode until the IIR filter reached 75 % of the environment in
+     * microseconds on a BME280, the first conversion followed by a conversion period for every further step
+     * response sample, with the maximum measurement time. Returns 0 in sleep and forced mode, where the filter
+     * settles over {@link #getFilterStepResponseSamples()} triggered conversions.
+     */
+    public long getSettlingTimeMicros() {
+        return getSettlingTimeMicros(ChipProfile.BME280);
+    }
+
+    /**
+     * Returns the time from entering normal mode until the IIR filter settled in microseconds on the given sensor
+     * variant, see {@link #getSettlingTimeMicros()}.
+     */
+    public long getSettlingTimeMicros(ChipProfile chip) {
+        if (mode != BME280Device.MODE_NORMAL) {
+            return 0;
+        }
+        final long measurement = getMeasurementTimeMaxMicros();
+        return measurement + (getFilterStepResponseSamples() - 1) * (measurement + getStandbyMicros(chip));
+    }
+
+    /**
+     * Returns the estimated average supply current in normal mode in micro-amperes on a BME280, from the measurement
+     * currents of the enabled channels at the output data rate and the standby current. Returns the sleep current in
+     * sleep and forced mode, see {@link #getEstimatedCurrentMicroamps(float)}.
+     */
+    public float getEstimatedCurrentMicroamps() {
+        return getEstimatedCurrentMicroamps(ChipProfile.BME280);
+    }
+
+    /**
+     * Returns the estimated average supply current in micro-amperes on the given sensor variant, see
+     * {@link #getEstimatedCurrentMicroamps()}.
+     */
+    public float getEstimatedCurrentMicroamps(ChipProfile chip) {
+        if (mode != BME280Device.MODE_NORMAL) {
+            return SLEEP_CURRENT_UA;
+        }
+        final long standby = getStandbyMicros(chip);
+        final long cycle = getMeasurementTimeTypicalMicros() + standby;
+        return (getMeasurementChargeMicroampMillis() * 1000f + STANDBY_CURRENT_UA * standby) / cycle;
+    }
+
+    /**
+     * Returns the estimated average supply current in micro-amperes with forced conversions at the given rate and
+     * sleep in between.
+     *
+     * @param sampleRateHz forced conversions per second.
+     */
+    public float getEstimatedCurrentMicroamps(float sampleRateHz) {
+        if (sampleRateHz < 0f || sampleRateHz * getMeasurementTimeTypicalMicros() > 1000000f) {
+            throw new IllegalArgumentException("Sample rate out of range: " + sampleRateHz);
+        }
+        final float measuringFraction = sampleRateHz * getMeasurementTimeTypicalMicros() / 1000000f;
+        return getMeasurementChargeMicroampMillis() * sampleRateHz / 1000f + SLEEP_CURRENT_UA * (1f - measuringFraction);
+    }
+
+    /**
+     * Returns the charge of one conversion in micro-ampere milliseconds. Start-up is attributed to temperature.
+     */
+    private float getMeasurementChargeMicroampMillis() {
+        float charge = BME280Device.MAX_POWER_CONSUMPTION_TEMP_UA * (1f + 2f * multiplier(oversamplingTemperature));
+        if (oversamplingPressure != BME280Device.OVERSAMPLING_SKIPPED) {
+            charge += BME280Device.MAX_POWER_CONSUMPTION_PRESSURE_UA * (2f * multiplier(oversamplingPressure) + 0.5f);
+        }
+        if (oversamplingHumidity != BME280Device.OVERSAMPLING_SKIPPED) {
+            charge += BME280Device.MAX_POWER_CONSUMPTION_HUMIDITY_UA * (2f * multiplier(oversamplingHumidity) + 0.5f);
+        }
+        return charge;
+    }
+
+    /**
+     * Returns the number of samples taken for an oversampling setting.
+     */
+    static int multiplier(@BME280Device.Oversampling final int oversampling) {
+        return oversampling == BME280Device.OVERSAMPLING_SKIPPED ? 0 : 1 << (Math.min(oversampling, BME280Device.OVERSAMPLING_16X) - 1);
+    }
+
+    /**
+     * Returns a copy of this configuration with a different power mode.
+     */
+    public SamplingConfig withMode(@BME280Device.Mode int mode) {
+        return mode == this.mode ? this
+            : new SamplingConfig(mode, oversamplingTemperature, oversamplingPressure, oversamplingHumidity, filter, standbyDuration);
+    }
+
+    /**
+     * Returns the ctrl_hum register value.
+     */
+    int ctrlHum() {
+        // humidity oversampling
+        // 000 = skipped
+        // 001 = x1
+        // 010 = x2
+        // 011 = x4
+        // 100 = x8
+        // 101 and above = x16
+        return oversamplingHumidity;
+    }
+
+    /**
+     * Returns the ctrl_meas register value.
+     */
+    int ctrlMeas() {
+        // temperature oversampling [7:5], pressure oversampling [4:2], same encoding as humidity
+        // device mode [1:0]
+        // 00       = sleep
+        // 01 or 10 = forced
+        // 11       = normal
+        return (oversamplingTemperature << 5) | (oversamplingPressure << 2) | mode;
+    }
+
+    /**
+     * Returns the config register value.
+     */
+    int config() {
+        // inactive duration (standby time) in normal mode [7:5]
+        // 000 = 0.5 ms
+        // 001 = 62.5 ms
+        // 010 = 125 ms
+        // 011 = 250 ms
+        // 100 = 500 ms
+        // 101 = 1000 ms
+        // 110 = 10 ms
+        // 111 = 20 ms
+        // filter settings [4:2]
+        // 000 = filter off
+        // 001 = 2x filter
+        // 010 = 4x filter
+        // 011 = 8x filter
+        // 100 and above = 16x filter
+        // 3-wire SPI [0], unused
+        return (standbyDuration << 5) | (filter << 2);
+    }
+
+    /**
+     * Builder of validated sampling configurations. Defaults to normal mode, 1x oversampling on all channels,
+     * filter off and 0.5 ms standby.
+     */
+    public static final class Builder {
+
+        private int mode = BME280Device.MODE_NORMAL;
+        private int oversamplingTemperature = BME280Device.OVERSAMPLING_1X;
+        private int oversamplingPressure = BME280Device.OVERSAMPLING_1X;
+        private int oversamplingHumidity = BME280Device.OVERSAMPLING_1X;
+        private int filter = BME280Device.FILTER_OFF;
+        private int standbyDuration = BME280Device.STANDBY_MS_0_5;
+
+        public Builder() {
+        }
+
+        /**
+         * Create a builder starting from an existing configuration.
+         */
+        public Builder(SamplingConfig config) {
+            mode = config.mode;
+            oversamplingTemperature = config.oversamplingTemperature;
+            oversamplingPressure = config.oversamplingPressure;
+            oversamplingHumidity = config.oversamplingHumidity;
+            filter = config.filter;
+            standbyDuration = config.standbyDuration;
+        }
+
+        public Builder mode(@BME280Device.Mode int mode) {
+            this.mode = mode;
+            return this;
+        }
+
+        /**
+         * Set the oversampling of all channels.
+         */
+        public Builder oversampling(@BME280Device.Oversampling int temperature, @BME280Device.Oversampling int pressure,
+            @BME280Device.Oversampling int humidity) {
+            this.oversamplingTemperature = temperature;
+            this.oversamplingPressure = pressure;
+            this.oversamplingHumidity = humidity;
+            return this;
+        }
+
+        public Builder temperatureOversampling(@BME280Device.Oversampling int oversampling) {
+            this.oversamplingTemperature = oversampling;
+            return this;
+        }
+
+        public Builder pressureOversampling(@BME280Device.Oversampling int oversampling) {
+            this.oversamplingPressure = oversampling;
+            return this;
+        }
+
+        public Builder humidityOversampling(@BME280Device.Oversampling int oversampling) {
+            this.oversamplingHumidity = oversampling;
+            return this;
+        }
+
+        public Builder filter(@BME280Device.Filter int filter) {
+            this.filter = filter;
+            return this;
+        }
+
+        public Builder standbyDuration(@BME280Device.StandByDuration int standbyDuration) {
+            this.standbyDuration = standbyDuration;
+            return this;
+        }
+
+        /**
+         * Create the configuration.
+         *
+         * @throws IllegalArgumentException if a value is out of range, or pressure or humidity are sampled without
+         *                                  temperature, which their compensation depends on.
+         */
+        public SamplingConfig build() {
+            if (oversamplingTemperature == BME280Device.OVERSAMPLING_SKIPPED
+                && (oversamplingPressure != BME280Device.OVERSAMPLING_SKIPPED || oversamplingHumidity != BME280Device.OVERSAMPLING_SKIPPED)) {
+                throw new IllegalArgumentException("Pressure and humidity compensation require temperature oversampling");
+            }
+            return new SamplingConfig(mode, oversamplingTemperature, oversamplingPressure, oversamplingHumidity, filter, standbyDuration);
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof SamplingConfig)) {
+            return false;
+        }
+        final SamplingConfig other = (SamplingConfig) o;
+        return mode == other.mode
+            && oversamplingTemperature == other.oversamplingTemperature
+            && oversamplingPressure == other.oversamplingPressure
+            && oversamplingHumidity == other.oversamplingHumidity
+            && filter == other.filter
+            && standbyDuration == other.standbyDuration;
+    }
+
+    @Override
+    public int hashCode() {
+        return (ctrlHum() << 16) | (ctrlMeas() << 8) | config();
+    }
+
+    @Override
+    public String toString() {
+        return "SamplingConfig{mode=" + mode
+            + ", oversamplingTemperature=" + oversamplingTemperature
+            + ", oversamplingPressure=" + oversamplingPressure
+            + ", oversamplingHumidity=" + oversamplingHumidity
+            + ", filter=" + filter
+            + ", standbyDuration=" + standbyDuration + "}";
+    }
+}
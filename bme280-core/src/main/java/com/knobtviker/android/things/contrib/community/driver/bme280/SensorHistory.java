@@ -0,0 +1,131 @@
+package com.knobtviker.android.things.contrib.community.driver.bme280;
+
+/**
+ * Compressed recent history of the temperature, pressure and humidity of a sensor, one {@link TimeSeries} per
+ * channel.
+ * <p>
+ * Values are quantized to hundredths before they are stored, below the sensor resolution for pressure and
+ * humidity and equal to the compensation resolution for temperature:
+ * <ul>
+ * <li>temperature in hundredths of degrees Celsius</li>
+ * <li>pressure in Pa, hundredths of hPa</li>
+ * <li>humidity in hundredths of percent</li>
+ * </ul>
+ * Divide the stored values by {@link #SCALE} for degrees Celsius, hPa and percentage. Samples without humidity
+ * are only appended to the temperature and pressure series.
+ * <p>
+ * Timestamps can be rounded to a granularity, typically the sampling period. Scheduling jitter then doesn't cost
+ * bits and steady sampling takes a single bit per timestamp. Instances are thread safe.
+ */
+public class SensorHistory {
+
+    /**
+     * Fixed-point scale of the stored values of all channels.
+     */
+    public static final int SCALE = 100;
+
+    private final TimeSeries temperature;
+    private final TimeSeries pressure;
+    private final TimeSeries humidity;
+    private final long timestampGranularity;
+
+    /**
+     * Create an unbounded history with exact timestamps.
+     */
+    public SensorHistory() {
+        this(Integer.MAX_VALUE, 1);
+    }
+
+    /**
+     * Create a history keeping at least the given number of samples per channel.
+     *
+     * @param retainedSamples      number of samples retained per channel, older blocks are dropped.
+     * @param timestampGranularity timestamps are rounded to the nearest multiple, 1 to keep them exact.
+     */
+    public SensorHistory(int retainedSamples, long timestampGranularity) {
+        if (timestampGranularity <= 0) {
+            throw new IllegalArgumentException("Timestamp granularity must be positive: " + timestampGranularity);
+        }
+        this.temperature = series(retainedSamples);
+        this.pressure = series(retainedSamples);
+        this.humidity = series(retainedSamples);
+        this.timestampGranularity = timestampGranularity;
+    }
+
+    private static TimeSeries series(final int retainedSamples) {
+        final int samplesPerBlock = 1024;
+        // One extra block, the newest one is partially filled.
+        final long blocks = ((long) retainedSamples + samplesPerBlock - 1) / samplesPerBlock + 1;
+        return new TimeSeries(samplesPerBlock, (int) Math.min(Integer.MAX_VALUE, blocks));
+    }
+
+    /**
+     * Append compensated values in the fixed-point units of {@link Compensation}.
+     *
+     * @param timestamp   sample timestamp, not before the last appended one.
+     * @param temperature temperature in hundredths of degrees Celsius.
+     * @param pressure    pressure in Pa as unsigned 24.8 fixed-point.
+     * @param humidity    humidity in percentage as unsigned 22.10 fixed-point, or a negative value if not measured.
+     */
+    public void append(long timestamp, int temperature, int pressure, int humidity) {
+        if (timestampGranularity > 1) {
+            timestamp = floorDiv(timestamp + timestampGranularity / 2, timestampGranularity) * timestampGranularity;
+        }
+        this.temperature.append(timestamp, temperature);
+        this.pressure.append(timestamp, (pressure + 128) >>> 8);
+        if (humidity >= 0) {
+            this.humidity.append(timestamp, (int) ((humidity * (long) SCALE + 512) >> 10));
+        }
+    }
+
+    /**
+     * Append a raw sample, compensating it.
+     *
+     * @param timestamp sample timestamp, not before the last appended one.
+     * @param sample    raw sample.
+     */
+    public void append(long timestamp, RawSample sample) {
+        final Calibration calibration = sample.getCalibration();
+        final int temperatureFine = sample.getTemperatureFine();
+        append(
+            timestamp,
+            Compensation.temperature(temperatureFine),
+            Compensation.pressure(sample.getRawPressure(), calibration.pressure, temperatureFine),
+            sample.getRawHumidity() < 0 ? -1 : Compensation.humidity(sample.getRawHumidity(), calibration.humidity, temperatureFine)
+        );
+    }
+
+    /**
+     * Returns the temperature series in hundredths of degrees Celsius.
+     */
+    public TimeSeries getTemperature() {
+        return temperature;
+    }
+
+    /**
+     * Returns the pressure series in Pa.
+     */
+    public TimeSeries getPressure() {
+        return pressure;
+    }
+
+    /**
+     * Returns the humidity series in hundredths of percent.
+     */
+    public TimeSeries getHumidity() {
+        return humidity;
+    }
+
+    /**
+     * Returns the number of bytes taken by all channels.
+     */
+    public long getCompressedBytes() {
+        return temperature.getCompressedBytes() + pressure.getCompressedBytes() + humidity.getCompressedBytes();
+    }
+
+    // Math.floorDiv is Java 8.
+    private static long floorDiv(final long dividend, final long divisor) {
+        final long quotient = dividend / divisor;
+        return (dividend % divisor != 0 && (dividend < 0) != (divisor < 0)) ? quotient - 1 : quotient;
+    }
+}
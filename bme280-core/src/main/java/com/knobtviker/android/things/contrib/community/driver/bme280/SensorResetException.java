@@ -0,0 +1,16 @@
+package com.knobtviker.android.things.contrib.community.driver.bme280;
+
+import java.io.IOException;
+
+/**
+ * Thrown by a read when the {@link HealthWatchdog} detected that the sensor lost its configuration.
+ * The sensor has already been reconfigured, the next conversion delivers valid data again.
+ */
+public class SensorResetException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    public SensorResetException(String message) {
+        super(message);
+    }
+}
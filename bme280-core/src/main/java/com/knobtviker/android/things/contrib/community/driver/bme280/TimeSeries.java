@@ -0,0 +1,440 @@
+package com.knobtviker.android.things.contrib.community.driver.bme280;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
+
+/**
+ * Compressed in-memory time series of a single fixed-point channel.
+ * <p>
+ * Samples are appended to blocks of a fixed sample count and bit packed: timestamps as delta-of-delta, values as
+ * the delta to the previous value, both with variable length prefix codes. At a steady sampling rate a timestamp
+ * takes a single bit and a slowly changing value a few bits, so a day of 1 Hz samples fits in tens of KB instead
+ * of the MBs of boxed lists. Codes:
+ * <pre>
+ *     timestamp delta-of-delta          value delta, zig-zag encoded
+ *     0                 0               0                  0
+ *     10   + 4 bits     [-8, 7]         10    + 2 bits     [0, 3]
+ *     110  + 8 bits     [-128, 127]     110   + 4 bits     [0, 15]
+ *     1110 + 16 bits    [-32768, 32767] 1110  + 8 bits     [0, 255]
+ *     1111 + 64 bits    any             11110 + 16 bits    [0, 65535]
+ *                                       11111 + 32 bits    any
+ * </pre>
+ * Every block keeps its time range, minimum, maximum and sum, so range scans skip blocks outside the range and
+ * downsampled queries aggregate whole blocks without decoding them. Blocks are sealed and trimmed when full, the
+ * oldest blocks are dropped beyond the retention limit.
+ * <p>
+ * Timestamps must not decrease. Instances are thread safe, visitors are called with the series locked.
+ */
+public final class TimeSeries {
+
+    private static final int DEFAULT_SAMPLES_PER_BLOCK = 1024;
+
+    /**
+     * Receives the samples of a range scan.
+     */
+    public interface Visitor {
+
+        void visit(long timestamp, int value);
+    }
+
+    /**
+     * Receives the buckets of a downsampled query. Buckets without samples are skipped.
+     */
+    public interface BucketVisitor {
+
+        /**
+         * @param bucketStart start timestamp of the bucket.
+         * @param count       number of samples in the bucket.
+         * @param min         minimum value.
+         * @param max         maximum value.
+         * @param mean        mean value.
+         */
+        void visit(long bucketStart, int count, int min, int max, double mean);
+    }
+
+    private final int samplesPerBlock;
+    private final int maxBlocks;
+    private final ArrayDeque<Block> blocks = new ArrayDeque<>();
+
+    private Block current;
+    private long size;
+
+    /**
+     * Create an unbounded series with 1024 samples per block.
+     */
+    public TimeSeries() {
+        this(DEFAULT_SAMPLES_PER_BLOCK, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Create a series.
+     *
+     * @param samplesPerBlock number of samples per block.
+     * @param maxBlocks       number of blocks retained, including the one being appended to.
+     */
+    public TimeSeries(int samplesPerBlock, int maxBlocks) {
+        if (samplesPerBlock < 2 || maxBlocks < 1) {
+            throw new IllegalArgumentException("At least 2 samples per block and 1 block are required");
+        }
+        this.samplesPerBlock = samplesPerBlock;
+        this.maxBlocks = maxBlocks;
+    }
+
+    /**
+     * Append a sample.
+     *
+     * @param timestamp sample timestamp, not before the last appended one.
+     * @param value     fixed-point value.
+     */
+    public synchronized void append(long timestamp, int value) {
+        if (current != null && timestamp < current.lastTimestamp) {
+            throw new IllegalArgumentException("Timestamp " + timestamp + " before " + current.lastTimestamp);
+        }
+        if (current == null || current.count == samplesPerBlock) {
+            if (current != null) {
+                current.seal();
+            }
+            if (blocks.size() == maxBlocks) {
+                size -= blocks.removeFirst().count;
+            }
+            current = new Block(samplesPerBlock);
+            blocks.addLast(current);
+        }
+        current.append(timestamp, value);
+        size++;
+    }
+
+    /**
+     * Returns the number of retained samples.
+     */
+    public synchronized long size() {
+        return size;
+    }
+
+    /**
+     * Returns the number of bytes taken by the encoded samples and block summaries.
+     */
+    public synchronized long getCompressedBytes() {
+        long bytes = 0;
+        for (final Block block : blocks) {
+            bytes += block.words.length * 8L + Block.SUMMARY_BYTES;
+        }
+        return bytes;
+    }
+
+    /**
+     * Returns the timestamp of the oldest retained sample, or {@link Long#MAX_VALUE} if empty.
+     */
+    public synchronized long getFirstTimestamp() {
+        return blocks.isEmpty() ? Long.MAX_VALUE : blocks.getFirst().firstTimestamp;
+    }
+
+    /**
+     * Returns the timestamp of the newest sample, or {@link Long#MIN_VALUE} if empty.
+     */
+    public synchronized long getLastTimestamp() {
+        return current == null ? Long.MIN_VALUE : current.lastTimestamp;
+    }
+
+    /**
+     * Visit the samples with timestamps in the given range, in order.
+     *
+     * @param from    first timestamp, inclusive.
+     * @param to      last timestamp, exclusive.
+     * @param visitor receives the samples.
+     */
+    public synchronized void scan(long from, long to, Visitor visitor) {
+        for (final Block block : blocks) {
+            if (block.lastTimestamp < from) {
+                continue;
+            }
+            if (block.firstTimestamp >= to) {
+                break;
+            }
+            block.scan(from, to, visitor);
+        }
+    }
+
+    /**
+     * Aggregate the samples with timestamps in the given range into fixed-width buckets aligned to {@code from}.
+     *
+     * @param from        start of the first bucket, inclusive.
+     * @param to          end of the range, exclusive.
+     * @param bucketWidth width of each bucket in the unit of the timestamps.
+     * @param visitor     receives the non-empty buckets in order.
+     */
+    public synchronized void downsample(long from, long to, long bucketWidth, BucketVisitor visitor) {
+        if (bucketWidth <= 0) {
+            throw new IllegalArgumentException("Bucket width must be positive: " + bucketWidth);
+        }
+        final Aggregate aggregate = new Aggregate(from, bucketWidth, visitor);
+        final Iterator<Block> iterator = blocks.iterator();
+        while (iterator.hasNext()) {
+            final Block block = iterator.next();
+            if (block.lastTimestamp < from) {
+                continue;
+            }
+            if (block.firstTimestamp >= to) {
+                break;
+            }
+            final long bucket = aggregate.bucketOf(block.firstTimestamp);
+            if (block.firstTimestamp >= from && block.lastTimestamp < to && bucket == aggregate.bucketOf(block.lastTimestamp)) {
+                aggregate.add(bucket, block.count, block.min, block.max, block.sum);
+            } else {
+                block.scan(from, to, aggregate);
+            }
+        }
+        aggregate.flush();
+    }
+
+    /**
+     * Running aggregate of the current bucket.
+     */
+    private static final class Aggregate implements Visitor {
+
+        private final long from;
+        private final long bucketWidth;
+        private final BucketVisitor visitor;
+
+        private long bucket = Long.MIN_VALUE;
+        private int count;
+        private int min;
+        private int max;
+        private long sum;
+
+        private Aggregate(long from, long bucketWidth, BucketVisitor visitor) {
+            this.from = from;
+            this.bucketWidth = bucketWidth;
+            this.visitor = visitor;
+        }
+
+        private long bucketOf(final long timestamp) {
+            return (timestamp - from) / bucketWidth;
+        }
+
+        @Override
+        public void visit(long timestamp, int value) {
+            add(bucketOf(timestamp), 1, value, value, value);
+        }
+
+        private void add(final long bucket, final int count, final int min, final int max, final long sum) {
+            if (bucket != this.bucket) {
+                flush();
+                this.bucket = bucket;
+                this.min = min;
+                this.max = max;
+            } else {
+                this.min = Math.min(this.min, min);
+                this.max = Math.max(this.max, max);
+            }
+            this.count += count;
+            this.sum += sum;
+        }
+
+        private void flush() {
+            if (count > 0) {
+                visitor.visit(from + bucket * bucketWidth, count, min, max, sum / (double) count);
+            }
+            count = 0;
+            sum = 0;
+        }
+    }
+
+    /**
+     * Bit packed samples with their summary. Bits are packed from the least significant bit of each word.
+     */
+    private static final class Block {
+
+        // Time range, count, min, max, sum, write position and the array header, roughly.
+        private static final int SUMMARY_BYTES = 64;
+
+        private long[] words;
+        private long bitCount;
+
+        private int count;
+        private long firstTimestamp;
+        private long lastTimestamp;
+        private long lastDelta;
+        private int firstValue;
+        private int lastValue;
+        private int min;
+        private int max;
+        private long sum;
+
+        private Block(int samplesPerBlock) {
+            // A steady series takes a few bits per sample, grow from there.
+            this.words = new long[Math.max(4, samplesPerBlock / 16)];
+        }
+
+        private void append(final long timestamp, final int value) {
+            if (count == 0) {
+                firstTimestamp = timestamp;
+                firstValue = value;
+                min = value;
+                max = value;
+            } else {
+                final long delta = timestamp - lastTimestamp;
+                writeTimestamp(delta - lastDelta);
+                writeValue(RawFrames.zigZag(value - lastValue));
+                lastDelta = delta;
+                min = Math.min(min, value);
+                max = Math.max(max, value);
+            }
+            lastTimestamp = timestamp;
+            lastValue = value;
+            sum += value;
+            count++;
+        }
+
+        private void writeTimestamp(final long deltaOfDelta) {
+            if (deltaOfDelta == 0) {
+                write(0b0, 1);
+            } else if (deltaOfDelta >= -8 && deltaOfDelta < 8) {
+                write(0b01, 2);
+                write(deltaOfDelta, 4);
+            } else if (deltaOfDelta >= -128 && deltaOfDelta < 128) {
+                write(0b011, 3);
+                write(deltaOfDelta, 8);
+            } else if (deltaOfDelta >= -32768 && deltaOfDelta < 32768) {
+                write(0b0111, 4);
+                write(deltaOfDelta, 16);
+            } else {
+                write(0b1111, 4);
+                write(deltaOfDelta, 64);
+            }
+        }
+
+        private void writeValue(final int zigZag) {
+            // Unsigned comparisons, zig-zag values of large deltas are negative ints.
+            final long delta = zigZag & 0xFFFFFFFFL;
+            if (delta == 0) {
+                write(0b0, 1);
+            } else if (delta < 4) {
+                write(0b01, 2);
+                write(delta, 2);
+            } else if (delta < 16) {
+                write(0b011, 3);
+                write(delta, 4);
+            } else if (delta < 256) {
+                write(0b0111, 4);
+                write(delta, 8);
+            } else if (delta < 65536) {
+                write(0b01111, 5);
+                write(delta, 16);
+            } else {
+                write(0b11111, 5);
+                write(delta, 32);
+            }
+        }
+
+        private void write(final long value, final int bits) {
+            final long masked = bits == 64 ? value : value & ((1L << bits) - 1);
+            final int index = (int) (bitCount >>> 6);
+            final int offset = (int) (bitCount & 63);
+            if (index + 1 >= words.length) {
+                words = Arrays.copyOf(words, words.length * 2);
+            }
+            words[index] |= masked << offset;
+            if (offset + bits > 64) {
+                words[index + 1] |= masked >>> (64 - offset);
+            }
+            bitCount += bits;
+        }
+
+        /**
+         * Trim the words to the written bits.
+         */
+        private void seal() {
+            words = Arrays.copyOf(words, (int) ((bitCount + 63) >>> 6));
+        }
+
+        private void scan(final long from, final long to, final Visitor visitor) {
+            final Reader reader = new Reader(words);
+            long timestamp = firstTimestamp;
+            int value = firstValue;
+            long delta = 0;
+            for (int i = 0; i < count; i++) {
+                if (i > 0) {
+                    delta += reader.readTimestamp();
+                    timestamp += delta;
+                    value += RawFrames.unZigZag(reader.readValue());
+                }
+                if (timestamp >= to) {
+                    return;
+                }
+                if (timestamp >= from) {
+                    visitor.visit(timestamp, value);
+                }
+            }
+        }
+    }
+
+    private static final class Reader {
+
+        private final long[] words;
+        private long position;
+
+        private Reader(long[] words) {
+            this.words = words;
+        }
+
+        /**
+         * Returns the number of leading one bits of a prefix code, up to the given maximum.
+         */
+        private int prefix(final int max) {
+            int ones = 0;
+            while (ones < max && read(1) == 1) {
+                ones++;
+            }
+            return ones;
+        }
+
+        private long readTimestamp() {
+            switch (prefix(4)) {
+                case 0:
+                    return 0;
+                case 1:
+                    return signExtend(read(4), 4);
+                case 2:
+                    return signExtend(read(8), 8);
+                case 3:
+                    return signExtend(read(16), 16);
+                default:
+                    return read(64);
+            }
+        }
+
+        private int readValue() {
+            switch (prefix(5)) {
+                case 0:
+                    return 0;
+                case 1:
+                    return (int) read(2);
+                case 2:
+                    return (int) read(4);
+                case 3:
+                    return (int) read(8);
+                case 4:
+                    return (int) read(16);
+                default:
+                    return (int) read(32);
+            }
+        }
+
+        private long read(final int bits) {
+            final int index = (int) (position >>> 6);
+            final int offset = (int) (position & 63);
+            long value = words[index] >>> offset;
+            if (offset + bits > 64) {
+                value |= words[index + 1] << (64 - offset);
+            }
+            position += bits;
+            return bits == 64 ? value : value & ((1L << bits) - 1);
+        }
+
+        private static long signExtend(final long value, final int bits) {
+            return value << (64 - bits) >> (64 - bits);
+        }
+    }
+}
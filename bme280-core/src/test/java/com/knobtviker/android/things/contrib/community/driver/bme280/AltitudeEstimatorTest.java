@@ -0,0 +1,224 @@
+package com.knobtviker.android.things.contrib.community.driver.bme280;
+
+import org.junit.Assert;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Locale;
+import java.util.Random;
+
+public class AltitudeEstimatorTest {
+
+    private static final long PERIOD_NANOS = 20000000L;
+    private static final int RATE_HZ = 50;
+    // 0.012 hPa, about 0.1 m of altitude, the unfiltered pressure noise at 16x oversampling.
+    private static final double PRESSURE_NOISE_HPA = 0.012;
+
+    // Climbs 31.25 m, accelerating and braking with 1 m/s2 around a 2.5 m/s cruise.
+    private static final double ACCELERATION = 1.0;
+    private static final double ACCELERATION_START = 5.0;
+    private static final double CRUISE_START = 7.5;
+    private static final double BRAKE_START = 17.5;
+    private static final double STOP = 20.0;
+    private static final double CLIMB = 31.25;
+
+    @Test
+    public void tracksElevatorTrace() {
+        final AltitudeEstimator estimator = new AltitudeEstimator(0.3f, 0.1f);
+        final Random random = new Random(1);
+        double cruiseSpeedError = 0;
+        int cruiseSamples = 0;
+        double restAltitudeError = 0;
+        double restSpeedError = 0;
+        int restSamples = 0;
+        for (int i = 0; i < 30 * RATE_HZ; i++) {
+            final double time = i / (double) RATE_HZ;
+            // Up to 2 ms of scheduling jitter.
+            final long timestamp = i * PERIOD_NANOS + random.nextInt(2000000);
+            estimator.update(timestamp, pressure(elevatorAltitude(timestamp / 1e9), random));
+
+            if (time >= CRUISE_START + 2 && time < BRAKE_START) {
+                cruiseSpeedError += square(estimator.getVerticalSpeed() - elevatorSpeed(timestamp / 1e9));
+                cruiseSamples++;
+            }
+            if (time >= STOP + 3) {
+                restAltitudeError += square(estimator.getAltitude() - CLIMB);
+                restSpeedError += square(estimator.getVerticalSpeed());
+                restSamples++;
+            }
+        }
+        final double cruiseSpeedRms = Math.sqrt(cruiseSpeedError / cruiseSamples);
+        final double restAltitudeRms = Math.sqrt(restAltitudeError / restSamples);
+        final double restSpeedRms = Math.sqrt(restSpeedError / restSamples);
+        Assert.assertTrue("cruise speed error " + cruiseSpeedRms, cruiseSpeedRms < 0.1);
+        Assert.assertTrue("altitude error " + restAltitudeRms, restAltitudeRms < 0.05);
+        Assert.assertTrue("speed error " + restSpeedRms, restSpeedRms < 0.15);
+    }
+
+    @Test
+    public void accelerationNoiseTradesLatencyForNoise() {
+        // Smooth and responsive tunings.
+        final AltitudeEstimator[] clean = {new AltitudeEstimator(0.1f, 0.1f), new AltitudeEstimator(3f, 0.1f)};
+        final AltitudeEstimator[] noisy = {new AltitudeEstimator(0.1f, 0.1f), new AltitudeEstimator(3f, 0.1f)};
+        final long[] lagNanos = new long[2];
+        final double[] restSpeedError = new double[2];
+        final Random random = new Random(2);
+        for (int i = 0; i < 15 * RATE_HZ; i++) {
+            final long timestamp = i * PERIOD_NANOS;
+            final double altitude = elevatorAltitude(timestamp / 1e9);
+            for (int e = 0; e < 2; e++) {
+                // Latency on the noiseless trace, noise of the speed at rest on the noisy one.
+                clean[e].update(timestamp, pressure(altitude, null));
+                noisy[e].update(timestamp, pressure(altitude, random));
+                if (timestamp >= 2000000000L && timestamp < ACCELERATION_START * 1e9) {
+                    restSpeedError[e] += square(noisy[e].getVerticalSpeed());
+                }
+                // Half the cruise speed, reached 1.25 s after the acceleration starts.
+                if (lagNanos[e] == 0 && clean[e].getVerticalSpeed() >= 1.25) {
+                    lagNanos[e] = timestamp - 6250000000L;
+                }
+            }
+        }
+        Assert.assertTrue("lag " + lagNanos[0] + " " + lagNanos[1], lagNanos[1] < lagNanos[0] / 3);
+        Assert.assertTrue("speed noise " + restSpeedError[0] + " " + restSpeedError[1], restSpeedError[1] > 10 * restSpeedError[0]);
+    }
+
+    @Test
+    public void reportsConsistentUncertainty() {
+        final AltitudeEstimator estimator = new AltitudeEstimator(1f, 0.1f);
+        final Random random = new Random(3);
+        int inside = 0;
+        int samples = 0;
+        for (int i = 0; i < 60 * RATE_HZ; i++) {
+            final long timestamp = i * PERIOD_NANOS;
+            // Drone climbing and descending, a 2 m/s sine with a 10 s period.
+            final double time = timestamp / 1e9;
+            final double altitude = 100 - 2 * 10 / (2 * Math.PI) * Math.cos(2 * Math.PI * time / 10);
+            estimator.update(timestamp, pressure(altitude, random));
+            if (time >= 5) {
+                final double speed = 2 * Math.sin(2 * Math.PI * time / 10);
+                if (Math.abs(estimator.getVerticalSpeed() - speed) <= 2 * estimator.getVerticalSpeedStdDev()) {
+                    inside++;
+                }
+                samples++;
+            }
+        }
+        Assert.assertTrue("inside " + inside + " of " + samples, inside >= 0.9 * samples);
+    }
+
+    @Test
+    public void bridgesGaps() {
+        final AltitudeEstimator estimator = new AltitudeEstimator(1f, 0.1f);
+        final Random random = new Random(4);
+        // Steady 3 m/s descent, with the samples of a whole second missing.
+        for (int i = 0; i < 10 * RATE_HZ; i++) {
+            if (i >= 8 * RATE_HZ && i < 9 * RATE_HZ) {
+                continue;
+            }
+            final long timestamp = i * PERIOD_NANOS;
+            estimator.update(timestamp, pressure(200 - 3 * timestamp / 1e9, random));
+            if (i == 9 * RATE_HZ) {
+                Assert.assertEquals(173, estimator.getAltitude(), 0.2);
+                Assert.assertEquals(-3, estimator.getVerticalSpeed(), 0.3);
+            }
+        }
+    }
+
+    @Test
+    public void resetStartsNewEstimate() {
+        final AltitudeEstimator estimator = new AltitudeEstimator(1f, 0.1f);
+        Assert.assertFalse(estimator.isInitialized());
+        estimator.updateAltitude(1000, 10f);
+        estimator.updateAltitude(2000, 10f);
+        estimator.reset();
+        estimator.updateAltitude(0, 50f);
+        Assert.assertEquals(50f, estimator.getAltitude(), 0f);
+        Assert.assertEquals(0f, estimator.getVerticalSpeed(), 0f);
+        Assert.assertEquals(AltitudeEstimator.INITIAL_VERTICAL_SPEED_STD_DEV, estimator.getVerticalSpeedStdDev(), 1e-6f);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsDecreasingTimestamps() {
+        final AltitudeEstimator estimator = new AltitudeEstimator(1f, 0.1f);
+        estimator.updateAltitude(10, 0f);
+        estimator.updateAltitude(9, 0f);
+    }
+
+    @Test
+    @Ignore("Benchmark, run manually")
+    public void benchmark() {
+        final int count = 1 << 16;
+        final float[] pressures = new float[count];
+        final Random random = new Random(5);
+        for (int i = 0; i < count; i++) {
+            pressures[i] = pressure(elevatorAltitude(i % (30 * RATE_HZ) / (double) RATE_HZ), random);
+        }
+
+        final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        final AltitudeEstimator estimator = new AltitudeEstimator(1f, 0.1f);
+        float sink = 0;
+        for (int round = 0; round < 20; round++) {
+            final long allocatedBefore = allocatedBytes(threads);
+            final long start = System.nanoTime();
+            for (int i = 0; i < count; i++) {
+                estimator.update((round * (long) count + i) * PERIOD_NANOS, pressures[i]);
+                sink += estimator.getVerticalSpeed();
+            }
+            final long elapsed = System.nanoTime() - start;
+            final long allocated = allocatedBytes(threads) - allocatedBefore;
+            System.out.println(String.format(Locale.US, "update %6.1f ns/sample, %d bytes allocated", elapsed / (double) count, allocated));
+        }
+        System.out.println(sink);
+    }
+
+    private static long allocatedBytes(final ThreadMXBean threads) {
+        return threads instanceof com.sun.management.ThreadMXBean
+            ? ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId())
+            : -1;
+    }
+
+    private static double elevatorAltitude(final double time) {
+        if (time < ACCELERATION_START) {
+            return 0;
+        }
+        if (time < CRUISE_START) {
+            return ACCELERATION * square(time - ACCELERATION_START) / 2;
+        }
+        final double cruiseSpeed = ACCELERATION * (CRUISE_START - ACCELERATION_START);
+        final double cruiseStartAltitude = cruiseSpeed * (CRUISE_START - ACCELERATION_START) / 2;
+        if (time < BRAKE_START) {
+            return cruiseStartAltitude + cruiseSpeed * (time - CRUISE_START);
+        }
+        if (time < STOP) {
+            return CLIMB - ACCELERATION * square(STOP - time) / 2;
+        }
+        return CLIMB;
+    }
+
+    private static double elevatorSpeed(final double time) {
+        if (time < ACCELERATION_START || time >= STOP) {
+            return 0;
+        }
+        if (time < CRUISE_START) {
+            return ACCELERATION * (time - ACCELERATION_START);
+        }
+        if (time < BRAKE_START) {
+            return ACCELERATION * (CRUISE_START - ACCELERATION_START);
+        }
+        return ACCELERATION * (STOP - time);
+    }
+
+    /**
+     * Returns the pressure in hPa at the given altitude in the standard atmosphere, noisy unless random is null.
+     */
+    private static float pressure(final double altitude, final Random random) {
+        final double pressure = DerivedQuantities.STANDARD_SEA_LEVEL_PRESSURE_HPA * Math.pow(1 - altitude / 44330.0, 5.255);
+        return (float) (random == null ? pressure : pressure + PRESSURE_NOISE_HPA * random.nextGaussian());
+    }
+
+    private static double square(final double value) {
+        return value * value;
+    }
+}
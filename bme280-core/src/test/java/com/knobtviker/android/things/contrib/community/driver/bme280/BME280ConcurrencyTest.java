@@ -0,0 +1,283 @@
+package com.knobtviker.android.things.contrib.community.driver.bme280;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class BME280ConcurrencyTest {
+
+    private static final int[] TEMPERATURE_CALIBRATION = {27504, 26435, -1000};
+    private static final int[] PRESSURE_CALIBRATION = {36477, -10685, 3024, 2855, 140, -7, 15500, -14600, 6000};
+    private static final int[] HUMIDITY_CALIBRATION = {75, 363, 0, 315, 50, 30};
+
+    private static final int RAW_HUMIDITY = 28437;
+    private static final int RAW_TEMPERATURE = 519888;
+    private static final int RAW_PRESSURE = 415148;
+
+    private static final int THREADS = 16;
+    private static final int ITERATIONS = 500;
+
+    @Test
+    public void concurrentReadsAndReconfiguration() throws Exception {
+        final TransactionCheckingDevice device = new TransactionCheckingDevice();
+        final BME280Device bme280 = new BME280Device(device);
+
+        final int temperatureFine = Compensation.temperatureFine(RAW_TEMPERATURE, TEMPERATURE_CALIBRATION);
+        final float expectedTemperature = Compensation.temperature(temperatureFine) / 100.0f;
+        final float expectedPressure = Compensation.pressure(RAW_PRESSURE, PRESSURE_CALIBRATION, temperatureFine) / 25600.0f;
+        final float expectedHumidity = Compensation.humidity(RAW_HUMIDITY, HUMIDITY_CALIBRATION, temperatureFine) / 1024.0f;
+
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        final List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            final int role = t % 4;
+            final Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        for (int i = 0; i < ITERATIONS; i++) {
+                            switch (role) {
+                                case 0:
+                                    final float[] all = bme280.readAll();
+                                    Assert.assertEquals(expectedTemperature, all[0], 0f);
+                                    Assert.assertEquals(expectedHumidity, all[1], 0f);
+                                    Assert.assertEquals(expectedPressure, all[2], 0f);
+                                    break;
+                                case 1:
+                                    final float[] forced = bme280.takeForcedMeasurement();
+                                    Assert.assertEquals(expectedTemperature, forced[0], 0f);
+                                    Assert.assertEquals(expectedPressure, forced[2], 0f);
+                                    break;
+                                case 2:
+                                    if (i % 2 == 0) {
+                                        bme280.setSamplingWeatherStation();
+                                    } else {
+                                        bme280.setSamplingIndoorNavigation();
+                                    }
+                                    break;
+                                default:
+                                    Assert.assertEquals(expectedTemperature, bme280.readTemperature(), 0f);
+                                    Assert.assertEquals(expectedPressure, bme280.readTemperatureAndPressure()[1], 0f);
+                                    Assert.assertEquals(expectedHumidity, bme280.readHumidity(), 0f);
+                                    break;
+                            }
+                        }
+                    } catch (Throwable e) {
+                        failure.compareAndSet(null, e);
+                    }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+
+        start.countDown();
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+        Assert.assertEquals(0, device.violations.get());
+
+        // Forced measurements resume the configured normal mode
+        Assert.assertEquals(BME280Device.MODE_NORMAL, device.registers[BME280Device.BME280_REG_CTRL] & 0x03);
+        Assert.assertEquals(bme280.getSamplingConfig().ctrlMeas(), device.registers[BME280Device.BME280_REG_CTRL] & 0xff);
+        bme280.close();
+    }
+
+    @Test
+    public void concurrentReadsShareOneBurst() throws Exception {
+        final TransactionCheckingDevice device = new TransactionCheckingDevice();
+        final BME280Device bme280 = new BME280Device(device);
+        final CountDownLatch burstEntered = new CountDownLatch(1);
+        final CountDownLatch burstGate = new CountDownLatch(1);
+        device.burstEntered = burstEntered;
+        device.burstGate = burstGate;
+
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        final List<float[]> results = new ArrayList<>();
+        final List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            final Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        final float[] values = bme280.readAll();
+                        synchronized (results) {
+                            results.add(values);
+                        }
+                    } catch (Throwable e) {
+                        failure.compareAndSet(null, e);
+                    }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+            if (t == 0) {
+                burstEntered.await();
+            }
+        }
+        // Release the first burst once every other reader is queued on the bus lock.
+        for (final Thread thread : threads.subList(1, THREADS)) {
+            while (thread.getState() != Thread.State.BLOCKED) {
+                Thread.sleep(1);
+            }
+        }
+        burstGate.countDown();
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+        Assert.assertEquals(1, device.bursts.get());
+        Assert.assertEquals(THREADS - 1, bme280.getCoalescedReadCount());
+        Assert.assertEquals(THREADS, results.size());
+        for (final float[] values : results) {
+            Assert.assertArrayEquals(results.get(0), values, 0f);
+        }
+
+        // A read requested after the burst completed reads the bus again.
+        bme280.readAll();
+        Assert.assertEquals(2, device.bursts.get());
+        bme280.close();
+    }
+
+    /**
+     * Register backed device that counts overlapping calls and configuration writes from other threads
+     * between a forced conversion trigger and its data read.
+     */
+    private static class TransactionCheckingDevice implements RegisterBus {
+
+        private final byte[] registers = new byte[256];
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private final AtomicInteger violations = new AtomicInteger();
+        private volatile Thread forcedOwner;
+        private final AtomicInteger bursts = new AtomicInteger();
+        private volatile CountDownLatch burstEntered;
+        private volatile CountDownLatch burstGate;
+
+        TransactionCheckingDevice() {
+            registers[0xD0] = (byte) BME280Device.CHIP_ID_BME280;
+            // Status measuring bit clear, conversions complete immediately
+            registers[0xF3] = 0x00;
+            putWords(0x88, TEMPERATURE_CALIBRATION);
+            putWords(0x8E, PRESSURE_CALIBRATION);
+            registers[0xA1] = (byte) HUMIDITY_CALIBRATION[0];
+            registers[0xE1] = (byte) HUMIDITY_CALIBRATION[1];
+            registers[0xE2] = (byte) (HUMIDITY_CALIBRATION[1] >> 8);
+            registers[0xE3] = (byte) HUMIDITY_CALIBRATION[2];
+            registers[0xE4] = (byte) (HUMIDITY_CALIBRATION[3] >> 4);
+            registers[0xE5] = (byte) ((HUMIDITY_CALIBRATION[3] & 0x0F) | ((HUMIDITY_CALIBRATION[4] & 0x0F) << 4));
+            registers[0xE6] = (byte) (HUMIDITY_CALIBRATION[4] >> 4);
+            registers[0xE7] = (byte) HUMIDITY_CALIBRATION[5];
+            put20(0xF7, RAW_PRESSURE);
+            put20(0xFA, RAW_TEMPERATURE);
+            registers[0xFD] = (byte) (RAW_HUMIDITY >> 8);
+            registers[0xFE] = (byte) RAW_HUMIDITY;
+        }
+
+        private void putWords(final int address, final int[] words) {
+            for (int i = 0; i < words.length; i++) {
+                registers[address + 2 * i] = (byte) words[i];
+                registers[address + 2 * i + 1] = (byte) (words[i] >> 8);
+            }
+        }
+
+        private void put20(final int address, final int value) {
+            registers[address] = (byte) (value >> 12);
+            registers[address + 1] = (byte) (value >> 4);
+            registers[address + 2] = (byte) (value << 4);
+        }
+
+        private void enter() {
+            if (inFlight.incrementAndGet() != 1) {
+                violations.incrementAndGet();
+            }
+            // Widen the window for interleaving
+            Thread.yield();
+        }
+
+        private void exit() {
+            inFlight.decrementAndGet();
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public void readRegBuffer(int reg, byte[] buffer, int length) throws IOException {
+            enter();
+            try {
+                if (forcedOwner != null && forcedOwner != Thread.currentThread()) {
+                    violations.incrementAndGet();
+                }
+                forcedOwner = null;
+                if (reg == 0xF7 && length == 8) {
+                    bursts.incrementAndGet();
+                    final CountDownLatch burstGate = this.burstGate;
+                    if (burstGate != null) {
+                        this.burstGate = null;
+                        burstEntered.countDown();
+                        burstGate.await();
+                    }
+                }
+                System.arraycopy(registers, reg, buffer, 0, length);
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            } finally {
+                exit();
+            }
+        }
+
+        @Override
+        public byte readRegByte(int reg) {
+            enter();
+            try {
+                return registers[reg];
+            } finally {
+                exit();
+            }
+        }
+
+        @Override
+        public short readRegWord(int reg) {
+            enter();
+            try {
+                return (short) ((registers[reg] & 0xff) | (registers[reg + 1] << 8));
+            } finally {
+                exit();
+            }
+        }
+
+        @Override
+        public void writeRegByte(int reg, byte data) {
+            enter();
+            try {
+                if (forcedOwner != null && forcedOwner != Thread.currentThread()) {
+                    violations.incrementAndGet();
+                }
+                if (reg == BME280Device.BME280_REG_CTRL && (data & 0x03) == BME280Device.MODE_FORCED) {
+                    forcedOwner = Thread.currentThread();
+                }
+                if (reg != 0xE0) {
+                    registers[reg] = data;
+                }
+            } finally {
+                exit();
+            }
+        }
+    }
+}
@@ -0,0 +1,360 @@
+package com.knobtviker.android.things.contrib.community.driver.bme280;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+
+public class BME280SimulatorTest {
+
+    private static final int REG_SOFTRESET = 0xE0;
+    private static final int REG_CTRL_HUM = 0xF2;
+    private static final int REG_STATUS = 0xF3;
+    private static final int REG_CTRL_MEAS = 0xF4;
+    private static final int REG_CONFIG = 0xF5;
+    private static final int REG_PRESS = 0xF7;
+
+    private ManualTicker ticker;
+    private BME280Simulator simulator;
+
+    @Before
+    public void setUp() {
+        ticker = new ManualTicker();
+        simulator = new BME280Simulator(BME280Simulator.defaultCalibration(), ticker);
+        ticker.advanceMicros(BME280Simulator.NVM_COPY_NANOS / 1000);
+    }
+
+    @Test
+    public void driverReadsWaveformValues() throws IOException {
+        simulator.setTemperature(BME280Simulator.constant(23.5));
+        simulator.setPressure(BME280Simulator.constant(985.2));
+        simulator.setHumidity(BME280Simulator.constant(55.0));
+
+        final BME280Device bme280 = new BME280Device(simulator);
+        ticker.advanceMicros(200000);
+
+        final float[] values = bme280.readAll();
+        Assert.assertEquals(23.5f, values[0], 0.01f);
+        Assert.assertEquals(55.0f, values[1], 0.01f);
+        Assert.assertEquals(985.2f, values[2], 0.01f);
+        Assert.assertEquals(23.5f, bme280.readTemperature(), 0.01f);
+        Assert.assertEquals(985.2f, bme280.readPressure(), 0.01f);
+        Assert.assertEquals(55.0f, bme280.readHumidity(), 0.01f);
+    }
+
+    @Test
+    public void multiRatePressureReusesTemperatureFine() throws IOException {
+        final double temperatureSlope = 0.5;
+        simulator.setTemperature(BME280Simulator.ramp(20.0 - temperatureSlope * ticker.nanoTime() / 1e9, temperatureSlope));
+        simulator.setPressure(BME280Simulator.constant(1000.0));
+
+        final ByteCountingBus bus = new ByteCountingBus(simulator);
+        final BME280Device bme280 = new BME280Device(bus);
+        bme280.setSampling(new SamplingConfig(BME280Device.MODE_NORMAL,
+            BME280Device.OVERSAMPLING_1X, BME280Device.OVERSAMPLING_1X, BME280Device.OVERSAMPLING_1X,
+            BME280Device.FILTER_OFF, BME280Device.STANDBY_MS_0_5));
+        bme280.setTemperatureDecimation(10);
+        bus.bytes = 0;
+
+        final long intervalMicros = 10000;
+        float maxError = 0f;
+        for (int i = 0; i < 100; i++) {
+            ticker.advanceMicros(intervalMicros);
+            final float error = Math.abs(bme280.readPressure() - 1000f);
+            // Temperature changed for up to 9 reads since the last refresh, plus one conversion period.
+            final double temperatureChange = temperatureSlope * ((i % 10) * intervalMicros + intervalMicros) / 1e6;
+            Assert.assertTrue("error " + error + " at " + i,
+                error <= BME280Device.MULTI_RATE_PRESSURE_ERROR_HPA_PER_C * temperatureChange + BME280Device.RESOLUTION_PRESSURE_HPA);
+            maxError = Math.max(maxError, error);
+        }
+        Assert.assertTrue(maxError > BME280Device.RESOLUTION_PRESSURE_HPA);
+        // 10 temperature and pressure reads and 90 pressure only reads
+        Assert.assertEquals(10 * 6 + 90 * 3, bus.bytes);
+
+        bme280.setTemperatureDecimation(1);
+        bus.bytes = 0;
+        ticker.advanceMicros(intervalMicros);
+        Assert.assertEquals(1000f, bme280.readPressure(), BME280Device.RESOLUTION_PRESSURE_HPA);
+        Assert.assertEquals(6, bus.bytes);
+    }
+
+    @Test
+    public void bmp280SkipsHumidity() throws IOException {
+        simulator = new BME280Simulator(BME280Simulator.defaultCalibration(), ticker, BME280Device.CHIP_ID_BMP280);
+        ticker.advanceMicros(BME280Simulator.NVM_COPY_NANOS / 1000);
+        simulator.setTemperature(BME280Simulator.constant(23.5));
+        simulator.setPressure(BME280Simulator.constant(985.2));
+
+        final ByteCountingBus bus = new ByteCountingBus(simulator);
+        final BME280Device bmp280 = new BME280Device(bus);
+        Assert.assertSame(ChipProfile.BMP280, bmp280.getChipProfile());
+        Assert.assertArrayEquals(new int[6], bmp280.getCalibration().humidity);
+        Assert.assertEquals(BME280Device.OVERSAMPLING_SKIPPED, bmp280.getSamplingConfig().getOversamplingHumidity());
+        ticker.advanceMicros(200000);
+
+        bus.bytes = 0;
+        final float[] values = bmp280.readAll();
+        Assert.assertEquals(23.5f, values[0], 0.01f);
+        Assert.assertTrue(Float.isNaN(values[1]));
+        Assert.assertEquals(985.2f, values[2], 0.01f);
+        Assert.assertEquals(6, bus.bytes);
+
+        final float[] forced = bmp280.takeForcedMeasurement();
+        Assert.assertEquals(985.2f, forced[2], 0.01f);
+        Assert.assertTrue(Float.isNaN(bmp280.readRawSample().getHumidity()));
+        Assert.assertEquals(0, bus.ctrlHumWrites);
+
+        try {
+            bmp280.readHumidity();
+            Assert.fail("BMP280 has no humidity");
+        } catch (IllegalStateException expected) {
+        }
+    }
+
+    @Test
+    public void bmp280LongStandbyTiming() throws IOException {
+        simulator = new BME280Simulator(BME280Simulator.defaultCalibration(), ticker, BME280Device.CHIP_ID_BMP280);
+        ticker.advanceMicros(BME280Simulator.NVM_COPY_NANOS / 1000);
+        final double start = ticker.nanoTime() / 1e9;
+        simulator.setTemperature(BME280Simulator.ramp(20.0 - start, 1.0));
+        simulator.setPressure(BME280Simulator.constant(1000.0));
+
+        final BME280Device bmp280 = new BME280Device(simulator);
+        final JitterHistogram histogram = new JitterHistogram(1000000, 16);
+        bmp280.setJitterHistogram(histogram);
+        // Standby code 0b110 is 10 ms on a BME280 and 2 s on a BMP280.
+        final SamplingConfig config = new SamplingConfig(BME280Device.MODE_NORMAL,
+            BME280Device.OVERSAMPLING_1X, BME280Device.OVERSAMPLING_1X, BME280Device.OVERSAMPLING_SKIPPED,
+            BME280Device.FILTER_OFF, BME280Device.STANDBY_MS_10);
+        bmp280.setSampling(config);
+
+        final long periodMicros = config.getMeasurementTimeTypicalMicros() + 2000000;
+        Assert.assertEquals(2000000, config.getStandbyMicros(ChipProfile.BMP280));
+        Assert.assertEquals(1000000f / periodMicros, config.getOutputDataRateHz(ChipProfile.BMP280), 1e-6f);
+        Assert.assertEquals(periodMicros * 1000L, histogram.getExpectedPeriodNanos());
+
+        // The first conversion stays in the data registers for the whole standby time.
+        ticker.advanceMicros(1500000);
+        Assert.assertEquals(20f, bmp280.readTemperature(), 0.02f);
+        ticker.advanceMicros(1000000);
+        Assert.assertEquals(20f + periodMicros / 1e6f, bmp280.readTemperature(), 0.02f);
+    }
+
+    @Test
+    public void sampleReusedWithinConversionPeriod() throws IOException {
+        final ByteCountingBus bus = new ByteCountingBus(simulator);
+        final BME280Device bme280 = new BME280Device(bus);
+        // Conversion period above one second, the reuse window is measured with the system clock.
+        bme280.setSampling(new SamplingConfig.Builder(SamplingConfig.PRESET_NORMAL)
+            .standbyDuration(BME280Device.STANDBY_MS_1000)
+            .build());
+        bme280.setSampleReuse(true);
+        bus.bytes = 0;
+
+        final RawSample first = bme280.readRawSample();
+        Assert.assertEquals(8, bus.bytes);
+        Assert.assertSame(first, bme280.readRawSample());
+        Assert.assertEquals(first.getTemperature(), bme280.readAll()[0], 0f);
+        Assert.assertEquals(8, bus.bytes);
+        Assert.assertEquals(2, bme280.getCoalescedReadCount());
+
+        // Reconfiguration drops the sample.
+        bme280.setSamplingNormal();
+        Assert.assertNotSame(first, bme280.readRawSample());
+        Assert.assertEquals(16, bus.bytes);
+
+        bme280.setSampleReuse(false);
+        bme280.readAll();
+        Assert.assertEquals(24, bus.bytes);
+    }
+
+    @Test
+    public void readIfNewReturnsEachConversionOnce() throws IOException, InterruptedException {
+        // Conversion tracking runs on the system clock.
+        final BME280Simulator simulator = new BME280Simulator();
+        simulator.setTemperature(BME280Simulator.ramp(20.0 - System.nanoTime() / 1e9, 1.0));
+        final ByteCountingBus bus = new ByteCountingBus(simulator);
+        final BME280Device bme280 = new BME280Device(bus);
+        // 8 ms conversions every 70.5 ms
+        bme280.setSampling(new SamplingConfig(BME280Device.MODE_NORMAL,
+            BME280Device.OVERSAMPLING_1X, BME280Device.OVERSAMPLING_1X, BME280Device.OVERSAMPLING_1X,
+            BME280Device.FILTER_OFF, BME280Device.STANDBY_MS_62_5));
+        bus.bytes = 0;
+        bus.statusReads = 0;
+
+        final long conversionsBefore = simulator.getConversionCount();
+        int polls = 0;
+        int samples = 0;
+        int duplicates = 0;
+        final long end = System.nanoTime() + 1000000000L;
+        while (System.nanoTime() - end < 0) {
+            final RawSample sample = bme280.readIfNew();
+            polls++;
+            if (sample != null) {
+                samples++;
+                duplicates += sample.isDuplicate() ? 1 : 0;
+            }
+            Thread.sleep(1);
+        }
+        final long conversions = simulator.getConversionCount() - conversionsBefore;
+
+        // Only polls delayed beyond a measurement time can read repeated data.
+        Assert.assertTrue(duplicates + " duplicates", duplicates <= 2);
+        Assert.assertEquals(samples * 8, bus.bytes);
+        final int fresh = samples - duplicates;
+        Assert.assertTrue(fresh + " samples, " + conversions + " conversions", fresh <= conversions + 1 && fresh >= conversions - 1);
+        Assert.assertTrue(bus.statusReads + " status reads, " + polls + " polls", bus.statusReads < polls / 2);
+
+        // Polled slower than the conversions, every read is new.
+        for (int i = 0; i < 3; i++) {
+            Thread.sleep(150);
+            final RawSample sample = bme280.readIfNew();
+            Assert.assertNotNull(sample);
+            Assert.assertFalse(sample.isDuplicate());
+        }
+
+        bme280.setSampling(bme280.getSamplingConfig().withMode(BME280Device.MODE_FORCED));
+        try {
+            bme280.readIfNew();
+            Assert.fail("readIfNew requires normal mode");
+        } catch (IllegalStateException expected) {
+        }
+    }
+
+    @Test
+    public void reconfigureWritesConfigInSleepMode() throws IOException {
+        final BME280Device bme280 = new BME280Device(simulator);
+        Assert.assertEquals(SamplingConfig.PRESET_NORMAL, simulator.getActiveConfig());
+
+        // Filter and standby live in the config register, ignored while sampling in normal mode.
+        final SamplingConfig config = new SamplingConfig.Builder(SamplingConfig.PRESET_INDOOR_NAVIGATION)
+            .standbyDuration(BME280Device.STANDBY_MS_62_5)
+            .build();
+        final long before = System.nanoTime();
+        final long firstValid = bme280.reconfigure(config);
+        Assert.assertEquals(config, simulator.getActiveConfig());
+        Assert.assertTrue(firstValid - before >= config.getSettlingTimeMicros() * 1000L);
+        Assert.assertEquals(firstValid, bme280.getFirstValidSampleNanos());
+        // The filter warms up for 22 conversions of 108.6 ms.
+        Assert.assertNull(bme280.readIfNew());
+
+        bme280.setSamplingWeatherStation();
+        Assert.assertEquals(SamplingConfig.PRESET_WEATHER_STATION, simulator.getActiveConfig());
+    }
+
+    @Test
+    public void forcedConversionFollowsDatasheetTiming() throws IOException {
+        final SamplingConfig config = new SamplingConfig(BME280Device.MODE_FORCED,
+            BME280Device.OVERSAMPLING_1X, BME280Device.OVERSAMPLING_1X, BME280Device.OVERSAMPLING_1X,
+            BME280Device.FILTER_OFF, BME280Device.STANDBY_MS_0_5);
+        Assert.assertEquals(8000, config.getMeasurementTimeTypicalMicros());
+        Assert.assertEquals(9300, config.getMeasurementTimeMaxMicros());
+
+        simulator.writeRegByte(REG_CTRL_HUM, (byte) config.ctrlHum());
+        simulator.writeRegByte(REG_CTRL_MEAS, (byte) config.ctrlMeas());
+        Assert.assertEquals(0x08, simulator.readRegByte(REG_STATUS));
+        Assert.assertEquals(0x80, simulator.readRegByte(REG_PRESS) & 0xff);
+
+        ticker.advanceMicros(7999);
+        Assert.assertEquals(0x08, simulator.readRegByte(REG_STATUS));
+        Assert.assertEquals(0, simulator.getConversionCount());
+
+        ticker.advanceMicros(1);
+        Assert.assertEquals(0, simulator.readRegByte(REG_STATUS));
+        Assert.assertEquals(1, simulator.getConversionCount());
+        Assert.assertEquals(BME280Device.MODE_SLEEP, simulator.readRegByte(REG_CTRL_MEAS) & 0x03);
+        Assert.assertNotEquals(0x80, simulator.readRegByte(REG_PRESS) & 0xff);
+    }
+
+    @Test
+    public void normalModeRepeatsConversions() throws IOException {
+        final SamplingConfig config = new SamplingConfig(BME280Device.MODE_NORMAL,
+            BME280Device.OVERSAMPLING_1X, BME280Device.OVERSAMPLING_1X, BME280Device.OVERSAMPLING_SKIPPED,
+            BME280Device.FILTER_OFF, BME280Device.STANDBY_MS_10);
+        // 1 + 2 + 2.5 ms conversion followed by 10 ms standby
+        simulator.writeRegByte(REG_CTRL_HUM, (byte) config.ctrlHum());
+        simulator.writeRegByte(REG_CONFIG, (byte) config.config());
+        simulator.writeRegByte(REG_CTRL_MEAS, (byte) config.ctrlMeas());
+
+        ticker.advanceMicros(5500);
+        Assert.assertEquals(0, simulator.readRegByte(REG_STATUS));
+        Assert.assertEquals(1, simulator.getConversionCount());
+
+        ticker.advanceMicros(10000);
+        Assert.assertEquals(0x08, simulator.readRegByte(REG_STATUS));
+
+        ticker.advanceMicros(15500 * 9 + 5500);
+        Assert.assertEquals(11, simulator.getConversionCount());
+        Assert.assertEquals(BME280Device.MODE_NORMAL, simulator.readRegByte(REG_CTRL_MEAS) & 0x03);
+    }
+
+    @Test
+    public void ctrlHumAppliedOnCtrlMeasWrite() throws IOException {
+        simulator.writeRegByte(REG_CTRL_HUM, (byte) BME280Device.OVERSAMPLING_4X);
+        Assert.assertEquals(BME280Device.OVERSAMPLING_SKIPPED, simulator.getActiveConfig().getOversamplingHumidity());
+
+        simulator.writeRegByte(REG_CTRL_MEAS, (byte) (BME280Device.OVERSAMPLING_1X << 5));
+        Assert.assertEquals(BME280Device.OVERSAMPLING_4X, simulator.getActiveConfig().getOversamplingHumidity());
+        Assert.assertEquals(BME280Device.MODE_SLEEP, simulator.getActiveConfig().getMode());
+    }
+
+    @Test
+    public void softResetCopiesNvm() throws IOException {
+        simulator.writeRegByte(REG_CTRL_MEAS, (byte) 0xB7);
+        simulator.writeRegByte(REG_SOFTRESET, (byte) 0xB6);
+
+        Assert.assertEquals(0x01, simulator.readRegByte(REG_STATUS));
+        Assert.assertEquals(0, simulator.readRegByte(REG_CTRL_MEAS));
+
+        ticker.advanceMicros(BME280Simulator.NVM_COPY_NANOS / 1000);
+        Assert.assertEquals(0, simulator.readRegByte(REG_STATUS));
+    }
+
+    private static final class ByteCountingBus extends ForwardingRegisterBus {
+
+        private int bytes;
+        private int ctrlHumWrites;
+        private int statusReads;
+
+        ByteCountingBus(RegisterBus bus) {
+            super(bus);
+        }
+
+        @Override
+        public void readRegBuffer(int reg, byte[] buffer, int length) throws IOException {
+            bytes += length;
+            super.readRegBuffer(reg, buffer, length);
+        }
+
+        @Override
+        public byte readRegByte(int reg) throws IOException {
+            if (reg == REG_STATUS) {
+                statusReads++;
+            }
+            return super.readRegByte(reg);
+        }
+
+        @Override
+        public void writeRegByte(int reg, byte data) throws IOException {
+            if (reg == REG_CTRL_HUM) {
+                ctrlHumWrites++;
+            }
+            super.writeRegByte(reg, data);
+        }
+    }
+
+    private static final class ManualTicker implements BME280Simulator.Ticker {
+
+        private long time = 1000000000L;
+
+        void advanceMicros(final long micros) {
+            time += micros * 1000L;
+        }
+
+        @Override
+        public long nanoTime() {
+            return time;
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package com.knobtviker.android.things.contrib.community.driver.bme280;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+public class BusProfileTest {
+
+    private static final int REG_STATUS = 0xF3;
+    private static final int REG_PRESS = 0xF7;
+    private static final int REG_TEMP = 0xFA;
+
+    // Kernel I2C at 400 kHz, and a user space bridge with a millisecond round trip.
+    private static final BusProfile FAST_BUS = new BusProfile(20000, 80000, 24);
+    private static final BusProfile SLOW_BUS = new BusProfile(1000000, 1500000, 24);
+
+    @Test
+    public void derivesCostModel() {
+        Assert.assertEquals(2608, FAST_BUS.getPerByteNanos());
+        Assert.assertEquals(17392, FAST_BUS.getTransactionOverheadNanos());
+        Assert.assertEquals(2 * 17392 + 6 * 2608, FAST_BUS.estimateNanos(2, 6));
+        Assert.assertEquals(BusProfile.MIN_POLL_INTERVAL_NANOS, FAST_BUS.getStatusPollIntervalNanos());
+        Assert.assertEquals(4000000, SLOW_BUS.getStatusPollIntervalNanos());
+    }
+
+    @Test
+    public void picksStrategiesForBus() {
+        // Transactions are cheap, separate reads cost no more than reading the registers in between.
+        Assert.assertFalse(FAST_BUS.prefersBurst(2, 6, 6));
+        Assert.assertFalse(FAST_BUS.prefersBurst(2, 5, 5));
+        Assert.assertTrue(FAST_BUS.prefersStatusPolling(SamplingConfig.PRESET_WEATHER_STATION));
+        Assert.assertTrue(FAST_BUS.prefersStatusPolling(SamplingConfig.PRESET_NORMAL));
+
+        Assert.assertTrue(SLOW_BUS.prefersBurst(2, 6, 6));
+        Assert.assertTrue(SLOW_BUS.prefersBurst(2, 5, 5));
+        Assert.assertFalse(SLOW_BUS.prefersStatusPolling(SamplingConfig.PRESET_WEATHER_STATION));
+        // 14.8 ms between the typical and maximum measurement time at 16x oversampling.
+        Assert.assertTrue(SLOW_BUS.prefersStatusPolling(SamplingConfig.PRESET_NORMAL));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsShortBurst() {
+        new BusProfile(20000, 20000, 1);
+    }
+
+    @Test
+    public void readsContiguousDataRegistersInOneBurst() throws IOException {
+        final RecordingBus bus = new RecordingBus(new BME280Simulator(), 200000);
+        final BME280Device device = new BME280Device(bus);
+        try {
+            final BusProfile profile = device.getBusProfile();
+            Assert.assertTrue(profile.toString(), profile.getTransactionOverheadNanos() >= 150000);
+
+            bus.reads.clear();
+            final float[] slow = device.readTemperatureAndPressure();
+            Assert.assertEquals(1, bus.reads.size());
+            Assert.assertArrayEquals(new int[] {REG_PRESS, 6}, bus.reads.get(0));
+
+            // Also on a fast bus, separate reads could return values of different conversions.
+            device.setBusProfile(FAST_BUS);
+            bus.reads.clear();
+            Assert.assertArrayEquals(slow, device.readTemperatureAndPressure(), 0f);
+            device.readHumidity();
+            Assert.assertEquals(2, bus.reads.size());
+            Assert.assertArrayEquals(new int[] {REG_PRESS, 6}, bus.reads.get(0));
+            Assert.assertArrayEquals(new int[] {REG_TEMP, 5}, bus.reads.get(1));
+        } finally {
+            device.close();
+        }
+    }
+
+    @Test
+    public void forcedMeasurementWaitsAsProfiled() throws IOException {
+        final RecordingBus bus = new RecordingBus(new BME280Simulator(), 0);
+        final BME280Device device = new BME280Device(bus);
+        try {
+            device.setSampling(SamplingConfig.PRESET_INDOOR_NAVIGATION.withMode(BME280Device.MODE_FORCED));
+            final long typicalNanos = SamplingConfig.PRESET_INDOOR_NAVIGATION.getMeasurementTimeTypicalMicros() * 1000L;
+            final long maxNanos = SamplingConfig.PRESET_INDOOR_NAVIGATION.getMeasurementTimeMaxMicros() * 1000L;
+
+            device.setBusProfile(FAST_BUS);
+            bus.statusReads = 0;
+            long start = System.nanoTime();
+            device.takeForcedMeasurement();
+            Assert.assertTrue(System.nanoTime() - start >= typicalNanos);
+            Assert.assertTrue(bus.statusReads > 0);
+            // The measuring bit is not polled before the conversion could have started.
+            Assert.assertTrue(bus.firstStatusReadNanos - start >= typicalNanos);
+
+            // Too slow to poll the spread between the typical and maximum measurement time.
+            device.setBusProfile(new BusProfile(10000000, 10000000, 24));
+            bus.statusReads = 0;
+            start = System.nanoTime();
+            device.takeForcedMeasurement();
+            Assert.assertTrue(System.nanoTime() - start >= maxNanos);
+            Assert.assertEquals(0, bus.statusReads);
+        } finally {
+            device.close();
+        }
+    }
+
+    /**
+     * Bus adding latency to every transaction and recording the burst reads.
+     */
+    private static final class RecordingBus extends ForwardingRegisterBus {
+
+        private final long latencyNanos;
+        private final List<int[]> reads = new ArrayList<>();
+        private int statusReads;
+        private long firstStatusReadNanos;
+
+        RecordingBus(RegisterBus bus, long latencyNanos) {
+            super(bus);
+            this.latencyNanos = latencyNanos;
+        }
+
+        @Override
+        protected void transaction() {
+            if (latencyNanos > 0) {
+                BME280Device.sleepUntil(System.nanoTime() + latencyNanos);
+            }
+        }
+
+        @Override
+        public void readRegBuffer(int reg, byte[] buffer, int length) throws IOException {
+            reads.add(new int[] {reg, length});
+            super.readRegBuffer(reg, buffer, length);
+        }
+
+        @Override
+        public byte readRegByte(int reg) throws IOException {
+            if (reg == REG_STATUS && statusReads++ == 0) {
+                firstStatusReadNanos = System.nanoTime();
+            }
+            return super.readRegByte(reg);
+        }
+    }
+}
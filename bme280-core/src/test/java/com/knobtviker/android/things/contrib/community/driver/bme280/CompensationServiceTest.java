@@ -0,0 +1,307 @@
+package com.knobtviker.android.things.contrib.community.driver.bme280;
+
+import org.junit.Assert;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class CompensationServiceTest {
+
+    private static final int SENSORS = 64;
+    private static final int FRAMES = 500;
+
+    @Test
+    public void compensatesInterleavedFramesInOrderPerSensor() throws InterruptedException {
+        final Calibration[] calibrations = calibrations(SENSORS);
+        final int[][] raw = new int[SENSORS * FRAMES][];
+        final Random random = new Random(11);
+        for (int i = 0; i < raw.length; i++) {
+            // Repeat raw temperatures now and then to exercise the cached fine temperature.
+            final int temperature = i >= SENSORS && random.nextBoolean() ? raw[i - SENSORS][1] : 400000 + random.nextInt(200000);
+            raw[i] = new int[] {i % SENSORS, temperature, 250000 + random.nextInt(300000), 20000 + random.nextInt(30000)};
+        }
+
+        final Recorder recorder = new Recorder(calibrations);
+        try (CompensationService service = new CompensationService(recorder, 4, 16)) {
+            for (int sensor = 0; sensor < SENSORS; sensor++) {
+                service.register(sensor, calibrations[sensor]);
+            }
+            for (int i = 0; i < raw.length; i++) {
+                service.submit(raw[i][0], i / SENSORS, raw[i][1], raw[i][2], sensorHumidity(raw[i][0], raw[i][3]));
+            }
+        }
+
+        Assert.assertNull(recorder.failure, recorder.failure);
+        for (int sensor = 0; sensor < SENSORS; sensor++) {
+            Assert.assertEquals(FRAMES, recorder.next[sensor]);
+        }
+        for (int i = 0; i < raw.length; i++) {
+            final Calibration calibration = calibrations[raw[i][0]];
+            final int temperatureFine = Compensation.temperatureFine(raw[i][1], calibration.temperature);
+            final int expectedHumidity = sensorHumidity(raw[i][0], raw[i][3]) < 0
+                ? CompensationService.NO_HUMIDITY
+                : Compensation.humidity(raw[i][3], calibration.humidity, temperatureFine);
+            final int[] actual = recorder.values[raw[i][0]][i / SENSORS];
+            Assert.assertEquals(Compensation.temperature(temperatureFine), actual[0]);
+            Assert.assertEquals(Compensation.pressure(raw[i][2], calibration.pressure, temperatureFine), actual[1]);
+            Assert.assertEquals(expectedHumidity, actual[2]);
+        }
+    }
+
+    @Test
+    public void batchesAreCopied() throws InterruptedException {
+        final Calibration calibration = BME280Simulator.defaultCalibration();
+        final Recorder recorder = new Recorder(new Calibration[] {calibration});
+        final RawFrameCodec.Batch batch = new RawFrameCodec.Batch(FRAMES);
+        final long[] timestamps = new long[FRAMES];
+        final int[] temperature = new int[FRAMES];
+        final int[] pressure = new int[FRAMES];
+        final int[] humidity = new int[FRAMES];
+        for (int i = 0; i < FRAMES; i++) {
+            timestamps[i] = i;
+            temperature[i] = 500000 + i;
+            pressure[i] = 400000 - i;
+            humidity[i] = 30000 + i;
+        }
+        final ByteBuffer buffer = ByteBuffer.allocate(RawFrameCodec.maxBatchSize(FRAMES));
+        RawFrameCodec.putBatch(buffer, timestamps, temperature, pressure, humidity, 0, FRAMES);
+        buffer.flip();
+        RawFrameCodec.getBatch(buffer, batch);
+
+        try (CompensationService service = new CompensationService(recorder, 2, 1)) {
+            service.register(0, calibration);
+            service.submit(0, batch);
+            batch.temperature[0] = 0;
+        }
+
+        Assert.assertNull(recorder.failure, recorder.failure);
+        Assert.assertEquals(FRAMES, recorder.next[0]);
+        final int temperatureFine = Compensation.temperatureFine(500000, calibration.temperature);
+        Assert.assertEquals(Compensation.temperature(temperatureFine), recorder.values[0][0][0]);
+    }
+
+    @Test
+    public void batchesWithoutHumidityReportNoHumidity() throws InterruptedException {
+        final Calibration calibration = BME280Simulator.defaultCalibration();
+        final Recorder recorder = new Recorder(new Calibration[] {calibration});
+        final long[] timestamps = new long[FRAMES];
+        final int[] temperature = new int[FRAMES];
+        final int[] pressure = new int[FRAMES];
+        final int[] humidity = new int[FRAMES];
+        for (int i = 0; i < FRAMES; i++) {
+            timestamps[i] = i;
+            temperature[i] = 500000 + i;
+            pressure[i] = 400000 - i;
+            humidity[i] = HealthWatchdog.NOT_READ;
+        }
+        final ByteBuffer buffer = ByteBuffer.allocate(RawFrameCodec.maxBatchSize(FRAMES));
+        RawFrameCodec.putBatch(buffer, timestamps, temperature, pressure, humidity, 0, FRAMES);
+        buffer.flip();
+        final RawFrameCodec.Batch batch = new RawFrameCodec.Batch(FRAMES);
+        RawFrameCodec.getBatch(buffer, batch);
+
+        try (CompensationService service = new CompensationService(recorder, 1, 4)) {
+            service.register(0, calibration);
+            service.submit(0, batch);
+        }
+
+        Assert.assertNull(recorder.failure, recorder.failure);
+        Assert.assertEquals(FRAMES, recorder.next[0]);
+        for (int i = 0; i < FRAMES; i++) {
+            Assert.assertEquals(CompensationService.NO_HUMIDITY, recorder.values[0][i][2]);
+        }
+    }
+
+    @Test
+    public void failingListenerKeepsRestOfBatch() throws InterruptedException {
+        final RawFrameCodec.Batch batch = new RawFrameCodec.Batch(10);
+        final long[] timestamps = new long[10];
+        final int[] temperature = new int[10];
+        final int[] pressure = new int[10];
+        final int[] humidity = new int[10];
+        for (int i = 0; i < 10; i++) {
+            timestamps[i] = i;
+            temperature[i] = 500000;
+            pressure[i] = 400000;
+            humidity[i] = 30000;
+        }
+        final ByteBuffer buffer = ByteBuffer.allocate(RawFrameCodec.maxBatchSize(10));
+        RawFrameCodec.putBatch(buffer, timestamps, temperature, pressure, humidity, 0, 10);
+        buffer.flip();
+        RawFrameCodec.getBatch(buffer, batch);
+
+        final AtomicInteger delivered = new AtomicInteger();
+        final CompensationService service = new CompensationService(new CompensationService.Listener() {
+            @Override
+            public void onCompensated(int sensorId, long timestamp, int temperature, int pressure, int humidity) {
+                delivered.incrementAndGet();
+                if (timestamp == 3) {
+                    throw new IllegalStateException("Listener failure");
+                }
+            }
+        }, 1, 1);
+        service.register(0, BME280Simulator.defaultCalibration());
+        service.submit(0, batch);
+        service.close();
+
+        Assert.assertEquals(10, delivered.get());
+        Assert.assertEquals(10, service.getCompensatedCount());
+    }
+
+    @Test
+    public void submissionsRacingCloseAreDeliveredOrRejected() throws Exception {
+        final Calibration calibration = BME280Simulator.defaultCalibration();
+        for (int round = 0; round < 20; round++) {
+            final AtomicInteger delivered = new AtomicInteger();
+            final CompensationService service = new CompensationService(new CompensationService.Listener() {
+                @Override
+                public void onCompensated(int sensorId, long timestamp, int temperature, int pressure, int humidity) {
+                    delivered.incrementAndGet();
+                }
+            }, 2, 4);
+            for (int sensor = 0; sensor < 4; sensor++) {
+                service.register(sensor, calibration);
+            }
+            final AtomicInteger accepted = new AtomicInteger();
+            final Thread[] submitters = new Thread[4];
+            for (int t = 0; t < submitters.length; t++) {
+                final int sensor = t;
+                submitters[t] = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            for (int i = 0; ; i++) {
+                                service.submit(sensor, i, 500000, 400000, 30000);
+                                accepted.incrementAndGet();
+                            }
+                        } catch (IllegalStateException | InterruptedException e) {
+                            // Closed.
+                        }
+                    }
+                });
+                submitters[t].start();
+            }
+            Thread.sleep(2);
+            service.close();
+            for (final Thread submitter : submitters) {
+                submitter.join(5000);
+                Assert.assertFalse(submitter.isAlive());
+            }
+
+            // Every accepted frame is compensated before close() returns.
+            Assert.assertEquals(accepted.get(), delivered.get());
+            Assert.assertEquals(accepted.get(), service.getCompensatedCount());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUnregisteredSensor() throws InterruptedException {
+        try (CompensationService service = new CompensationService(new Recorder(new Calibration[1]), 1, 1)) {
+            service.submit(0, 0, 500000, 400000, 30000);
+        }
+    }
+
+    @Test
+    @Ignore("Benchmark, run manually")
+    public void benchmark() throws InterruptedException {
+        final int sensors = 512;
+        final int frames = 256;
+        final Calibration[] calibrations = calibrations(sensors);
+        final RawFrameCodec.Batch[] batches = new RawFrameCodec.Batch[sensors];
+        final Random random = new Random(3);
+        for (int sensor = 0; sensor < sensors; sensor++) {
+            final RawFrameCodec.Batch batch = new RawFrameCodec.Batch(frames);
+            final long[] timestamps = new long[frames];
+            final int[] temperature = new int[frames];
+            final int[] pressure = new int[frames];
+            final int[] humidity = new int[frames];
+            for (int i = 0; i < frames; i++) {
+                timestamps[i] = i * 40L;
+                temperature[i] = 400000 + random.nextInt(200000);
+                pressure[i] = 250000 + random.nextInt(300000);
+                humidity[i] = 20000 + random.nextInt(30000);
+            }
+            final ByteBuffer buffer = ByteBuffer.allocate(RawFrameCodec.maxBatchSize(frames));
+            RawFrameCodec.putBatch(buffer, timestamps, temperature, pressure, humidity, 0, frames);
+            buffer.flip();
+            RawFrameCodec.getBatch(buffer, batch);
+            batches[sensor] = batch;
+        }
+
+        // Each sensor is called back from a single worker, keeping the results alive needs no synchronization.
+        final long[] sums = new long[sensors];
+        final int cores = Runtime.getRuntime().availableProcessors();
+        for (int round = 0; round < 3; round++) {
+            for (int workers = 1; workers <= cores; workers *= 2) {
+                final long start = System.nanoTime();
+                long count = 0;
+                try (CompensationService service = new CompensationService(new CompensationService.Listener() {
+                    @Override
+                    public void onCompensated(int sensorId, long timestamp, int temperature, int pressure, int humidity) {
+                        sums[sensorId] += temperature + pressure + humidity;
+                    }
+                }, workers, 64)) {
+                    for (int sensor = 0; sensor < sensors; sensor++) {
+                        service.register(sensor, calibrations[sensor]);
+                    }
+                    for (int repeat = 0; repeat < 16; repeat++) {
+                        for (int sensor = 0; sensor < sensors; sensor++) {
+                            service.submit(sensor, batches[sensor]);
+                            count += batches[sensor].size();
+                        }
+                    }
+                }
+                final double elapsed = (System.nanoTime() - start) / 1e9;
+                System.out.println(String.format(Locale.US, "%2d workers %8.2f M frames/s", workers, count / elapsed / 1e6));
+            }
+        }
+        long sum = 0;
+        for (final long value : sums) {
+            sum += value;
+        }
+        System.out.println("checksum " + sum);
+    }
+
+    private static int sensorHumidity(final int sensor, final int rawHumidity) {
+        // Every eighth sensor is a BMP280.
+        return sensor % 8 == 7 ? HealthWatchdog.NOT_READ : rawHumidity;
+    }
+
+    private static Calibration[] calibrations(final int count) {
+        final Calibration[] calibrations = new Calibration[count];
+        for (int i = 0; i < count; i++) {
+            final Calibration calibration = BME280Simulator.defaultCalibration();
+            calibration.temperature[0] += i * 7;
+            calibration.pressure[0] += i * 13;
+            calibration.pressure[6] -= i;
+            calibration.humidity[3] += i % 20;
+            calibrations[i] = calibration;
+        }
+        return calibrations;
+    }
+
+    private static final class Recorder implements CompensationService.Listener {
+
+        private final int[] next;
+        private final int[][][] values;
+        private volatile String failure;
+
+        Recorder(Calibration[] calibrations) {
+            next = new int[calibrations.length];
+            values = new int[calibrations.length][FRAMES][];
+        }
+
+        @Override
+        public void onCompensated(int sensorId, long timestamp, int temperature, int pressure, int humidity) {
+            // Each sensor is only ever called back from its own worker, so per sensor slots need no locking.
+            if (timestamp != next[sensorId]) {
+                failure = "sensor " + sensorId + " got frame " + timestamp + " instead of " + next[sensorId];
+            }
+            values[sensorId][next[sensorId]++] = new int[] {temperature, pressure, humidity};
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package com.knobtviker.android.things.contrib.community.driver.bme280;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class DeadbandPublisherTest {
+
+    private static final int PRESSURE = 101325 * 256;
+    private static final int HUMIDITY = 45 * 1024;
+
+    private final List<long[]> published = new ArrayList<>();
+    private final DeadbandPublisher.Listener listener = new DeadbandPublisher.Listener() {
+        @Override
+        public void onSample(long timestamp, int temperature, int pressure, int humidity) {
+            published.add(new long[] {timestamp, temperature, pressure, humidity});
+        }
+    };
+
+    @Test
+    public void publishesChangesPastDeadband() {
+        // 0.1 degrees Celsius, 0.01 hPa and 1 %.
+        final DeadbandPublisher publisher = new DeadbandPublisher(listener, 0.1f, 0.01f, 1f, 1000);
+
+        Assert.assertTrue(publisher.offer(0, 2000, PRESSURE, HUMIDITY));
+        // Changes up to and including the deadband are suppressed.
+        Assert.assertFalse(publisher.offer(1, 2010, PRESSURE, HUMIDITY));
+        Assert.assertFalse(publisher.offer(2, 1990, PRESSURE + 256, HUMIDITY - 1024));
+        Assert.assertTrue(publisher.offer(3, 2011, PRESSURE, HUMIDITY));
+        Assert.assertTrue(publisher.offer(4, 2011, PRESSURE - 257, HUMIDITY));
+        Assert.assertTrue(publisher.offer(5, 2011, PRESSURE - 257, HUMIDITY + 1025));
+
+        Assert.assertEquals(6, publisher.getOfferedCount());
+        Assert.assertEquals(4, publisher.getPublishedCount());
+        Assert.assertEquals(4, published.size());
+        Assert.assertArrayEquals(new long[] {4, 2011, PRESSURE - 257, HUMIDITY}, published.get(2));
+    }
+
+    @Test
+    public void publishesAccumulatedDrift() {
+        final DeadbandPublisher publisher = new DeadbandPublisher(listener, 0.1f, 0.01f, 1f, 1000);
+
+        // Every step stays inside the deadband of the previous sample, but not of the last published one.
+        for (int i = 0; i <= 9; i++) {
+            publisher.offer(i, 2000 + 4 * i, PRESSURE, HUMIDITY);
+        }
+        Assert.assertEquals(4, published.size());
+        Assert.assertEquals(2000, published.get(0)[1]);
+        Assert.assertEquals(2012, published.get(1)[1]);
+        Assert.assertEquals(2024, published.get(2)[1]);
+        Assert.assertEquals(2036, published.get(3)[1]);
+    }
+
+    @Test
+    public void publishesHeartbeat() {
+        final DeadbandPublisher publisher = new DeadbandPublisher(listener, 5);
+
+        for (int i = 0; i < 12; i++) {
+            publisher.offer(i, 2000, PRESSURE, HUMIDITY);
+        }
+        Assert.assertEquals(3, published.size());
+        Assert.assertEquals(0, published.get(0)[0]);
+        Assert.assertEquals(5, published.get(1)[0]);
+        Assert.assertEquals(10, published.get(2)[0]);
+    }
+
+    @Test
+    public void resetPublishesNextSample() {
+        final DeadbandPublisher publisher = new DeadbandPublisher(listener, 1000);
+
+        Assert.assertTrue(publisher.offer(0, 2000, PRESSURE, HUMIDITY));
+        Assert.assertFalse(publisher.offer(1, 2000, PRESSURE, HUMIDITY));
+        publisher.reset();
+        Assert.assertTrue(publisher.offer(2, 2000, PRESSURE, HUMIDITY));
+    }
+
+    @Test
+    public void publishesExactCompensatedRawSamples() {
+        final DeadbandPublisher publisher = new DeadbandPublisher(listener, 0f, 0f, 0f, 1000);
+        final Calibration calibration = BME280Simulator.defaultCalibration();
+        final RawSample sample = new RawSample(519888, 415148, 30000, calibration);
+        final int temperatureFine = sample.getTemperatureFine();
+
+        Assert.assertTrue(publisher.offer(0, sample));
+        Assert.assertArrayEquals(new long[] {
+            0,
+            Compensation.temperature(temperatureFine),
+            Compensation.pressure(415148, calibration.pressure, temperatureFine),
+            Compensation.humidity(30000, calibration.humidity, temperatureFine)
+        }, published.get(0));
+
+        // A few fixed-point units, below the resolution of a float in hPa times the fixed-point scale.
+        Assert.assertTrue(publisher.offer(1, new RawSample(519888, 415148 + 1, 30000, calibration)));
+        Assert.assertTrue(publisher.offer(2, new RawSample(519888, 415148, HealthWatchdog.NOT_READ, calibration)));
+        Assert.assertEquals(-1, published.get(2)[3]);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNegativeDeadband() {
+        new DeadbandPublisher(listener, -0.1f, 0f, 0f, 1000);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNonPositiveHeartbeat() {
+        new DeadbandPublisher(listener, 0);
+    }
+}
@@ -0,0 +1,111 @@
+package com.knobtviker.android.things.contrib.community.driver.bme280;
+
+import org.junit.Assert;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.util.Locale;
+import java.util.Random;
+
+public class DerivedQuantitiesTest {
+
+    private final DerivedQuantities exact = new DerivedQuantities(DerivedQuantities.PRECISION_EXACT);
+    private final DerivedQuantities fast = new DerivedQuantities(DerivedQuantities.PRECISION_FAST);
+
+    @Test
+    public void exactReferenceValues() {
+        Assert.assertEquals(0f, exact.altitude(DerivedQuantities.STANDARD_SEA_LEVEL_PRESSURE_HPA), 0.001f);
+        // Standard atmosphere at 1000 m
+        Assert.assertEquals(1000f, exact.altitude(898.76f), 1f);
+        // Dew point equals temperature at saturation
+        Assert.assertEquals(20f, exact.dewPoint(20f, 100f), 0.001f);
+        Assert.assertEquals(9.3f, exact.dewPoint(20f, 50f), 0.05f);
+        // 17.3 g/m3 at 20 degrees Celsius and saturation
+        Assert.assertEquals(17.3f, exact.absoluteHumidity(20f, 100f), 0.1f);
+    }
+
+    @Test
+    public void seaLevelPressureInvertsAltitude() {
+        final DerivedQuantities station = new DerivedQuantities(DerivedQuantities.PRECISION_EXACT, 1013.25f, 500f);
+        final float seaLevel = station.seaLevelPressure(954.61f);
+        Assert.assertEquals(500f, new DerivedQuantities(DerivedQuantities.PRECISION_EXACT, seaLevel, 0f).altitude(954.61f), 0.1f);
+    }
+
+    @Test
+    public void fastErrorIsBounded() {
+        float altitudeError = 0f;
+        for (float pressure = BME280Device.MIN_PRESSURE_HPA; pressure <= BME280Device.MAX_PRESSURE_HPA; pressure += 0.0137f) {
+            altitudeError = Math.max(altitudeError, Math.abs(fast.altitude(pressure) - exact.altitude(pressure)));
+        }
+        Assert.assertTrue("altitude error " + altitudeError, altitudeError <= 0.02f);
+
+        float dewPointError = 0f;
+        float absoluteHumidityError = 0f;
+        for (float temperature = BME280Device.MIN_TEMP_C; temperature <= BME280Device.MAX_TEMP_C; temperature += 0.37f) {
+            for (float humidity = 1f; humidity <= BME280Device.MAX_HUMIDITY_PERCENT; humidity += 0.043f) {
+                dewPointError = Math.max(dewPointError,
+                    Math.abs(fast.dewPoint(temperature, humidity) - exact.dewPoint(temperature, humidity)));
+                absoluteHumidityError = Math.max(absoluteHumidityError,
+                    Math.abs(fast.absoluteHumidity(temperature, humidity) - exact.absoluteHumidity(temperature, humidity)));
+            }
+        }
+        Assert.assertTrue("dew point error " + dewPointError, dewPointError <= 0.02f);
+        Assert.assertTrue("absolute humidity error " + absoluteHumidityError, absoluteHumidityError <= 0.001f);
+    }
+
+    @Test
+    public void batchMatchesSingleEvaluation() {
+        final float[] sample = {25.08f, 45.242188f, 968.5327f};
+        final float[] derived = fast.evaluate(sample, null);
+
+        final float[] pressures = {sample[2]};
+        final float[] temperatures = {sample[0]};
+        final float[] humidities = {sample[1]};
+        final float[] out = new float[1];
+
+        fast.altitudes(pressures, out, 1);
+        Assert.assertEquals(derived[DerivedQuantities.INDEX_ALTITUDE], out[0], 0f);
+        fast.seaLevelPressures(pressures, out, 1);
+        Assert.assertEquals(derived[DerivedQuantities.INDEX_SEA_LEVEL_PRESSURE], out[0], 0f);
+        fast.dewPoints(temperatures, humidities, out, 1);
+        Assert.assertEquals(derived[DerivedQuantities.INDEX_DEW_POINT], out[0], 0f);
+        fast.absoluteHumidities(temperatures, humidities, out, 1);
+        Assert.assertEquals(derived[DerivedQuantities.INDEX_ABSOLUTE_HUMIDITY], out[0], 0f);
+    }
+
+    @Test
+    @Ignore("Benchmark, run manually")
+    public void benchmark() {
+        final int count = 1 << 16;
+        final float[] temperatures = new float[count];
+        final float[] humidities = new float[count];
+        final float[] pressures = new float[count];
+        final float[] out = new float[count];
+        final Random random = new Random(1);
+        for (int i = 0; i < count; i++) {
+            temperatures[i] = -10f + 40f * random.nextFloat();
+            humidities[i] = 5f + 90f * random.nextFloat();
+            pressures[i] = 950f + 100f * random.nextFloat();
+        }
+
+        for (int round = 0; round < 5; round++) {
+            for (final DerivedQuantities quantities : new DerivedQuantities[] {exact, fast}) {
+                final String name = quantities == exact ? "exact" : "fast";
+                long start = System.nanoTime();
+                quantities.altitudes(pressures, out, count);
+                report(name, "altitude", start, count, out);
+                start = System.nanoTime();
+                quantities.dewPoints(temperatures, humidities, out, count);
+                report(name, "dew point", start, count, out);
+                start = System.nanoTime();
+                quantities.absoluteHumidities(temperatures, humidities, out, count);
+                report(name, "absolute humidity", start, count, out);
+            }
+        }
+    }
+
+    private static void report(String precision, String quantity, long start, int count, float[] out) {
+        final double nanosPerValue = (System.nanoTime() - start) / (double) count;
+        System.out.println(String.format(Locale.US, "%-6s %-18s %6.2f ns/value (%f)", precision, quantity, nanosPerValue, out[count - 1]));
+    }
+}
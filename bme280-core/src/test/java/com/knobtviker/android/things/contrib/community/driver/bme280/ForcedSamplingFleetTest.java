@@ -0,0 +1,126 @@
+package com.knobtviker.android.things.contrib.community.driver.bme280;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+public class ForcedSamplingFleetTest {
+
+    private static final int SENSORS = 8;
+    private static final int REG_CTRL_MEAS = 0xF4;
+
+    private static final SamplingConfig FORCED = new SamplingConfig(BME280Device.MODE_FORCED,
+        BME280Device.OVERSAMPLING_16X, BME280Device.OVERSAMPLING_16X, BME280Device.OVERSAMPLING_16X,
+        BME280Device.FILTER_OFF, BME280Device.STANDBY_MS_0_5);
+
+    @Test
+    public void samplesAllSensorsInOneConversionTime() throws IOException {
+        final List<BME280Simulator> simulators = new ArrayList<>();
+        final List<BME280Device> devices = new ArrayList<>();
+        for (int i = 0; i < SENSORS; i++) {
+            final BME280Simulator simulator = new BME280Simulator();
+            final BME280Device device = new BME280Device(simulator);
+            device.setSampling(FORCED);
+            simulators.add(simulator);
+            devices.add(device);
+        }
+        final ForcedSamplingFleet fleet = new ForcedSamplingFleet(devices);
+
+        for (int cycle = 0; cycle < 3; cycle++) {
+            // Values change before the trigger, a read before the conversion completed returns the previous ones.
+            for (int i = 0; i < SENSORS; i++) {
+                simulators.get(i).setTemperature(BME280Simulator.constant(10.0 + i + cycle));
+                simulators.get(i).setPressure(BME280Simulator.constant(950.0 + 10 * i + cycle));
+                simulators.get(i).setHumidity(BME280Simulator.constant(30.0 + 5 * i + cycle));
+            }
+
+            final float[][] results = fleet.sample();
+
+            for (int i = 0; i < SENSORS; i++) {
+                Assert.assertNull(fleet.getFailure(i));
+                Assert.assertEquals(10f + i + cycle, results[i][0], 0.01f);
+                Assert.assertEquals(30f + 5 * i + cycle, results[i][1], 0.01f);
+                Assert.assertEquals(950f + 10 * i + cycle, results[i][2], 0.01f);
+            }
+            final long conversionNanos = FORCED.getMeasurementTimeMaxMicros() * 1000L;
+            Assert.assertTrue(fleet.getLastWaitNanos() <= conversionNanos + 20000000L);
+            Assert.assertTrue("cycle " + fleet.getLastCycleNanos(), fleet.getLastCycleNanos() < 2 * conversionNanos);
+        }
+    }
+
+    @Test
+    public void failingSensorDoesNotFailTheCycle() throws IOException {
+        final FailingBus failing = new FailingBus(new BME280Simulator());
+        final List<BME280Device> devices = new ArrayList<>();
+        devices.add(new BME280Device(new BME280Simulator()));
+        devices.add(new BME280Device(failing));
+        for (final BME280Device device : devices) {
+            device.setSampling(FORCED.withMode(BME280Device.MODE_NORMAL));
+        }
+        final ForcedSamplingFleet fleet = new ForcedSamplingFleet(devices);
+
+        failing.failing = true;
+        final float[][] results = fleet.sample();
+
+        Assert.assertNotNull(results[0]);
+        Assert.assertNull(fleet.getFailure(0));
+        Assert.assertNull(results[1]);
+        Assert.assertNotNull(fleet.getFailure(1));
+    }
+
+    @Test
+    public void closedSensorDoesNotStrandTheOthers() throws IOException {
+        final List<BME280Simulator> simulators = new ArrayList<>();
+        final List<BME280Device> devices = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            final BME280Simulator simulator = new BME280Simulator();
+            final BME280Device device = new BME280Device(simulator);
+            device.setSampling(FORCED.withMode(BME280Device.MODE_NORMAL));
+            simulators.add(simulator);
+            devices.add(device);
+        }
+        final ForcedSamplingFleet fleet = new ForcedSamplingFleet(devices);
+
+        // Triggered after the first sensor was switched to forced mode.
+        devices.get(1).close();
+        final float[][] results = fleet.sample();
+
+        Assert.assertTrue(fleet.getFailure(1) instanceof IllegalStateException);
+        Assert.assertNull(results[1]);
+        for (final int i : new int[] {0, 2}) {
+            Assert.assertNull(fleet.getFailure(i));
+            Assert.assertNotNull(results[i]);
+            // Back in normal mode.
+            Assert.assertEquals(BME280Device.MODE_NORMAL, simulators.get(i).readRegByte(REG_CTRL_MEAS) & 0x03);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsDuplicateSensors() throws IOException {
+        final BME280Device device = new BME280Device(new BME280Simulator());
+        final List<BME280Device> devices = new ArrayList<>();
+        devices.add(device);
+        devices.add(device);
+        new ForcedSamplingFleet(devices);
+    }
+
+    private static final class FailingBus extends ForwardingRegisterBus {
+
+        private volatile boolean failing;
+
+        FailingBus(RegisterBus bus) {
+            super(bus);
+        }
+
+        @Override
+        public void writeRegByte(int reg, byte data) throws IOException {
+            if (failing) {
+                throw new IOException("nack");
+            }
+            super.writeRegByte(reg, data);
+        }
+    }
+}
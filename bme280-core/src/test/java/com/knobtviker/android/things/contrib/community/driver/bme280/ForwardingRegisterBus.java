@@ -0,0 +1,52 @@
+package com.knobtviker.android.things.contrib.community.driver.bme280;
+
+import java.io.IOException;
+
+/**
+ * Bus forwarding every call to another bus, for test decorators to override only the calls they observe or break.
+ */
+abstract class ForwardingRegisterBus implements RegisterBus {
+
+    protected final RegisterBus bus;
+
+    ForwardingRegisterBus(RegisterBus bus) {
+        this.bus = bus;
+    }
+
+    /**
+     * Called before every register access is forwarded, e.g. to add latency or fail it.
+     *
+     * @throws IOException to fail the access.
+     */
+    protected void transaction() throws IOException {
+    }
+
+    @Override
+    public void readRegBuffer(int reg, byte[] buffer, int length) throws IOException {
+        transaction();
+        bus.readRegBuffer(reg, buffer, length);
+    }
+
+    @Override
+    public byte readRegByte(int reg) throws IOException {
+        transaction();
+        return bus.readRegByte(reg);
+    }
+
+    @Override
+    public short readRegWord(int reg) throws IOException {
+        transaction();
+        return bus.readRegWord(reg);
+    }
+
+    @Override
+    public void writeRegByte(int reg, byte data) throws IOException {
+        transaction();
+        bus.writeRegByte(reg, data);
+    }
+
+    @Override
+    public void close() throws IOException {
+        bus.close();
+    }
+}
@@ -0,0 +1,81 @@
+package com.knobtviker.android.things.contrib.community.driver.bme280;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+
+public class JitterHistogramTest {
+
+    @Test
+    public void bucketsDeviationFromExpectedPeriod() {
+        final JitterHistogram histogram = new JitterHistogram(100000L, 8);
+        histogram.setExpectedPeriodNanos(10000000L);
+
+        long time = 5000000000L;
+        histogram.record(time);
+        final long[] intervals = {10000000L, 10050000L, 9950000L, 10250000L, 9000000L, 14000000L};
+        for (final long interval : intervals) {
+            time += interval;
+            histogram.record(time);
+        }
+
+        Assert.assertEquals(6, histogram.getCount());
+        Assert.assertArrayEquals(new long[] {1, 0, 0, 1, 2, 0, 1, 1}, histogram.getCounts());
+        Assert.assertEquals(-400000L, histogram.getBucketLowerBoundNanos(0));
+        Assert.assertEquals(0L, histogram.getBucketLowerBoundNanos(4));
+        Assert.assertEquals(4000000L, histogram.getMaxAbsDeviationNanos());
+        Assert.assertEquals(3250000.0 / 6, histogram.getMeanDeviationNanos(), 1e-6);
+    }
+
+    @Test
+    public void intervalAcrossReconfigurationIsNotRecorded() {
+        final JitterHistogram histogram = new JitterHistogram(100000L, 8);
+        histogram.record(1000L);
+        histogram.record(2000L);
+        Assert.assertEquals(0, histogram.getCount());
+
+        histogram.setExpectedPeriodNanos(1000L);
+        histogram.record(3000L);
+        histogram.record(4000L);
+        Assert.assertEquals(1, histogram.getCount());
+
+        histogram.onReconfigured(SamplingConfig.PRESET_WEATHER_STATION.withMode(BME280Device.MODE_FORCED), ChipProfile.BME280);
+        Assert.assertEquals(1000L, histogram.getExpectedPeriodNanos());
+        histogram.record(900000L);
+        Assert.assertEquals(1, histogram.getCount());
+
+        histogram.onReconfigured(SamplingConfig.PRESET_INDOOR_NAVIGATION, ChipProfile.BME280);
+        Assert.assertEquals(40500000L, histogram.getExpectedPeriodNanos());
+    }
+
+    @Test
+    public void samplesCarryReadTimestamps() throws IOException {
+        final BME280Device bme280 = new BME280Device(new BME280Simulator());
+        final JitterHistogram histogram = new JitterHistogram(1000000L, 16);
+        bme280.setJitterHistogram(histogram);
+        Assert.assertEquals((SamplingConfig.PRESET_NORMAL.getMeasurementTimeTypicalMicros() + 500) * 1000L,
+            histogram.getExpectedPeriodNanos());
+
+        final long before = System.nanoTime();
+        final RawSample first = bme280.readRawSample();
+        final RawSample second = bme280.readRawSample();
+        final long after = System.nanoTime();
+
+        for (final RawSample sample : new RawSample[] {first, second}) {
+            Assert.assertTrue(before <= sample.getRequestNanos());
+            Assert.assertTrue(sample.getRequestNanos() <= sample.getLockAcquiredNanos());
+            Assert.assertTrue(sample.getLockAcquiredNanos() <= sample.getBurstStartNanos());
+            Assert.assertTrue(sample.getBurstStartNanos() <= sample.getBurstEndNanos());
+            Assert.assertTrue(sample.getBurstEndNanos() <= after);
+        }
+        Assert.assertEquals(1, histogram.getCount());
+
+        bme280.readAll();
+        Assert.assertEquals(2, histogram.getCount());
+
+        bme280.setSamplingWeatherStation();
+        bme280.readAll();
+        Assert.assertEquals(2, histogram.getCount());
+    }
+}
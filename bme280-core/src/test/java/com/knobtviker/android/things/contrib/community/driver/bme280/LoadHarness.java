@@ -0,0 +1,254 @@
+package com.knobtviker.android.things.contrib.community.driver.bme280;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Load harness polling thousands of simulated sensors through {@link BME280Device#readAll()}.
+ * <p>
+ * Every sensor is a {@link BME280Simulator} behind a bus adding a fixed latency to every transaction and failing
+ * a fraction of them. A run polls all sensors once per round, submitting one read task per sensor to the executor
+ * under test, and measures each read from its submission, so the latency includes queueing for a worker.
+ * <p>
+ * Virtual threads are created through reflection, so the harness compiles for Java 7 and falls back to platform
+ * threads only where they aren't available. Allocation is measured with the total allocated bytes of all threads
+ * where the JVM reports it, and per read on platform threads otherwise.
+ */
+final class LoadHarness implements AutoCloseable {
+
+    /**
+     * Result of a run.
+     */
+    static final class Report {
+
+        final String name;
+        final int reads;
+        final int errors;
+        final long elapsedNanos;
+        final long p50Nanos;
+        final long p99Nanos;
+        final long p999Nanos;
+        final long allocatedBytes;
+
+        Report(String name, int reads, int errors, long elapsedNanos, long[] latencies, long allocatedBytes) {
+            this.name = name;
+            this.reads = reads;
+            this.errors = errors;
+            this.elapsedNanos = elapsedNanos;
+            Arrays.sort(latencies);
+            this.p50Nanos = percentile(latencies, 0.5);
+            this.p99Nanos = percentile(latencies, 0.99);
+            this.p999Nanos = percentile(latencies, 0.999);
+            this.allocatedBytes = allocatedBytes;
+        }
+
+        private static long percentile(final long[] sorted, final double fraction) {
+            return sorted.length == 0 ? 0 : sorted[(int) Math.min(sorted.length - 1, Math.ceil(fraction * sorted.length) - 1)];
+        }
+
+        double getReadsPerSecond() {
+            return elapsedNanos == 0 ? 0 : reads * 1e9 / elapsedNanos;
+        }
+
+        /**
+         * Returns the allocation rate in MB/s, or a negative value if it couldn't be measured.
+         */
+        double getAllocationMegabytesPerSecond() {
+            return allocatedBytes < 0 || elapsedNanos == 0 ? -1 : allocatedBytes * 1e3 / elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%-22s %8.0f reads/s  p50 %8.3f ms  p99 %8.3f ms  p999 %8.3f ms  %7.1f MB/s  %d errors",
+                name, getReadsPerSecond(), p50Nanos / 1e6, p99Nanos / 1e6, p999Nanos / 1e6, getAllocationMegabytesPerSecond(), errors);
+        }
+    }
+
+    private final List<FaultyBus> buses = new ArrayList<>();
+    private final List<BME280Device> devices = new ArrayList<>();
+
+    /**
+     * Create and connect the simulated sensors. Connecting takes dozens of transactions, each with the bus
+     * latency, so sensors are connected in parallel on the given executor.
+     *
+     * @param sensors          number of sensors.
+     * @param busLatencyMicros latency added to every bus transaction.
+     * @param errorRate        fraction of bus transactions failing once connected.
+     * @param executor         executor connecting the sensors.
+     */
+    LoadHarness(int sensors, long busLatencyMicros, double errorRate, ExecutorService executor)
+        throws IOException, InterruptedException {
+        final List<Future<BME280Device>> futures = new ArrayList<>();
+        for (int i = 0; i < sensors; i++) {
+            final FaultyBus bus = new FaultyBus(new BME280Simulator(), busLatencyMicros * 1000L, errorRate, i);
+            buses.add(bus);
+            futures.add(executor.submit(new Callable<BME280Device>() {
+                @Override
+                public BME280Device call() throws IOException {
+                    return new BME280Device(bus);
+                }
+            }));
+        }
+        for (final Future<BME280Device> future : futures) {
+            try {
+                devices.add(future.get());
+            } catch (ExecutionException e) {
+                throw new IOException(e.getCause());
+            }
+        }
+        for (final FaultyBus bus : buses) {
+            bus.armed = true;
+        }
+    }
+
+    /**
+     * Returns an executor starting a virtual thread per task, or null if the JVM has no virtual threads.
+     */
+    static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            final Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) method.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Poll every sensor once per round.
+     *
+     * @param name     name of the strategy in the report.
+     * @param executor executor running the reads.
+     * @param rounds   number of polling rounds.
+     */
+    Report run(final String name, final ExecutorService executor, final int rounds) throws InterruptedException {
+        final int sensors = devices.size();
+        final long[] latencies = new long[sensors * rounds];
+        final AtomicLong errors = new AtomicLong();
+        final AtomicLong perReadAllocation = new AtomicLong();
+        final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        final Method allocatedBytes = allocatedBytesMethod(threads);
+        final Method totalAllocatedBytes = totalAllocatedBytesMethod(threads);
+
+        final long allocationStart = invoke(totalAllocatedBytes, threads);
+        final long start = System.nanoTime();
+        for (int round = 0; round < rounds; round++) {
+            final CountDownLatch done = new CountDownLatch(sensors);
+            for (int i = 0; i < sensors; i++) {
+                final BME280Device device = devices.get(i);
+                final int slot = round * sensors + i;
+                final long submitted = System.nanoTime();
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        final long before = invoke(allocatedBytes, threads);
+                        try {
+                            device.readAll();
+                        } catch (IOException e) {
+                            errors.incrementAndGet();
+                        } finally {
+                            latencies[slot] = System.nanoTime() - submitted;
+                            final long after = invoke(allocatedBytes, threads);
+                            if (before >= 0 && after >= 0) {
+                                perReadAllocation.addAndGet(after - before);
+                            }
+                            done.countDown();
+                        }
+                    }
+                });
+            }
+            done.await();
+        }
+        final long elapsed = System.nanoTime() - start;
+        final long allocationEnd = invoke(totalAllocatedBytes, threads);
+
+        final long allocated = allocationStart >= 0 && allocationEnd >= 0
+            ? allocationEnd - allocationStart
+            : allocatedBytes != null ? perReadAllocation.get() : -1;
+        final int errorCount = (int) errors.get();
+        return new Report(name, latencies.length - errorCount, errorCount, elapsed, latencies, allocated);
+    }
+
+    private static Method allocatedBytesMethod(final ThreadMXBean threads) {
+        // Not supported on virtual threads.
+        return extendedMethod(threads, "getCurrentThreadAllocatedBytes");
+    }
+
+    private static Method totalAllocatedBytesMethod(final ThreadMXBean threads) {
+        // Java 21 and later, includes virtual threads and threads that terminated.
+        return extendedMethod(threads, "getTotalThreadAllocatedBytes");
+    }
+
+    private static Method extendedMethod(final ThreadMXBean threads, final String name) {
+        try {
+            // Looked up on the exported interface, the implementation class isn't accessible.
+            final Class<?> extended = Class.forName("com.sun.management.ThreadMXBean");
+            return extended.isInstance(threads) ? extended.getMethod(name) : null;
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    private static long invoke(final Method method, final ThreadMXBean threads) {
+        if (method == null) {
+            return -1;
+        }
+        try {
+            return (Long) method.invoke(threads);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return -1;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (final BME280Device device : devices) {
+            device.close();
+        }
+    }
+
+    /**
+     * Bus adding latency to every transaction and failing a fraction of them once armed.
+     */
+    private static final class FaultyBus extends ForwardingRegisterBus {
+
+        private final long latencyNanos;
+        private final double errorRate;
+        private final Random random;
+        private volatile boolean armed;
+
+        FaultyBus(RegisterBus bus, long latencyNanos, double errorRate, long seed) {
+            super(bus);
+            this.latencyNanos = latencyNanos;
+            this.errorRate = errorRate;
+            this.random = new Random(seed);
+        }
+
+        @Override
+        protected void transaction() throws IOException {
+            if (latencyNanos > 0) {
+                BME280Device.sleepUntil(System.nanoTime() + latencyNanos);
+            }
+            final boolean fail;
+            synchronized (random) {
+                fail = armed && random.nextDouble() < errorRate;
+            }
+            if (fail) {
+                throw new IOException("Simulated bus error");
+            }
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package com.knobtviker.android.things.contrib.community.driver.bme280;
+
+import org.junit.Assert;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public class LoadHarnessTest {
+
+    @Test
+    public void pollsEverySensorEveryRound() throws IOException, InterruptedException {
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        try (LoadHarness harness = new LoadHarness(40, 50, 0.05, executor)) {
+            final LoadHarness.Report report = harness.run("fixed 8", executor, 5);
+            Assert.assertEquals(200, report.reads + report.errors);
+            Assert.assertTrue("errors " + report.errors, report.errors > 0 && report.errors < 100);
+            Assert.assertTrue(report.p50Nanos > 0);
+            Assert.assertTrue(report.p50Nanos <= report.p99Nanos);
+            Assert.assertTrue(report.p99Nanos <= report.p999Nanos);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    @Ignore("Benchmark, run manually")
+    public void benchmark() throws IOException, InterruptedException {
+        final int sensors = 2000;
+        final int rounds = 10;
+        final ExecutorService connector = Executors.newFixedThreadPool(200);
+        try (LoadHarness harness = new LoadHarness(sensors, 250, 0.001, connector)) {
+            connector.shutdown();
+            for (int round = 0; round < 2; round++) {
+                final ExecutorService virtual = LoadHarness.newVirtualThreadPerTaskExecutor();
+                if (virtual == null) {
+                    System.out.println("virtual threads not available");
+                } else {
+                    System.out.println(harness.run("virtual threads", virtual, rounds));
+                    virtual.shutdown();
+                }
+                for (final int threads : new int[] {8, 64, 256}) {
+                    final ExecutorService platform = Executors.newFixedThreadPool(threads);
+                    System.out.println(harness.run("fixed " + threads + " threads", platform, rounds));
+                    platform.shutdown();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package com.knobtviker.android.things.contrib.community.driver.bme280;
+
+import org.junit.Assert;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Locale;
+import java.util.Random;
+
+public class RawFrameCodecTest {
+
+    private static final int[] TEMPERATURE_CALIBRATION = {27504, 26435, -1000};
+    private static final int[] PRESSURE_CALIBRATION = {36477, -10685, 3024, 2855, 140, -7, 15500, -14600, 6000};
+    private static final int[] HUMIDITY_CALIBRATION = {75, 363, 0, 315, 50, 30};
+
+    private static final int COUNT = 10000;
+
+    private final long[] timestamps = new long[COUNT];
+    private final int[] temperatures = new int[COUNT];
+    private final int[] pressures = new int[COUNT];
+    private final int[] humidities = new int[COUNT];
+
+    public RawFrameCodecTest() {
+        final Random random = new Random(7);
+        long timestamp = 1500000000000L;
+        for (int i = 0; i < COUNT; i++) {
+            timestamp += i % 100 == 0 ? -5000 : 40 + random.nextInt(5);
+            timestamps[i] = timestamp;
+            temperatures[i] = random.nextInt(1 << 20);
+            pressures[i] = random.nextInt(1 << 20);
+            humidities[i] = random.nextInt(1 << 16);
+        }
+    }
+
+    @Test
+    public void roundTrip() {
+        final int batchSize = 1000;
+        final ByteBuffer buffer = ByteBuffer.allocate(RawFrameCodec.HEADER_SIZE + (COUNT / batchSize) * RawFrameCodec.maxBatchSize(batchSize));
+        RawFrameCodec.putHeader(buffer, calibration());
+        for (int offset = 0; offset < COUNT; offset += batchSize) {
+            RawFrameCodec.putBatch(buffer, timestamps, temperatures, pressures, humidities, offset, batchSize);
+        }
+        buffer.flip();
+
+        final Calibration calibration = RawFrameCodec.getHeader(buffer);
+        Assert.assertArrayEquals(TEMPERATURE_CALIBRATION, calibration.temperature);
+        Assert.assertArrayEquals(PRESSURE_CALIBRATION, calibration.pressure);
+        Assert.assertArrayEquals(HUMIDITY_CALIBRATION, calibration.humidity);
+
+        final RawFrameCodec.Batch batch = new RawFrameCodec.Batch(16);
+        for (int offset = 0; offset < COUNT; offset += batchSize) {
+            Assert.assertEquals(batchSize, RawFrameCodec.getBatch(buffer, batch));
+            Assert.assertEquals(batchSize, batch.size());
+            for (int i = 0; i < batchSize; i++) {
+                Assert.assertEquals(timestamps[offset + i], batch.timestamps[i]);
+                Assert.assertEquals(temperatures[offset + i], batch.temperature[i]);
+                Assert.assertEquals(pressures[offset + i], batch.pressure[i]);
+                Assert.assertEquals(humidities[offset + i], batch.humidity[i]);
+            }
+        }
+        Assert.assertFalse(buffer.hasRemaining());
+    }
+
+    @Test
+    public void burstFramesAreCopiedVerbatim() {
+        final byte[] bursts = new byte[COUNT * RawFrameCodec.FRAME_SIZE];
+        for (int i = 0; i < COUNT; i++) {
+            final int offset = i * RawFrameCodec.FRAME_SIZE;
+            bursts[offset] = (byte) (pressures[i] >> 12);
+            bursts[offset + 1] = (byte) (pressures[i] >> 4);
+            bursts[offset + 2] = (byte) (pressures[i] << 4);
+            bursts[offset + 3] = (byte) (temperatures[i] >> 12);
+            bursts[offset + 4] = (byte) (temperatures[i] >> 4);
+            bursts[offset + 5] = (byte) (temperatures[i] << 4);
+            bursts[offset + 6] = (byte) (humidities[i] >> 8);
+            bursts[offset + 7] = (byte) humidities[i];
+        }
+        final ByteBuffer fromBursts = ByteBuffer.allocate(RawFrameCodec.maxBatchSize(COUNT));
+        RawFrameCodec.putBatch(fromBursts, timestamps, bursts, 0, COUNT);
+        final ByteBuffer fromValues = ByteBuffer.allocate(RawFrameCodec.maxBatchSize(COUNT));
+        RawFrameCodec.putBatch(fromValues, timestamps, temperatures, pressures, humidities, 0, COUNT);
+
+        fromBursts.flip();
+        fromValues.flip();
+        Assert.assertEquals(fromValues, fromBursts);
+    }
+
+    @Test
+    public void framesWithoutHumidityRoundTrip() {
+        // BMP280 frames mixed with the full range of raw humidity.
+        final int[] bmp280 = humidities.clone();
+        for (int i = 0; i < COUNT; i += 3) {
+            bmp280[i] = HealthWatchdog.NOT_READ;
+        }
+        bmp280[1] = 0xFFFF;
+        bmp280[2] = 0;
+        final ByteBuffer buffer = ByteBuffer.allocate(RawFrameCodec.maxBatchSize(COUNT));
+        RawFrameCodec.putBatch(buffer, timestamps, temperatures, pressures, bmp280, 0, COUNT);
+        buffer.flip();
+
+        final RawFrameCodec.Batch batch = new RawFrameCodec.Batch();
+        RawFrameCodec.getBatch(buffer, batch);
+        for (int i = 0; i < COUNT; i++) {
+            Assert.assertEquals(temperatures[i], batch.temperature[i]);
+            Assert.assertEquals(pressures[i], batch.pressure[i]);
+            Assert.assertEquals(bmp280[i], batch.humidity[i]);
+        }
+    }
+
+    @Test
+    public void regularFramesTakeNineBytes() {
+        final long[] regular = new long[COUNT];
+        for (int i = 0; i < COUNT; i++) {
+            regular[i] = 1000L + 50L * i;
+        }
+        final ByteBuffer buffer = ByteBuffer.allocate(RawFrameCodec.maxBatchSize(COUNT));
+        RawFrameCodec.putBatch(buffer, regular, temperatures, pressures, humidities, 0, COUNT);
+        // Count and the first timestamp take 2 bytes each
+        Assert.assertEquals(2 + 2 + COUNT * 9 - 1, buffer.position());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsTruncatedBatch() {
+        final ByteBuffer buffer = ByteBuffer.allocate(RawFrameCodec.maxBatchSize(COUNT));
+        RawFrameCodec.putBatch(buffer, timestamps, temperatures, pressures, humidities, 0, COUNT);
+        buffer.flip();
+        buffer.limit(buffer.limit() / 2);
+        RawFrameCodec.getBatch(buffer, new RawFrameCodec.Batch());
+    }
+
+    @Test
+    @Ignore("Benchmark, run manually")
+    public void benchmark() {
+        final Calibration calibration = calibration();
+        final Charset utf8 = Charset.forName("UTF-8");
+        final ByteBuffer binary = ByteBuffer.allocate(RawFrameCodec.maxBatchSize(COUNT));
+        final RawFrameCodec.Batch batch = new RawFrameCodec.Batch(COUNT);
+        final StringBuilder json = new StringBuilder(COUNT * 64);
+
+        for (int round = 0; round < 10; round++) {
+            // Current gateway path: compensate on the device and ship readAll() floats as JSON
+            long start = System.nanoTime();
+            json.setLength(0);
+            json.append('[');
+            for (int i = 0; i < COUNT; i++) {
+                final int temperatureFine = Compensation.temperatureFine(temperatures[i], calibration.temperature);
+                json.append(i == 0 ? "{\"ts\":" : ",{\"ts\":").append(timestamps[i])
+                    .append(",\"t\":").append(Compensation.temperature(temperatureFine) / 100.0f)
+                    .append(",\"h\":").append(Compensation.humidity(humidities[i], calibration.humidity, temperatureFine) / 1024.0f)
+                    .append(",\"p\":").append(Compensation.pressure(pressures[i], calibration.pressure, temperatureFine) / 25600.0f)
+                    .append('}');
+            }
+            json.append(']');
+            final byte[] encoded = json.toString().getBytes(utf8);
+            report("json floats encode", start, encoded.length);
+
+            start = System.nanoTime();
+            binary.clear();
+            RawFrameCodec.putBatch(binary, timestamps, temperatures, pressures, humidities, 0, COUNT);
+            report("raw frames encode", start, binary.position());
+
+            binary.flip();
+            start = System.nanoTime();
+            RawFrameCodec.getBatch(binary, batch);
+            report("raw frames decode", start, binary.position());
+        }
+    }
+
+    private static void report(String name, long start, int bytes) {
+        final double nanosPerFrame = (System.nanoTime() - start) / (double) COUNT;
+        System.out.println(String.format(Locale.US, "%-18s %7.2f ns/frame %6.2f bytes/frame", name, nanosPerFrame, bytes / (double) COUNT));
+    }
+
+    private static Calibration calibration() {
+        final Calibration calibration = new Calibration();
+        System.arraycopy(TEMPERATURE_CALIBRATION, 0, calibration.temperature, 0, TEMPERATURE_CALIBRATION.length);
+        System.arraycopy(PRESSURE_CALIBRATION, 0, calibration.pressure, 0, PRESSURE_CALIBRATION.length);
+        System.arraycopy(HUMIDITY_CALIBRATION, 0, calibration.humidity, 0, HUMIDITY_CALIBRATION.length);
+        return calibration;
+    }
+}
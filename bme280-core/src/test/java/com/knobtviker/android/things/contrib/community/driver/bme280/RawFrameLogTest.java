@@ -0,0 +1,139 @@
+package com.knobtviker.android.things.contrib.community.driver.bme280;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Random;
+
+public class RawFrameLogTest {
+
+    private static final int[] TEMPERATURE_CALIBRATION = {27504, 26435, -1000};
+    private static final int[] PRESSURE_CALIBRATION = {36477, -10685, 3024, 2855, 140, -7, 15500, -14600, 6000};
+    private static final int[] HUMIDITY_CALIBRATION = {75, 363, 0, 315, 50, 30};
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void roundTrip() throws IOException {
+        final File file = folder.newFile();
+        final int count = 100000;
+        final long[] timestamps = new long[count];
+        final int[] temperatures = new int[count];
+        final int[] pressures = new int[count];
+        final int[] humidities = new int[count];
+
+        final Random random = new Random(42);
+        long timestamp = 1500000000000L;
+        for (int i = 0; i < count; i++) {
+            timestamp += 1000 + random.nextInt(5) - 2;
+            timestamps[i] = timestamp;
+            temperatures[i] = 519888 + random.nextInt(64) - 32;
+            pressures[i] = i % 7 == 0 ? random.nextInt(1 << 20) : 415148;
+            humidities[i] = random.nextInt(1 << 16);
+        }
+
+        // A small region size forces frames to be written and read across region boundaries.
+        try (RawFrameLogWriter writer = new RawFrameLogWriter(file, calibration(), 4096)) {
+            for (int i = 0; i < count; i++) {
+                writer.append(timestamps[i], temperatures[i], pressures[i], humidities[i]);
+            }
+            Assert.assertEquals(count, writer.getFrameCount());
+        }
+
+        try (RawFrameLogReader reader = new RawFrameLogReader(file, 4096)) {
+            Assert.assertArrayEquals(TEMPERATURE_CALIBRATION, reader.getCalibration().temperature);
+            Assert.assertArrayEquals(PRESSURE_CALIBRATION, reader.getCalibration().pressure);
+            Assert.assertArrayEquals(HUMIDITY_CALIBRATION, reader.getCalibration().humidity);
+
+            for (int i = 0; i < count; i++) {
+                Assert.assertTrue(reader.next());
+                Assert.assertEquals(timestamps[i], reader.getTimestamp());
+                Assert.assertEquals(temperatures[i], reader.getRawTemperature());
+                Assert.assertEquals(pressures[i], reader.getRawPressure());
+                Assert.assertEquals(humidities[i], reader.getRawHumidity());
+            }
+            Assert.assertFalse(reader.next());
+            Assert.assertEquals(count, reader.getFrameCount());
+        }
+    }
+
+    @Test
+    public void stableFramesAreCompact() throws IOException {
+        final File file = folder.newFile();
+        final long size;
+        try (RawFrameLogWriter writer = new RawFrameLogWriter(file, calibration())) {
+            writer.append(0, 519888, 415148, 28437);
+            final long firstSize = writer.size();
+            for (int i = 1; i <= 1000; i++) {
+                writer.append(i * 50, 519888, 415148, 28437);
+            }
+            // Tag byte and a single byte timestamp delta
+            Assert.assertEquals(firstSize + 2 * 1000, writer.size());
+            size = writer.size();
+        }
+        // Truncated to the written frames and the end marker
+        Assert.assertEquals(size + 1, file.length());
+    }
+
+    @Test
+    public void emptyLog() throws IOException {
+        final File file = folder.newFile();
+        new RawFrameLogWriter(file, calibration()).close();
+
+        try (RawFrameLogReader reader = new RawFrameLogReader(file)) {
+            Assert.assertFalse(reader.next());
+        }
+    }
+
+    @Test
+    public void rejectsTruncatedFrame() throws IOException {
+        final File file = folder.newFile();
+        try (RawFrameLogWriter writer = new RawFrameLogWriter(file, calibration())) {
+            writer.append(1000, 519888, 415148, 28437);
+            writer.append(2000, 519000, 416000, 29000);
+        }
+        // Cut the end marker and the last bytes of the second frame.
+        try (RandomAccessFile out = new RandomAccessFile(file, "rw")) {
+            out.setLength(out.length() - 3);
+        }
+
+        try (RawFrameLogReader reader = new RawFrameLogReader(file)) {
+            Assert.assertTrue(reader.next());
+            try {
+                reader.next();
+                Assert.fail("Truncated frame decoded");
+            } catch (IllegalArgumentException e) {
+                Assert.assertTrue(e.getMessage(), e.getMessage().startsWith("Malformed"));
+            }
+            // The last complete frame is kept.
+            Assert.assertEquals(1000, reader.getTimestamp());
+            Assert.assertEquals(519888, reader.getRawTemperature());
+            Assert.assertEquals(1, reader.getFrameCount());
+            Assert.assertFalse(reader.next());
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsForeignFile() throws IOException {
+        final File file = folder.newFile();
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(new byte[RawFrameLogWriter.HEADER_SIZE]);
+        }
+        new RawFrameLogReader(file).close();
+    }
+
+    private static Calibration calibration() {
+        final Calibration calibration = new Calibration();
+        System.arraycopy(TEMPERATURE_CALIBRATION, 0, calibration.temperature, 0, 3);
+        System.arraycopy(PRESSURE_CALIBRATION, 0, calibration.pressure, 0, 9);
+        System.arraycopy(HUMIDITY_CALIBRATION, 0, calibration.humidity, 0, 6);
+        return calibration;
+    }
+}
@@ -0,0 +1,102 @@
+package com.knobtviker.android.things.contrib.community.driver.bme280;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class ReplayEngineTest {
+
+    private static final int[][] TEMPERATURE_CALIBRATIONS = {{27504, 26435, -1000}, {28009, 25654, 50}};
+    private static final int[][] PRESSURE_CALIBRATIONS = {
+        {36477, -10685, 3024, 2855, 140, -7, 15500, -14600, 6000},
+        {36690, -10581, 3024, 7541, -14, -7, 9900, -10230, 4285}
+    };
+    private static final int[][] HUMIDITY_CALIBRATIONS = {{75, 363, 0, 315, 50, 30}, {75, 354, 0, 339, 0, 30}};
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void replayMatchesDriverCompensation() throws IOException {
+        final int frames = 10000;
+        final List<File> inputs = new ArrayList<>();
+        final List<int[][]> raws = new ArrayList<>();
+        final Random random = new Random(7);
+        for (int f = 0; f < TEMPERATURE_CALIBRATIONS.length; f++) {
+            final File input = folder.newFile("sensor" + f + ".log");
+            final int[][] raw = new int[frames][3];
+            try (RawFrameLogWriter writer = new RawFrameLogWriter(input, calibration(f))) {
+                for (int i = 0; i < frames; i++) {
+                    raw[i][0] = 500000 + random.nextInt(40000);
+                    raw[i][1] = 300000 + random.nextInt(200000);
+                    // The second sensor is a BMP280.
+                    raw[i][2] = f == 1 ? HealthWatchdog.NOT_READ : 20000 + random.nextInt(20000);
+                    writer.append(i * 1000L, raw[i][0], raw[i][1], raw[i][2]);
+                }
+            }
+            inputs.add(input);
+            raws.add(raw);
+        }
+
+        final File outputDirectory = folder.newFolder();
+        final AtomicLong lastFramesDone = new AtomicLong();
+        final ReplayEngine engine = new ReplayEngine(new ForkJoinPool(4), 100, 1000);
+        final ReplayEngine.Result result = engine.replay(inputs, outputDirectory, new ReplayEngine.Listener() {
+            @Override
+            public void onProgress(long framesDone, long bytesRead, long elapsedNanos) {
+                lastFramesDone.set(Math.max(lastFramesDone.get(), framesDone));
+            }
+        });
+
+        Assert.assertEquals(inputs.size(), result.getFileCount());
+        Assert.assertEquals(inputs.size() * frames, result.getFrameCount());
+        Assert.assertEquals(inputs.size() * frames, lastFramesDone.get());
+
+        for (int f = 0; f < inputs.size(); f++) {
+            final File output = new File(outputDirectory, inputs.get(f).getName() + ReplayEngine.OUTPUT_EXTENSION);
+            try (RandomAccessFile file = new RandomAccessFile(output, "r")) {
+                final MappedByteBuffer buffer = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+                Assert.assertEquals(ReplayEngine.OUTPUT_MAGIC, buffer.getInt());
+                Assert.assertEquals(ReplayEngine.OUTPUT_VERSION, buffer.getShort());
+                buffer.getShort();
+                Assert.assertEquals(frames, buffer.getLong());
+
+                final int[][] raw = raws.get(f);
+                for (int i = 0; i < frames; i++) {
+                    final int temperatureFine = Compensation.temperatureFine(raw[i][0], TEMPERATURE_CALIBRATIONS[f]);
+                    final float temperature = Compensation.temperature(temperatureFine) / (float) Compensation.TEMPERATURE_SCALE;
+                    final float humidity = raw[i][2] < 0
+                        ? Float.NaN
+                        : Compensation.humidity(raw[i][2], HUMIDITY_CALIBRATIONS[f], temperatureFine) / (float) Compensation.HUMIDITY_SCALE;
+                    final float pressure = Compensation.pressure(raw[i][1], PRESSURE_CALIBRATIONS[f], temperatureFine) / (float) Compensation.PRESSURE_SCALE;
+
+                    Assert.assertEquals(i * 1000L, buffer.getLong());
+                    Assert.assertEquals(Float.floatToIntBits(temperature), Float.floatToIntBits(buffer.getFloat()));
+                    Assert.assertEquals(Float.floatToIntBits(humidity), Float.floatToIntBits(buffer.getFloat()));
+                    Assert.assertEquals(Float.floatToIntBits(pressure), Float.floatToIntBits(buffer.getFloat()));
+                }
+                Assert.assertFalse(buffer.hasRemaining());
+            }
+        }
+    }
+
+    private static Calibration calibration(int index) {
+        final Calibration calibration = new Calibration();
+        System.arraycopy(TEMPERATURE_CALIBRATIONS[index], 0, calibration.temperature, 0, 3);
+        System.arraycopy(PRESSURE_CALIBRATIONS[index], 0, calibration.pressure, 0, 9);
+        System.arraycopy(HUMIDITY_CALIBRATIONS[index], 0, calibration.humidity, 0, 6);
+        return calibration;
+    }
+}
@@ -0,0 +1,139 @@
+package com.knobtviker.android.things.contrib.community.driver.bme280;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+
+import java.io.IOException;
+
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.times;
+
+public class ResilientRegisterBusTest {
+
+    @Mock
+    private RegisterBus bus;
+
+    @Rule
+    public MockitoRule mockitoRule = MockitoJUnit.rule();
+
+    @Test
+    public void retriesUntilSuccess() throws IOException {
+        Mockito.when(bus.readRegByte(anyInt()))
+            .thenThrow(new IOException("nack"))
+            .thenThrow(new IOException("nack"))
+            .thenReturn((byte) 0x60);
+        final CircuitBreaker circuitBreaker = new CircuitBreaker(5, 1000);
+        final ResilientRegisterBus resilient = new ResilientRegisterBus(bus, new RetryPolicy(3, 1, 2, 0.5f), circuitBreaker);
+
+        Assert.assertEquals(0x60, resilient.readRegByte(0xD0));
+        Mockito.verify(bus, times(3)).readRegByte(0xD0);
+        Assert.assertEquals(2, circuitBreaker.getRetryCount());
+        Assert.assertEquals(2, circuitBreaker.getFailureCount());
+        Assert.assertEquals(CircuitBreaker.STATE_CLOSED, circuitBreaker.getState());
+    }
+
+    @Test
+    public void opensAndFailsFast() throws IOException {
+        Mockito.when(bus.readRegByte(anyInt())).thenThrow(new IOException("nack"));
+        final CircuitBreaker circuitBreaker = new CircuitBreaker(2, 60000);
+        final ResilientRegisterBus resilient = new ResilientRegisterBus(bus, new RetryPolicy(5, 0, 0, 0f), circuitBreaker);
+
+        try {
+            resilient.readRegByte(0xD0);
+            Assert.fail();
+        } catch (CircuitOpenException e) {
+            // Opened after the second failure, the third attempt is rejected
+        }
+        Mockito.verify(bus, times(2)).readRegByte(0xD0);
+        Assert.assertEquals(CircuitBreaker.STATE_OPEN, circuitBreaker.getState());
+        Assert.assertEquals(1, circuitBreaker.getOpenedCount());
+        Assert.assertEquals(1, circuitBreaker.getRejectedCount());
+    }
+
+    @Test
+    public void halfOpenProbeCloses() throws IOException, InterruptedException {
+        Mockito.when(bus.readRegByte(anyInt()))
+            .thenThrow(new IOException("nack"))
+            .thenReturn((byte) 0x60);
+        final CircuitBreaker circuitBreaker = new CircuitBreaker(1, 10);
+        final ResilientRegisterBus resilient = new ResilientRegisterBus(bus, RetryPolicy.NONE, circuitBreaker);
+
+        try {
+            resilient.readRegByte(0xD0);
+            Assert.fail();
+        } catch (IOException e) {
+            Assert.assertFalse(e instanceof CircuitOpenException);
+        }
+        Assert.assertEquals(CircuitBreaker.STATE_OPEN, circuitBreaker.getState());
+
+        Thread.sleep(20);
+        Assert.assertEquals(CircuitBreaker.STATE_HALF_OPEN, circuitBreaker.getState());
+
+        Assert.assertEquals(0x60, resilient.readRegByte(0xD0));
+        Assert.assertEquals(CircuitBreaker.STATE_CLOSED, circuitBreaker.getState());
+        Assert.assertEquals(1, circuitBreaker.getHalfOpenedCount());
+        Assert.assertEquals(1, circuitBreaker.getClosedCount());
+    }
+
+    @Test
+    public void runtimeExceptionReleasesProbe() throws IOException, InterruptedException {
+        Mockito.when(bus.readRegByte(anyInt()))
+            .thenThrow(new IOException("nack"))
+            .thenThrow(new IllegalStateException("I2C device not open"))
+            .thenReturn((byte) 0x60);
+        final CircuitBreaker circuitBreaker = new CircuitBreaker(1, 10);
+        final ResilientRegisterBus resilient = new ResilientRegisterBus(bus, RetryPolicy.NONE, circuitBreaker);
+
+        try {
+            resilient.readRegByte(0xD0);
+            Assert.fail();
+        } catch (IOException e) {
+            Assert.assertFalse(e instanceof CircuitOpenException);
+        }
+        Thread.sleep(20);
+
+        try {
+            resilient.readRegByte(0xD0);
+            Assert.fail();
+        } catch (IllegalStateException e) {
+            // The probe ended without a bus result
+        }
+        Assert.assertEquals(CircuitBreaker.STATE_HALF_OPEN, circuitBreaker.getState());
+
+        Assert.assertEquals(0x60, resilient.readRegByte(0xD0));
+        Assert.assertEquals(CircuitBreaker.STATE_CLOSED, circuitBreaker.getState());
+        Assert.assertEquals(0, circuitBreaker.getRejectedCount());
+    }
+
+    @Test
+    public void retriesAreCountedWithoutBreaker() throws IOException {
+        final RegisterBus flaky = new ForwardingRegisterBus(new BME280Simulator()) {
+            private int failures = 1;
+
+            @Override
+            protected void transaction() throws IOException {
+                if (failures > 0) {
+                    failures--;
+                    throw new IOException("nack");
+                }
+            }
+        };
+        final BME280Device device = new BME280Device(flaky, new RetryPolicy(3, 0, 0, 0f), null);
+        try {
+            final CircuitBreaker circuitBreaker = device.getCircuitBreaker();
+            Assert.assertNotNull(circuitBreaker);
+            Assert.assertEquals(1, circuitBreaker.getRetryCount());
+            Assert.assertEquals(1, circuitBreaker.getFailureCount());
+            Assert.assertEquals(CircuitBreaker.STATE_CLOSED, circuitBreaker.getState());
+        } finally {
+            device.close();
+        }
+
+        Assert.assertNull(new BME280Device(new BME280Simulator()).getCircuitBreaker());
+    }
+}
@@ -0,0 +1,156 @@
+package com.knobtviker.android.things.contrib.community.driver.bme280;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Random;
+
+public class RollingAggregatorTest {
+
+    @Test
+    public void expiresEntriesOlderThanSpan() {
+        final RollingWindow window = new RollingWindow(1000, 0, 100);
+        window.add(0, 5);
+        window.add(400, 1);
+        window.add(800, 9);
+        Assert.assertEquals(3, window.count());
+        Assert.assertEquals(1, window.min());
+        Assert.assertEquals(9, window.max());
+
+        // The window covers (1400 - 1000, 1400], the entry at 400 just expired.
+        window.add(1400, 3);
+        Assert.assertEquals(2, window.count());
+        Assert.assertEquals(3, window.min());
+        Assert.assertEquals(9, window.max());
+        Assert.assertEquals(6.0, window.mean(), 0.0);
+
+        window.add(5000, 7);
+        Assert.assertEquals(1, window.count());
+        Assert.assertEquals(7, window.min());
+        Assert.assertEquals(7, window.max());
+    }
+
+    @Test
+    public void matchesBruteForce() {
+        for (final long bucketPeriod : new long[] {0, 7, 50}) {
+            final long span = 200;
+            final int count = 5000;
+            final long[] times = new long[count];
+            final int[] values = new int[count];
+            final Random random = new Random(bucketPeriod);
+            final RollingWindow window = new RollingWindow(span, bucketPeriod, bucketPeriod == 0 ? 256 : (int) (span / bucketPeriod) + 2);
+            long time = -1000;
+            for (int i = 0; i < count; i++) {
+                // Bursts of equal timestamps, short steps and gaps longer than the span.
+                time += i % 500 == 0 ? 300 : random.nextInt(4);
+                times[i] = time;
+                values[i] = random.nextInt(2001) - 1000;
+                window.add(time, values[i]);
+
+                final long currentBucket = bucketPeriod == 0 ? time : bucketStart(time, bucketPeriod);
+                long expectedCount = 0;
+                long expectedSum = 0;
+                int expectedMin = Integer.MAX_VALUE;
+                int expectedMax = Integer.MIN_VALUE;
+                for (int j = i; j >= 0; j--) {
+                    final long entryTime = bucketPeriod == 0 ? times[j] : bucketStart(times[j], bucketPeriod);
+                    if (entryTime <= time - span && entryTime != currentBucket) {
+                        break;
+                    }
+                    expectedCount++;
+                    expectedSum += values[j];
+                    expectedMin = Math.min(expectedMin, values[j]);
+                    expectedMax = Math.max(expectedMax, values[j]);
+                }
+                Assert.assertFalse(window.truncated());
+                Assert.assertEquals(expectedCount, window.count());
+                Assert.assertEquals(expectedMin, window.min());
+                Assert.assertEquals(expectedMax, window.max());
+                Assert.assertEquals(expectedSum / (double) expectedCount, window.mean(), 1e-9);
+            }
+        }
+    }
+
+    @Test
+    public void reportsCapacityOverflow() {
+        final RollingWindow window = new RollingWindow(1000, 0, 10);
+        for (int i = 0; i < 20; i++) {
+            window.add(i, i);
+        }
+        // Only the newest 10 entries are kept.
+        Assert.assertTrue(window.truncated());
+        Assert.assertEquals(10, window.count());
+        Assert.assertEquals(10, window.min());
+        Assert.assertEquals(19, window.max());
+
+        // Still full of live entries, the entry at 10 is dropped early.
+        window.add(1009, 0);
+        Assert.assertTrue(window.truncated());
+        // Once the dropped entries would have expired the window covers its whole span again.
+        window.add(1020, 0);
+        Assert.assertFalse(window.truncated());
+        Assert.assertEquals(2, window.count());
+
+        window.clear();
+        Assert.assertFalse(window.truncated());
+        Assert.assertEquals(0, window.count());
+    }
+
+    @Test
+    public void rollsOverTiers() {
+        final RollingAggregator aggregator = new RollingAggregator(new long[] {10, 100}, 100);
+        for (int t = 0; t < 250; t++) {
+            aggregator.add(t, t, 101325 * 256, 45 * 1024);
+        }
+        Assert.assertFalse(aggregator.isTruncated(0));
+        Assert.assertFalse(aggregator.isTruncated(1));
+
+        // The first tier covers (239, 249].
+        Assert.assertEquals(10, aggregator.getCount(0, RollingAggregator.CHANNEL_TEMPERATURE));
+        Assert.assertEquals(2.40f, aggregator.getMin(0, RollingAggregator.CHANNEL_TEMPERATURE), 1e-6f);
+        Assert.assertEquals(2.49f, aggregator.getMax(0, RollingAggregator.CHANNEL_TEMPERATURE), 1e-6f);
+
+        // The second tier keeps the buckets starting after 149 and the current bucket, samples 150 to 249.
+        Assert.assertEquals(100, aggregator.getCount(1, RollingAggregator.CHANNEL_TEMPERATURE));
+        Assert.assertEquals(1.50f, aggregator.getMin(1, RollingAggregator.CHANNEL_TEMPERATURE), 1e-6f);
+        Assert.assertEquals(2.49f, aggregator.getMax(1, RollingAggregator.CHANNEL_TEMPERATURE), 1e-6f);
+        Assert.assertEquals(1.995f, aggregator.getMean(1, RollingAggregator.CHANNEL_TEMPERATURE), 1e-6f);
+        Assert.assertEquals(1013.25f, aggregator.getMean(1, RollingAggregator.CHANNEL_PRESSURE), 1e-3f);
+        Assert.assertEquals(45f, aggregator.getMax(1, RollingAggregator.CHANNEL_HUMIDITY), 0f);
+
+        aggregator.clear();
+        Assert.assertEquals(0, aggregator.getCount(1, RollingAggregator.CHANNEL_PRESSURE));
+        Assert.assertTrue(Float.isNaN(aggregator.getMin(1, RollingAggregator.CHANNEL_PRESSURE)));
+    }
+
+    @Test
+    public void truncatesFirstTierAboveLimit() {
+        final RollingAggregator aggregator = new RollingAggregator(new long[] {10, 100}, 5);
+        for (int t = 0; t < 10; t++) {
+            aggregator.add(t, t, 0, 0);
+        }
+        Assert.assertTrue(aggregator.isTruncated(0));
+        Assert.assertFalse(aggregator.isTruncated(1));
+        Assert.assertEquals(5, aggregator.getCount(0, RollingAggregator.CHANNEL_TEMPERATURE));
+        Assert.assertEquals(10, aggregator.getCount(1, RollingAggregator.CHANNEL_TEMPERATURE));
+    }
+
+    @Test
+    public void addsRawSamplesWithoutHumidity() {
+        final RollingAggregator aggregator = new RollingAggregator(10);
+        final Calibration calibration = BME280Simulator.defaultCalibration();
+        final RawSample sample = new RawSample(519888, 415148, 30000, calibration);
+        aggregator.add(0, sample);
+        aggregator.add(1, new RawSample(519888, 415148, HealthWatchdog.NOT_READ, calibration));
+
+        Assert.assertEquals(2, aggregator.getCount(RollingAggregator.TIER_SECOND, RollingAggregator.CHANNEL_PRESSURE));
+        Assert.assertEquals(1, aggregator.getCount(RollingAggregator.TIER_SECOND, RollingAggregator.CHANNEL_HUMIDITY));
+        Assert.assertEquals(sample.getPressure(), aggregator.getMax(RollingAggregator.TIER_SECOND, RollingAggregator.CHANNEL_PRESSURE), 0f);
+        Assert.assertEquals(sample.getHumidity(), aggregator.getMin(RollingAggregator.TIER_HOUR, RollingAggregator.CHANNEL_HUMIDITY), 0f);
+    }
+
+    private static long bucketStart(final long time, final long period) {
+        final long mod = time % period;
+        return time - (mod < 0 ? mod + period : mod);
+    }
+}
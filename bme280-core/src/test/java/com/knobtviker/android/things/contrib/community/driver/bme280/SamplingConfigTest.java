@@ -0,0 +1,70 @@
+package com.knobtviker.android.things.contrib.community.driver.bme280;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SamplingConfigTest {
+
+    @Test
+    public void presetsKeepTheirRegisterValues() {
+        Assert.assertEquals(new SamplingConfig(BME280Device.MODE_NORMAL,
+            BME280Device.OVERSAMPLING_16X, BME280Device.OVERSAMPLING_16X, BME280Device.OVERSAMPLING_16X,
+            BME280Device.FILTER_OFF, BME280Device.STANDBY_MS_0_5), SamplingConfig.PRESET_NORMAL);
+        Assert.assertEquals(new SamplingConfig(BME280Device.MODE_NORMAL,
+            BME280Device.OVERSAMPLING_1X, BME280Device.OVERSAMPLING_1X, BME280Device.OVERSAMPLING_1X,
+            BME280Device.FILTER_OFF, BME280Device.STANDBY_MS_0_5), SamplingConfig.PRESET_WEATHER_STATION);
+        Assert.assertEquals(new SamplingConfig(BME280Device.MODE_NORMAL,
+            BME280Device.OVERSAMPLING_2X, BME280Device.OVERSAMPLING_16X, BME280Device.OVERSAMPLING_1X,
+            BME280Device.FILTER_X16, BME280Device.STANDBY_MS_0_5), SamplingConfig.PRESET_INDOOR_NAVIGATION);
+    }
+
+    @Test
+    public void indoorNavigationMatchesDatasheet() {
+        final SamplingConfig config = SamplingConfig.PRESET_INDOOR_NAVIGATION;
+        Assert.assertEquals(40000, config.getMeasurementTimeTypicalMicros());
+        Assert.assertEquals(46100, config.getMeasurementTimeMaxMicros());
+        // Datasheet: 25 Hz, 633 uA, 0.9 s response time
+        Assert.assertEquals(25f, config.getOutputDataRateHz(), 0.5f);
+        Assert.assertEquals(633f, config.getEstimatedCurrentMicroamps(), 10f);
+        Assert.assertEquals(22, config.getFilterStepResponseSamples());
+        Assert.assertEquals(900000, config.getFilterStepResponseMicros(), 10000);
+        // First conversion and 21 more periods, 46.1 ms maximum measurement time and 0.5 ms standby
+        Assert.assertEquals(46100 + 21 * 46600, config.getSettlingTimeMicros());
+    }
+
+    @Test
+    public void weatherMonitoringMatchesDatasheet() {
+        final SamplingConfig config = new SamplingConfig.Builder(SamplingConfig.PRESET_WEATHER_STATION)
+            .mode(BME280Device.MODE_FORCED)
+            .build();
+        Assert.assertEquals(0f, config.getOutputDataRateHz(), 0f);
+        // Datasheet: 0.16 uA with a forced conversion per minute
+        Assert.assertEquals(0.16f, config.getEstimatedCurrentMicroamps(1 / 60f), 0.01f);
+        Assert.assertEquals(1, config.getFilterStepResponseSamples());
+        Assert.assertEquals(0, config.getSettlingTimeMicros());
+    }
+
+    @Test
+    public void standbyLowersOutputDataRateAndCurrent() {
+        final SamplingConfig.Builder builder = new SamplingConfig.Builder();
+        final SamplingConfig fast = builder.build();
+        final SamplingConfig slow = builder.standbyDuration(BME280Device.STANDBY_MS_1000).build();
+        Assert.assertEquals(1000000f / 8500, fast.getOutputDataRateHz(), 0.01f);
+        Assert.assertEquals(1000000f / 1008000, slow.getOutputDataRateHz(), 0.0001f);
+        Assert.assertTrue(slow.getEstimatedCurrentMicroamps() < fast.getEstimatedCurrentMicroamps() / 100);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void builderRejectsPressureWithoutTemperature() {
+        new SamplingConfig.Builder()
+            .temperatureOversampling(BME280Device.OVERSAMPLING_SKIPPED)
+            .build();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void builderRejectsOutOfRangeValues() {
+        new SamplingConfig.Builder()
+            .filter(7)
+            .build();
+    }
+}
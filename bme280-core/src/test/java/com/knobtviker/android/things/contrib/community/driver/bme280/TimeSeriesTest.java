@@ -0,0 +1,180 @@
+package com.knobtviker.android.things.contrib.community.driver.bme280;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+public class TimeSeriesTest {
+
+    private static final int COUNT = 20000;
+
+    private final long[] timestamps = new long[COUNT];
+    private final int[] values = new int[COUNT];
+
+    public TimeSeriesTest() {
+        final Random random = new Random(5);
+        long timestamp = 1500000000000L;
+        int value = 2000;
+        for (int i = 0; i < COUNT; i++) {
+            // Mostly regular with jitter, gaps, repeated timestamps and value jumps of every code length.
+            timestamp += i % 500 == 0 ? random.nextInt(1 << 20) : i % 97 == 0 ? 0 : 1000 + random.nextInt(5) - 2;
+            value += i % 300 == 0 ? random.nextInt() : i % 50 == 0 ? random.nextInt(200000) - 100000 : random.nextInt(7) - 3;
+            timestamps[i] = timestamp;
+            values[i] = value;
+        }
+    }
+
+    @Test
+    public void scanReturnsAppendedSamples() {
+        final TimeSeries series = new TimeSeries(256, Integer.MAX_VALUE);
+        for (int i = 0; i < COUNT; i++) {
+            series.append(timestamps[i], values[i]);
+        }
+        Assert.assertEquals(COUNT, series.size());
+        Assert.assertEquals(timestamps[0], series.getFirstTimestamp());
+        Assert.assertEquals(timestamps[COUNT - 1], series.getLastTimestamp());
+
+        assertScan(series, Long.MIN_VALUE, Long.MAX_VALUE);
+        assertScan(series, timestamps[1234], timestamps[5678]);
+        assertScan(series, timestamps[3000] + 1, timestamps[3001]);
+    }
+
+    @Test
+    public void downsampleMatchesSamples() {
+        final TimeSeries series = new TimeSeries(128, Integer.MAX_VALUE);
+        for (int i = 0; i < COUNT; i++) {
+            series.append(timestamps[i], values[i]);
+        }
+        for (final long width : new long[] {1000L, 60000L, 3600000L}) {
+            final long from = timestamps[100] + 17;
+            final long to = timestamps[COUNT - 100];
+            final List<long[]> expected = new ArrayList<>();
+            long[] bucket = null;
+            for (int i = 0; i < COUNT; i++) {
+                if (timestamps[i] < from || timestamps[i] >= to) {
+                    continue;
+                }
+                final long start = from + (timestamps[i] - from) / width * width;
+                if (bucket == null || bucket[0] != start) {
+                    bucket = new long[] {start, 0, Integer.MAX_VALUE, Integer.MIN_VALUE, 0};
+                    expected.add(bucket);
+                }
+                bucket[1]++;
+                bucket[2] = Math.min(bucket[2], values[i]);
+                bucket[3] = Math.max(bucket[3], values[i]);
+                bucket[4] += values[i];
+            }
+
+            final List<long[]> actual = new ArrayList<>();
+            series.downsample(from, to, width, new TimeSeries.BucketVisitor() {
+                @Override
+                public void visit(long bucketStart, int count, int min, int max, double mean) {
+                    actual.add(new long[] {bucketStart, count, min, max, Math.round(mean * count)});
+                }
+            });
+
+            Assert.assertEquals(expected.size(), actual.size());
+            for (int i = 0; i < expected.size(); i++) {
+                Assert.assertArrayEquals(expected.get(i), actual.get(i));
+            }
+        }
+    }
+
+    @Test
+    public void dropsOldestBlocks() {
+        final TimeSeries series = new TimeSeries(100, 3);
+        for (int i = 0; i < 1050; i++) {
+            series.append(i, i);
+        }
+        Assert.assertEquals(250, series.size());
+        Assert.assertEquals(800, series.getFirstTimestamp());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsDecreasingTimestamps() {
+        final TimeSeries series = new TimeSeries();
+        series.append(10, 0);
+        series.append(9, 0);
+    }
+
+    @Test
+    public void holdsDaysOfSamplesInAFewHundredKilobytes() {
+        final int days = 2;
+        final SensorHistory history = new SensorHistory(Integer.MAX_VALUE, 1000L);
+        final Random random = new Random(9);
+        final long start = 1500000000000L;
+        for (int second = 0; second < days * 86400; second++) {
+            final double hours = second / 3600.0;
+            final double temperature = 21 + 4 * Math.sin(2 * Math.PI * hours / 24) + 0.01 * random.nextGaussian();
+            final double pressure = 1013.25 + 3 * Math.sin(2 * Math.PI * hours / 60) + 0.012 * random.nextGaussian();
+            final double humidity = 45 - 10 * Math.sin(2 * Math.PI * hours / 24) + 0.02 * random.nextGaussian();
+            history.append(start + second * 1000L + random.nextInt(3), (int) Math.round(temperature * 100),
+                (int) Math.round(pressure * 25600), (int) Math.round(humidity * 1024));
+        }
+
+        Assert.assertEquals(days * 86400, history.getPressure().size());
+        Assert.assertTrue("bytes " + history.getCompressedBytes(), history.getCompressedBytes() < 400 * 1024);
+
+        final int[] last = new int[3];
+        history.getPressure().scan(start + 60000L, start + 61000L, new TimeSeries.Visitor() {
+            @Override
+            public void visit(long timestamp, int value) {
+                last[0] = value;
+            }
+        });
+        Assert.assertEquals(101325 + 300 * Math.sin(2 * Math.PI / 60 / 60), last[0], 5);
+    }
+
+    @Test
+    public void historyQuantizesToHundredths() {
+        final SensorHistory history = new SensorHistory(10, 1);
+        final RawSample sample = new RawSample(519888, 415148, 30000, BME280Simulator.defaultCalibration());
+        history.append(0, sample);
+        history.append(1, new RawSample(519888, 415148, HealthWatchdog.NOT_READ, BME280Simulator.defaultCalibration()));
+
+        final float[] stored = new float[3];
+        history.getTemperature().scan(0, 1, new TimeSeries.Visitor() {
+            @Override
+            public void visit(long timestamp, int value) {
+                stored[0] = value / (float) SensorHistory.SCALE;
+            }
+        });
+        history.getPressure().scan(0, 1, new TimeSeries.Visitor() {
+            @Override
+            public void visit(long timestamp, int value) {
+                stored[1] = value / (float) SensorHistory.SCALE;
+            }
+        });
+        history.getHumidity().scan(0, 1, new TimeSeries.Visitor() {
+            @Override
+            public void visit(long timestamp, int value) {
+                stored[2] = value / (float) SensorHistory.SCALE;
+            }
+        });
+        Assert.assertEquals(sample.getTemperature(), stored[0], 0.005f);
+        Assert.assertEquals(sample.getPressure(), stored[1], 0.005f);
+        Assert.assertEquals(sample.getHumidity(), stored[2], 0.005f);
+        Assert.assertEquals(2, history.getPressure().size());
+        Assert.assertEquals(1, history.getHumidity().size());
+    }
+
+    private void assertScan(final TimeSeries series, final long from, final long to) {
+        final List<long[]> scanned = new ArrayList<>();
+        series.scan(from, to, new TimeSeries.Visitor() {
+            @Override
+            public void visit(long timestamp, int value) {
+                scanned.add(new long[] {timestamp, value});
+            }
+        });
+        int index = 0;
+        for (int i = 0; i < COUNT; i++) {
+            if (timestamps[i] >= from && timestamps[i] < to) {
+                Assert.assertArrayEquals(new long[] {timestamps[i], values[i]}, scanned.get(index++));
+            }
+        }
+        Assert.assertEquals(index, scanned.size());
+    }
+}
@@ -21,7 +21,6 @@ public class BME280SensorDriver implements AutoCloseable {
     // DRIVER parameters
     // documented at https://source.android.com/devices/sensors/hal-interface.html#sensor_t
     private static final String DRIVER_VENDOR = BME280.CHIP_VENDOR;
-    private static final String DRIVER_NAME = BME280.CHIP_NAME;
     private static final int DRIVER_MIN_DELAY_US = Math.round(1000000.f / BME280.MAX_FREQ_HZ);
     private static final int DRIVER_MAX_DELAY_US = Math.round(1000000.f / BME280.MIN_FREQ_HZ);
 
@@ -56,6 +55,23 @@ public class BME280SensorDriver implements AutoCloseable {
         mDevice = new BME280(bus, address);
     }
 
+    /**
+     * Create a new framework sensor driver connected on the given bus and address, with bus transactions
+     * retried and guarded by a circuit breaker.
+     * The driver emits {@link Sensor} with pressure and temperature data when
+     * registered.
+     * @param bus I2C bus the sensor is connected to.
+     * @param address I2C address of the sensor.
+     * @param retryPolicy retry policy of failed transactions, or null to never retry.
+     * @param circuitBreaker circuit breaker of this sensor, or null to never fail fast.
+     * @throws IOException
+     * @see #registerPressureSensor()
+     * @see #registerTemperatureSensor()
+     */
+    public BME280SensorDriver(String bus, int address, RetryPolicy retryPolicy, CircuitBreaker circuitBreaker) throws IOException {
+        mDevice = new BME280(bus, address, retryPolicy, circuitBreaker);
+    }
+
     /**
      * Close the driver and the underlying device.
      * @throws IOException
@@ -104,14 +120,30 @@ public class BME280SensorDriver implements AutoCloseable {
         }
     }
 
+    /**
+     * Returns true if the sensor measures humidity, the BMP280 doesn't.
+     * @see #registerHumiditySensor()
+     */
+    public boolean hasHumiditySensor() {
+        if (mDevice == null) {
+            throw new IllegalStateException("driver is closed");
+        }
+
+        return mDevice.getChipProfile().hasHumidity();
+    }
+
     /**
      * Register a {@link UserSensor} that pipes humidity readings into the Android SensorManager.
+     * @throws IllegalStateException if the sensor has no humidity, see {@link #hasHumiditySensor()}.
      * @see #unregisterHumiditySensor()
      */
     public void registerHumiditySensor() {
         if (mDevice == null) {
             throw new IllegalStateException("cannot register closed driver");
         }
+        if (!hasHumiditySensor()) {
+            throw new IllegalStateException(mDevice.getChipProfile().getName() + " has no humidity sensor");
+        }
 
         if (mHumidityUserDriver == null) {
             mHumidityUserDriver = new HumidityUserDriver();
@@ -153,7 +185,7 @@ public class BME280SensorDriver implements AutoCloseable {
         // DRIVER parameters
         // documented at https://source.android.com/devices/sensors/hal-interface.html#sensor_t
         private static final float DRIVER_MAX_RANGE = BME280.MAX_PRESSURE_HPA;
-        private static final float DRIVER_RESOLUTION = 0.0262f;
+        private static final float DRIVER_RESOLUTION = BME280.RESOLUTION_PRESSURE_HPA;
         private static final float DRIVER_POWER = BME280.MAX_POWER_CONSUMPTION_PRESSURE_UA / 1000.f;
         private static final int DRIVER_VERSION = 1;
 
@@ -164,7 +196,7 @@ public class BME280SensorDriver implements AutoCloseable {
             if (mUserSensor == null) {
                 mUserSensor = new UserSensor.Builder()
                     .setType(Sensor.TYPE_PRESSURE)
-                    .setName(DRIVER_NAME)
+                    .setName(mDevice.getChipProfile().getName())
                     .setVendor(DRIVER_VENDOR)
                     .setVersion(DRIVER_VERSION)
                     .setMaxRange(DRIVER_MAX_RANGE)
@@ -195,7 +227,7 @@ public class BME280SensorDriver implements AutoCloseable {
         // DRIVER parameters
         // documented at https://source.android.com/devices/sensors/hal-interface.html#sensor_t
         private static final float DRIVER_MAX_RANGE = BME280.MAX_TEMP_C;
-        private static final float DRIVER_RESOLUTION = 0.005f;
+        private static final float DRIVER_RESOLUTION = BME280.RESOLUTION_TEMP_C;
         private static final float DRIVER_POWER = BME280.MAX_POWER_CONSUMPTION_TEMP_UA / 1000.f;
         private static final int DRIVER_VERSION = 1;
 
@@ -206,7 +238,7 @@ public class BME280SensorDriver implements AutoCloseable {
             if (mUserSensor == null) {
                 mUserSensor = new UserSensor.Builder()
                     .setType(Sensor.TYPE_AMBIENT_TEMPERATURE)
-                    .setName(DRIVER_NAME)
+                    .setName(mDevice.getChipProfile().getName())
                     .setVendor(DRIVER_VENDOR)
                     .setVersion(DRIVER_VERSION)
                     .setMaxRange(DRIVER_MAX_RANGE)
@@ -237,7 +269,7 @@ public class BME280SensorDriver implements AutoCloseable {
         // DRIVER parameters
         // documented at https://source.android.com/devices/sensors/hal-interface.html#sensor_t
         private static final float DRIVER_MAX_RANGE = BME280.MAX_HUMIDITY_PERCENT;
-        private static final float DRIVER_RESOLUTION = 0.005f;
+        private static final float DRIVER_RESOLUTION = BME280.RESOLUTION_HUMIDITY_PERCENT;
         private static final float DRIVER_POWER = BME280.MAX_POWER_CONSUMPTION_HUMIDITY_UA / 1000.f;
         private static final int DRIVER_VERSION = 1;
 
@@ -248,7 +280,7 @@ public class BME280SensorDriver implements AutoCloseable {
             if (mUserSensor == null) {
                 mUserSensor = new UserSensor.Builder()
                     .setType(Sensor.TYPE_RELATIVE_HUMIDITY)
-                    .setName(DRIVER_NAME)
+                    .setName(mDevice.getChipProfile().getName())
                     .setVendor(DRIVER_VENDOR)
                     .setVersion(DRIVER_VERSION)
                     .setMaxRange(DRIVER_MAX_RANGE)
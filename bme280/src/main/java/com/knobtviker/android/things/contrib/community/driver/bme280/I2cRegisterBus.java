@@ -0,0 +1,42 @@
+package com.knobtviker.android.things.contrib.community.driver.bme280;
+
+import com.google.android.things.pio.I2cDevice;
+
+import java.io.IOException;
+
+/**
+ * {@link RegisterBus} over an Android Things {@link I2cDevice}.
+ */
+class I2cRegisterBus implements RegisterBus {
+
+    private final I2cDevice device;
+
+    I2cRegisterBus(I2cDevice device) {
+        this.device = device;
+    }
+
+    @Override
+    public void readRegBuffer(int reg, byte[] buffer, int length) throws IOException {
+        device.readRegBuffer(reg, buffer, length);
+    }
+
+    @Override
+    public byte readRegByte(int reg) throws IOException {
+        return device.readRegByte(reg);
+    }
+
+    @Override
+    public short readRegWord(int reg) throws IOException {
+        return device.readRegWord(reg);
+    }
+
+    @Override
+    public void writeRegByte(int reg, byte data) throws IOException {
+        device.writeRegByte(reg, data);
+    }
+
+    @Override
+    public void close() throws IOException {
+        device.close();
+    }
+}
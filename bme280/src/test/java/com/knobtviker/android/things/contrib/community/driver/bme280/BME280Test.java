@@ -11,11 +11,15 @@ import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.junit.MockitoJUnit;
 import org.mockito.junit.MockitoRule;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 
 import java.io.IOException;
 
 import static com.knobtviker.android.things.contrib.community.driver.bme280.BitsMatcher.hasBitsSet;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyByte;
+import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.times;
 import static org.mockito.hamcrest.MockitoHamcrest.byteThat;
@@ -51,7 +55,8 @@ public class BME280Test {
 
     @Test
     public void testCompensateTemperature() {
-        final float temperature = BME280.compensateTemperature(RAW_TEMPERATURE, TEMPERATURE_CALIBRATION);
+        final int temperatureFine = Compensation.temperatureFine(RAW_TEMPERATURE, TEMPERATURE_CALIBRATION);
+        final float temperature = Compensation.temperature(temperatureFine) / (float) Compensation.TEMPERATURE_SCALE;
 
         Assert.assertEquals(EXPECTED_TEMPERATURE, temperature, EXPECTED_TEMPERATURE * TOLERANCE);
         Assert.assertEquals(EXPECTED_FINE_TEMPERATURE, temperature * 5120.0f, EXPECTED_FINE_TEMPERATURE * TOLERANCE);
@@ -59,16 +64,20 @@ public class BME280Test {
 
     @Test
     public void testCompensatePressure() {
-        final float tempResult = BME280.compensateTemperature(RAW_TEMPERATURE, TEMPERATURE_CALIBRATION);
-        final float pressure = BME280.compensatePressure(RAW_PRESSURE, PRESSURE_CALIBRATION, (int) (tempResult * 100.0f));
+        final int temperatureFine = Compensation.temperatureFine(RAW_TEMPERATURE, TEMPERATURE_CALIBRATION);
+        final float tempResult = Compensation.temperature(temperatureFine) / (float) Compensation.TEMPERATURE_SCALE;
+        final float pressure = Compensation.pressure(RAW_PRESSURE, PRESSURE_CALIBRATION, (int) (tempResult * 100.0f))
+            / (float) Compensation.PRESSURE_SCALE;
 
         Assert.assertEquals(EXPECTED_PRESSURE, pressure, EXPECTED_PRESSURE * TOLERANCE);
     }
 
     @Test
     public void testCompensateHumidity() {
-        final float tempResult = BME280.compensateTemperature(RAW_TEMPERATURE, TEMPERATURE_CALIBRATION);
-        final float humidity = BME280.compensateHumidity(RAW_HUMIDITY, HUMIDITY_CALIBRATION, (int) (tempResult * 100.0f));
+        final int temperatureFine = Compensation.temperatureFine(RAW_TEMPERATURE, TEMPERATURE_CALIBRATION);
+        final float tempResult = Compensation.temperature(temperatureFine) / (float) Compensation.TEMPERATURE_SCALE;
+        final float humidity = Compensation.humidity(RAW_HUMIDITY, HUMIDITY_CALIBRATION, (int) (tempResult * 100.0f))
+            / (float) Compensation.HUMIDITY_SCALE;
 
         Assert.assertEquals(EXPECTED_HUMIDITY, humidity, EXPECTED_HUMIDITY * TOLERANCE);
     }
@@ -157,8 +166,7 @@ public class BME280Test {
         bme280.setSamplingNormal();
         bme280.readTemperatureAndPressure();
 
-        Mockito.verify(i2cDevice).readRegBuffer(eq(0xFA), any(byte[].class), eq(3));
-        Mockito.verify(i2cDevice).readRegBuffer(eq(0xF7), any(byte[].class), eq(3));
+        Mockito.verify(i2cDevice).readRegBuffer(eq(0xF7), any(byte[].class), eq(6));
     }
 
     @Test
@@ -179,8 +187,7 @@ public class BME280Test {
         bme280.setSamplingNormal();
         bme280.readTemperatureAndPressure();
 
-        Mockito.verify(i2cDevice).readRegBuffer(eq(0xFA), any(byte[].class), eq(3));
-        Mockito.verify(i2cDevice).readRegBuffer(eq(0xF7), any(byte[].class), eq(3));
+        Mockito.verify(i2cDevice).readRegBuffer(eq(0xF7), any(byte[].class), eq(6));
     }
 
     @Test
@@ -201,8 +208,7 @@ public class BME280Test {
         bme280.setSamplingNormal();
         bme280.readHumidity();
 
-        Mockito.verify(i2cDevice).readRegBuffer(eq(0xFA), any(byte[].class), eq(3));
-        Mockito.verify(i2cDevice).readRegBuffer(eq(0xFD), any(byte[].class), eq(2));
+        Mockito.verify(i2cDevice).readRegBuffer(eq(0xFA), any(byte[].class), eq(5));
     }
 
     @Test
@@ -216,4 +222,85 @@ public class BME280Test {
 
         bme280.readHumidity();
     }
+
+    @Test
+    public void readRawSample() throws IOException {
+        final BME280 bme280 = new BME280(i2cDevice);
+        bme280.setSamplingNormal();
+        bme280.readRawSample();
+
+        Mockito.verify(i2cDevice).readRegBuffer(eq(0xF7), any(byte[].class), eq(8));
+    }
+
+    @Test
+    public void rawSample_compensatesLazily() {
+        final Calibration calibration = new Calibration();
+        System.arraycopy(TEMPERATURE_CALIBRATION, 0, calibration.temperature, 0, 3);
+        System.arraycopy(PRESSURE_CALIBRATION, 0, calibration.pressure, 0, 9);
+        System.arraycopy(HUMIDITY_CALIBRATION, 0, calibration.humidity, 0, 6);
+        final RawSample sample = new RawSample(RAW_TEMPERATURE, RAW_PRESSURE, RAW_HUMIDITY, calibration);
+
+        final int temperatureFine = Compensation.temperatureFine(RAW_TEMPERATURE, TEMPERATURE_CALIBRATION);
+        Assert.assertEquals(Compensation.temperature(temperatureFine) / (float) Compensation.TEMPERATURE_SCALE,
+            sample.getTemperature(), 0f);
+        Assert.assertEquals(Compensation.pressure(RAW_PRESSURE, PRESSURE_CALIBRATION, temperatureFine) / (float) Compensation.PRESSURE_SCALE,
+            sample.getPressure(), 0f);
+        Assert.assertEquals(Compensation.humidity(RAW_HUMIDITY, HUMIDITY_CALIBRATION, temperatureFine) / (float) Compensation.HUMIDITY_SCALE,
+            sample.getHumidity(), 0f);
+    }
+
+    @Test
+    public void healthWatchdog_recoversFromReset() throws IOException {
+        final BME280 bme280 = new BME280(i2cDevice);
+        final HealthWatchdog watchdog = new HealthWatchdog(10, 0);
+        bme280.setHealthWatchdog(watchdog);
+
+        // Reset values before the first valid sample are pending conversions
+        mockTemperature(0x80000);
+        bme280.readTemperature();
+        Assert.assertEquals(0, watchdog.getResetValueCount());
+
+        mockTemperature(RAW_TEMPERATURE);
+        bme280.readTemperature();
+
+        Mockito.reset(i2cDevice);
+        mockTemperature(0x80000);
+        try {
+            bme280.readTemperature();
+            Assert.fail();
+        } catch (SensorResetException e) {
+            // Expected
+        }
+        Assert.assertEquals(1, watchdog.getResetValueCount());
+        Assert.assertEquals(1, watchdog.getRecoveryCount());
+        Mockito.verify(i2cDevice).writeRegByte(eq(BME280.BME280_REG_CTRL_HUM), anyByte());
+        Mockito.verify(i2cDevice).writeRegByte(eq(BME280.BME280_REG_CTRL), anyByte());
+        Mockito.verify(i2cDevice, Mockito.never()).writeRegByte(eq(0xE0), anyByte());
+    }
+
+    @Test
+    public void healthWatchdog_detectsFrozenReadings() throws IOException {
+        final BME280 bme280 = new BME280(i2cDevice);
+        final HealthWatchdog watchdog = new HealthWatchdog(3, 0);
+        bme280.setHealthWatchdog(watchdog);
+        mockTemperature(RAW_TEMPERATURE);
+
+        bme280.readTemperature();
+        bme280.readTemperature();
+        expectedException.expect(SensorResetException.class);
+        bme280.readTemperature();
+    }
+
+    private void mockTemperature(final int raw) throws IOException {
+        Mockito.doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) {
+                final byte[] buffer = invocation.getArgument(1);
+                buffer[0] = (byte) (raw >> 12);
+                buffer[1] = (byte) (raw >> 4);
+                buffer[2] = (byte) (raw << 4);
+                return null;
+            }
+        }).when(i2cDevice).readRegBuffer(eq(0xFA), any(byte[].class), anyInt());
+    }
 }